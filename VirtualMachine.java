@@ -1,26 +1,147 @@
 import java.io.IOException;
+import java.nio.file.Path;
 
 import bytecode.BytecodeAssembly;
 import error.VMException;
+import jit.JITOptions;
 import runtime.Interpreter;
 import runtime.Loader;
+import runtime.heap.GCMode;
+import runtime.heap.HeapBackend;
+import runtime.heap.HeapOptions;
 
 public class VirtualMachine {
 	public static void main(String[] arguments) {
-		if (arguments.length != 1) {
-			System.out.println("Usage: java VirtualMachine <file>");
+		var heapOptions = new HeapOptions();
+		var jitOptions = new JITOptions();
+		String inputFile = null;
+		for (var argument : arguments) {
+			if (argument.startsWith("--")) {
+				if (!parseOption(argument, heapOptions, jitOptions)) {
+					printUsage();
+					return;
+				}
+			} else if (inputFile == null) {
+				inputFile = argument;
+			} else {
+				printUsage();
+				return;
+			}
+		}
+		if (inputFile == null) {
+			printUsage();
 			return;
 		}
-		var inputFile = arguments[0];
 		try {
 			var assembly = BytecodeAssembly.load(inputFile);
-			var loader = new Loader(assembly);
-			var interpreter = new Interpreter(loader, true);
-			interpreter.run();
+			var loader = new Loader(assembly, heapOptions.getReferenceSize());
+			var interpreter = new Interpreter(loader, heapOptions, jitOptions);
+			try {
+				interpreter.run();
+			} finally {
+				if (heapOptions.isPrintGCStatistics()) {
+					System.out.println(interpreter.getGCStatistics());
+				}
+				if (jitOptions.isPrintStatistics()) {
+					System.out.println(interpreter.getCodeCache());
+				}
+			}
 		} catch (VMException exception) {
 			System.out.println("VM ERROR: " + exception.getMessage());
 		} catch (IOException exception) {
 			System.out.println("INPUT ERROR: " + exception.getMessage());
 		}
 	}
+
+	private static boolean parseOption(String argument, HeapOptions heapOptions, JITOptions jitOptions) {
+		var separator = argument.indexOf('=');
+		var name = separator < 0 ? argument.substring(2) : argument.substring(2, separator);
+		var value = separator < 0 ? "true" : argument.substring(separator + 1);
+		try {
+			switch (name) {
+			case "heap-size":
+				heapOptions.setHeapSize(parseSize(value));
+				return true;
+			case "heap-file":
+				heapOptions.setHeapFile(Path.of(value));
+				return true;
+			case "large-object-threshold":
+				heapOptions.setLargeObjectThreshold(parseSize(value));
+				return true;
+			case "compressed-refs":
+				heapOptions.setCompressedReferences(Boolean.parseBoolean(value));
+				return true;
+			case "heap-memory":
+				heapOptions.setHeapBackend(HeapBackend.valueOf(value.toUpperCase()));
+				return true;
+			case "gc":
+				heapOptions.setGCMode(GCMode.valueOf(value.toUpperCase()));
+				return true;
+			case "gc-threads":
+				heapOptions.setGCThreads(Integer.parseInt(value));
+				return true;
+			case "gc-pause-target":
+				heapOptions.setPauseTargetNanos(Long.parseLong(value) * 1000);
+				return true;
+			case "gc-stats":
+				heapOptions.setPrintGCStatistics(Boolean.parseBoolean(value));
+				return true;
+			case "jit":
+				jitOptions.setEnabled(Boolean.parseBoolean(value));
+				return true;
+			case "code-cache-size":
+				jitOptions.setCodeCacheSize(parseSize(value));
+				return true;
+			case "jit-threshold":
+				jitOptions.setCompileThreshold(Integer.parseInt(value));
+				return true;
+			case "jit-backedge-threshold":
+				jitOptions.setBackEdgeThreshold(Integer.parseInt(value));
+				return true;
+			case "jit-threads":
+				jitOptions.setCompilerThreads(Integer.parseInt(value));
+				return true;
+			case "jit-stats":
+				jitOptions.setPrintStatistics(Boolean.parseBoolean(value));
+				return true;
+			case "jit-print-ir":
+				jitOptions.setPrintIr(Boolean.parseBoolean(value));
+				return true;
+			default:
+				return false;
+			}
+		} catch (IllegalArgumentException exception) {
+			return false;
+		}
+	}
+
+	private static long parseSize(String value) {
+		if (value.isEmpty()) {
+			throw new NumberFormatException("Empty size");
+		}
+		var unit = Character.toLowerCase(value.charAt(value.length() - 1));
+		var shift = unit == 'k' ? 10 : unit == 'm' ? 20 : unit == 'g' ? 30 : 0;
+		var digits = shift == 0 ? value : value.substring(0, value.length() - 1);
+		return Long.parseLong(digits) << shift;
+	}
+
+	private static void printUsage() {
+		System.out.println("Usage: java VirtualMachine [options] <file>");
+		System.out.println("  --heap-size=<n>[k|m|g]   heap size in bytes (default 8k)");
+		System.out.println("  --heap-file=<path>       map the heap to a file and keep it across runs");
+		System.out.println("  --large-object-threshold=<n>[k|m|g]  size from which blocks go to the large-object space (default 4k)");
+		System.out.println("  --compressed-refs        store references in 32 bits (heap of at most 32 GB)");
+		System.out.println("  --heap-memory=<backend>  jna, array or buffer (default jna)");
+		System.out.println("  --gc=<mode>              serial, parallel, concurrent or incremental (default serial)");
+		System.out.println("  --gc-threads=<n>         worker threads of the parallel collector");
+		System.out.println("  --gc-pause-target=<us>   slice budget of the incremental collector (default 1000)");
+		System.out.println("  --gc-stats               print GC pause times on exit");
+		System.out.println("  --jit=false              interpret all methods");
+		System.out.println("  --code-cache-size=<n>[k|m|g]  executable memory for compiled code (default 1m)");
+		System.out.println("  --jit-threshold=<n>      calls before a method is compiled (default 1000)");
+		System.out.println("  --jit-backedge-threshold=<n>  loop iterations before a method is compiled (default 10000)");
+		System.out.println("  --jit-threads=<n>        background compiler threads, 0 to compile in place");
+		System.out.println("  --jit-stats              print code cache statistics on exit");
+		System.out.println("  --jit-print-ir           print the optimized SSA form of compiled methods to stderr");
+	}
 }
@@ -0,0 +1,63 @@
+package benchmark;
+
+import runtime.heap.HeapBackend;
+import runtime.heap.HeapMemory;
+
+public class HeapMemoryBenchmark {
+	private static final long SIZE = 64L * 1024 * 1024;
+	private static final int WARMUP_ROUNDS = 3;
+	private static final int MEASURED_ROUNDS = 5;
+
+	// Runs the named backends, or all of them. One backend per JVM keeps the call sites monomorphic.
+	public static void main(String[] arguments) {
+		var backends = HeapBackend.values();
+		if (arguments.length > 0) {
+			backends = new HeapBackend[arguments.length];
+			for (int index = 0; index < arguments.length; index++) {
+				backends[index] = HeapBackend.valueOf(arguments[index].toUpperCase());
+			}
+		}
+		for (var backend : backends) {
+			var memory = HeapMemory.allocate(backend, SIZE);
+			for (int round = 0; round < WARMUP_ROUNDS; round++) {
+				run(memory);
+			}
+			long sequentialWrite = 0;
+			long sequentialRead = 0;
+			long randomRead = 0;
+			for (int round = 0; round < MEASURED_ROUNDS; round++) {
+				var times = run(memory);
+				sequentialWrite += times[0];
+				sequentialRead += times[1];
+				randomRead += times[2];
+			}
+			var accesses = (double) MEASURED_ROUNDS * (SIZE / Long.BYTES);
+			System.out.printf("%-8s write %.2f ns, read %.2f ns, random read %.2f ns per word%n", backend,
+					sequentialWrite / accesses, sequentialRead / accesses, randomRead / accesses);
+		}
+	}
+
+	private static long[] run(HeapMemory memory) {
+		var words = SIZE / Long.BYTES;
+		var start = System.nanoTime();
+		for (long address = 0; address < SIZE; address += Long.BYTES) {
+			memory.writeLong(address, address);
+		}
+		var written = System.nanoTime();
+		long sum = 0;
+		for (long address = 0; address < SIZE; address += Long.BYTES) {
+			sum += memory.readLong(address);
+		}
+		var read = System.nanoTime();
+		long index = 1;
+		for (long count = 0; count < words; count++) {
+			index = (index * 6364136223846793005L + 1442695040888963407L) >>> 1;
+			sum += memory.readLong(index % words * Long.BYTES);
+		}
+		var end = System.nanoTime();
+		if (sum == 42) {
+			System.out.println();
+		}
+		return new long[] { written - start, read - written, end - read };
+	}
+}
@@ -25,6 +25,9 @@ public class BytecodeAssembly implements Serializable {
 	private final BytecodeMethod writeStringMethod = new BytecodeMethod(null, "writeString");
 	private final BytecodeMethod readIntMethod = new BytecodeMethod(null, "readInt");
 	private final BytecodeMethod readStringMethod = new BytecodeMethod(null, "readString");
+	// Missing (null) in assemblies that were saved before these builtins existed.
+	private final BytecodeMethod arrayCopyMethod = new BytecodeMethod(null, "arraycopy");
+	private final BytecodeMethod fillMethod = new BytecodeMethod(null, "fill");
 
 	public static BytecodeAssembly load(String file) throws IOException {
 		try (var stream = new ObjectInputStream(new FileInputStream(file))) {
@@ -92,6 +95,14 @@ public class BytecodeAssembly implements Serializable {
 	public BytecodeMethod getReadStringMethod() {
 		return readStringMethod;
 	}
+
+	public BytecodeMethod getArrayCopyMethod() {
+		return arrayCopyMethod;
+	}
+
+	public BytecodeMethod getFillMethod() {
+		return fillMethod;
+	}
 	
 	@Override
 	public String toString() {
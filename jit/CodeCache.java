@@ -0,0 +1,199 @@
+package jit;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+import com.sun.jna.Function;
+import com.sun.jna.Pointer;
+
+import runtime.descriptors.MethodDescriptor;
+
+// Compiled methods installed once into a fixed region of executable memory. When the region is
+// full, the least recently called methods are evicted until the new code fits. Code is only
+// installed and evicted by the interpreter thread, never while it may be running.
+public class CodeCache {
+	private static final int CODE_ALIGNMENT = 16;
+
+	private final long size;
+	private Pointer memory;
+	// Free ranges of the region by offset, coalesced on release.
+	private final TreeMap<Long, Long> freeRanges = new TreeMap<>();
+	// Iterates from least to most recently used.
+	private final Map<MethodDescriptor, CompiledMethod> methods = new LinkedHashMap<>(16, 0.75f, true);
+	private long hits;
+	private long misses;
+	private long evictions;
+	private long installs;
+	private long usedBytes;
+	private long peakBytes;
+	private Consumer<MethodDescriptor> listener = method -> { };
+
+	public CodeCache(long size) {
+		if (size < CODE_ALIGNMENT) {
+			throw new IllegalArgumentException("Code cache too small");
+		}
+		this.size = size;
+		freeRanges.put(0L, size);
+	}
+
+	// Told whenever the compiled entry of a method changes.
+	public synchronized void setListener(Consumer<MethodDescriptor> listener) {
+		this.listener = listener;
+	}
+
+	// Whether the code fits without evicting anything.
+	public synchronized boolean hasRoom(int codeLength) {
+		var length = align(codeLength);
+		for (var available : freeRanges.values()) {
+			if (available >= length) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// Counts a call of installed code and marks it as recently used.
+	public synchronized void recordHit(CompiledMethod compiled) {
+		methods.get(compiled.getMethod());
+		hits++;
+	}
+
+	// Counts a method that became hot without having code in the cache.
+	public synchronized void recordMiss() {
+		misses++;
+	}
+
+	// Also publishes the code as the method's compiled entry. Returns null if the code is bigger
+	// than the whole cache.
+	public synchronized CompiledMethod install(MethodDescriptor method, byte[] code, Map<Integer, Integer> osrOffsets) {
+		var length = align(code.length);
+		if (length > size) {
+			return null;
+		}
+		var existing = methods.remove(method);
+		if (existing != null) {
+			release(existing);
+		}
+		var offset = reserve(length);
+		var iterator = methods.values().iterator();
+		while (offset < 0) {
+			evict(iterator);
+			offset = reserve(length);
+		}
+		if (memory == null) {
+			memory = JITNative.allocateExecutable(size);
+		}
+		memory.write(offset, code, 0, code.length);
+		var entry = Function.getFunction(memory.share(offset));
+		var osrEntries = new HashMap<Integer, Function>();
+		for (var osrOffset : osrOffsets.entrySet()) {
+			osrEntries.put(osrOffset.getKey(), Function.getFunction(memory.share(offset + osrOffset.getValue())));
+		}
+		var compiled = new CompiledMethod(method, entry, osrEntries, offset, length);
+		methods.put(method, compiled);
+		method.setCompiledMethod(compiled);
+		listener.accept(method);
+		installs++;
+		usedBytes += length;
+		peakBytes = Math.max(peakBytes, usedBytes);
+		return compiled;
+	}
+
+	public synchronized void close() {
+		for (var method : methods.keySet()) {
+			method.setCompiledMethod(null);
+			listener.accept(method);
+		}
+		methods.clear();
+		if (memory != null) {
+			JITNative.freeExecutable(memory, size);
+			memory = null;
+		}
+		freeRanges.clear();
+		freeRanges.put(0L, size);
+		usedBytes = 0;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	public synchronized long getInstalls() {
+		return installs;
+	}
+
+	public synchronized long getUsedBytes() {
+		return usedBytes;
+	}
+
+	public synchronized long getPeakBytes() {
+		return peakBytes;
+	}
+
+	private void evict(Iterator<CompiledMethod> iterator) {
+		var victim = iterator.next();
+		iterator.remove();
+		release(victim);
+		// the method starts over in the interpreter and is recompiled once it is hot again
+		var method = victim.getMethod();
+		method.setCompiledMethod(null);
+		method.resetProfile();
+		listener.accept(method);
+		evictions++;
+	}
+
+	// First fit; returns -1 if no free range is big enough.
+	private long reserve(long length) {
+		for (var range : freeRanges.entrySet()) {
+			long offset = range.getKey();
+			long available = range.getValue();
+			if (available >= length) {
+				freeRanges.remove(offset);
+				if (available > length) {
+					freeRanges.put(offset + length, available - length);
+				}
+				return offset;
+			}
+		}
+		return -1;
+	}
+
+	private void release(CompiledMethod compiled) {
+		var offset = compiled.getOffset();
+		var length = compiled.getLength();
+		usedBytes -= length;
+		var next = freeRanges.get(offset + length);
+		if (next != null) {
+			freeRanges.remove(offset + length);
+			length += next;
+		}
+		var previous = freeRanges.floorEntry(offset);
+		if (previous != null && previous.getKey() + previous.getValue() == offset) {
+			offset = previous.getKey();
+			length += previous.getValue();
+		}
+		freeRanges.put(offset, length);
+	}
+
+	private static long align(long length) {
+		return (length + CODE_ALIGNMENT - 1) / CODE_ALIGNMENT * CODE_ALIGNMENT;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("Code cache: %d installs, %d hits, %d misses, %d evictions, peak %d of %d bytes",
+				installs, hits, misses, evictions, peakBytes, size);
+	}
+}
@@ -0,0 +1,134 @@
+package jit;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import runtime.descriptors.MethodDescriptor;
+
+// Compiles hot methods on background threads, hottest first. Finished code is handed back to the
+// interpreter thread, which installs it at its next call, so compiled entries only change there.
+public class CompilationQueue {
+	private final HeapAccess heapAccess;
+	private final DispatchTable dispatchTable;
+	private final ThreadPoolExecutor executor;
+	private final Queue<Compilation> completed = new ConcurrentLinkedQueue<>();
+	private final AtomicLong sequence = new AtomicLong();
+	private volatile Consumer<String> irListener;
+
+	private class Compilation implements Runnable, Comparable<Compilation> {
+		private final MethodDescriptor method;
+		private final long hotness;
+		private final long order = sequence.getAndIncrement();
+		private byte[] code;
+		private Map<Integer, Integer> osrEntries;
+
+		public Compilation(MethodDescriptor method, long hotness) {
+			this.method = method;
+			this.hotness = hotness;
+		}
+
+		@Override
+		public void run() {
+			try {
+				var compiler = new JITCompiler(method, heapAccess, dispatchTable);
+				code = compiler.getCode();
+				osrEntries = compiler.getOsrEntries();
+				var listener = irListener;
+				if (listener != null) {
+					listener.accept(compiler.getIr());
+				}
+			} catch (AssertionError | RuntimeException exception) {
+				// Without code, the method is marked as not compilable when the result is installed.
+				code = null;
+			} finally {
+				completed.add(this);
+			}
+		}
+
+		@Override
+		public int compareTo(Compilation other) {
+			if (hotness != other.hotness) {
+				return Long.compare(other.hotness, hotness);
+			}
+			return Long.compare(order, other.order);
+		}
+	}
+
+	public CompilationQueue(int threads, HeapAccess heapAccess) {
+		this(threads, heapAccess, null);
+	}
+
+	// Without threads, methods are compiled right away by the caller. Without a dispatch table,
+	// methods that contain calls are not compiled.
+	public CompilationQueue(int threads, HeapAccess heapAccess, DispatchTable dispatchTable) {
+		this.heapAccess = heapAccess;
+		this.dispatchTable = dispatchTable;
+		if (threads < 0) {
+			throw new IllegalArgumentException("Negative number of compiler threads");
+		}
+		if (threads == 0) {
+			executor = null;
+		} else {
+			executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+					new PriorityBlockingQueue<Runnable>(), runnable -> {
+						var thread = new Thread(runnable, "JIT compiler");
+						thread.setDaemon(true);
+						return thread;
+					});
+		}
+	}
+
+	// Receives the optimized SSA form of each compiled method, on the compiling thread.
+	public void setIrListener(Consumer<String> irListener) {
+		this.irListener = irListener;
+	}
+
+	// The method must fulfill the JIT precondition.
+	public void submit(MethodDescriptor method, long hotness) {
+		method.setCompilationQueued(true);
+		var compilation = new Compilation(method, hotness);
+		if (executor == null) {
+			compilation.run();
+		} else {
+			executor.execute(compilation);
+		}
+	}
+
+	public void installCompleted(CodeCache codeCache) {
+		installCompleted(codeCache, true);
+	}
+
+	// Installs finished compilations; only called by the interpreter thread. While compiled frames
+	// are active, code that needs an eviction is kept back, since the victim could be running.
+	public void installCompleted(CodeCache codeCache, boolean evictionAllowed) {
+		var deferred = new ArrayList<Compilation>();
+		Compilation compilation;
+		while ((compilation = completed.poll()) != null) {
+			var method = compilation.method;
+			if (compilation.code != null && !evictionAllowed && !codeCache.hasRoom(compilation.code.length)) {
+				deferred.add(compilation);
+				continue;
+			}
+			method.setCompilationQueued(false);
+			if (compilation.code == null
+					|| codeCache.install(method, compilation.code, compilation.osrEntries) == null) {
+				method.setNotCompilable(true);
+			}
+		}
+		completed.addAll(deferred);
+	}
+
+	public void close() {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+		completed.clear();
+	}
+}
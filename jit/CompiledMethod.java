@@ -0,0 +1,62 @@
+package jit;
+
+import java.util.Map;
+
+import com.sun.jna.Function;
+
+import runtime.descriptors.MethodDescriptor;
+import runtime.heap.Pointer;
+
+// Entry point of a method installed in the code cache.
+public class CompiledMethod {
+	private final MethodDescriptor method;
+	private final Function entry;
+	private final Map<Integer, Function> osrEntries;
+	private final long offset;
+	private final long length;
+
+	CompiledMethod(MethodDescriptor method, Function entry, Map<Integer, Function> osrEntries, long offset,
+			long length) {
+		this.method = method;
+		this.entry = entry;
+		this.osrEntries = osrEntries;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	public MethodDescriptor getMethod() {
+		return method;
+	}
+
+	// Native address for calls from compiled code.
+	public long getEntryAddress() {
+		return com.sun.jna.Pointer.nativeValue(entry);
+	}
+
+	long getOffset() {
+		return offset;
+	}
+
+	long getLength() {
+		return length;
+	}
+
+	public Object call(Pointer target, Object[] arguments) {
+		return JITNative.call(entry, target, arguments, method.getReturnType());
+	}
+
+	public boolean hasOsrEntry(int loopHeader) {
+		return osrEntries.containsKey(loopHeader);
+	}
+
+	// Continues an interpreted activation at the loop header and runs it to the end of the method.
+	public Object callOsr(int loopHeader, Pointer target, Object[] parameters, Object[] locals,
+			Object[] evaluationStack) {
+		var state = new Object[1 + parameters.length + locals.length + evaluationStack.length];
+		state[0] = target;
+		System.arraycopy(parameters, 0, state, 1, parameters.length);
+		System.arraycopy(locals, 0, state, 1 + parameters.length, locals.length);
+		System.arraycopy(evaluationStack, 0, state, 1 + parameters.length + locals.length, evaluationStack.length);
+		return JITNative.callWithState(osrEntries.get(loopHeader), state, method.getReturnType());
+	}
+}
@@ -0,0 +1,210 @@
+package jit;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongConsumer;
+
+import com.sun.jna.Callback;
+import com.sun.jna.CallbackReference;
+import com.sun.jna.Memory;
+import com.sun.jna.Pointer;
+
+import jit.x64.X64Assembler;
+import runtime.descriptors.ClassDescriptor;
+import runtime.descriptors.MethodDescriptor;
+import static jit.x64.X64Register.*;
+
+// Native copies of the virtual tables that compiled call sites dispatch through. The directory
+// maps the type id in the receiver's block header to the table of its class. A slot holds the
+// current target, compiled code or the method's stub, followed by the stub itself, which calls
+// back into the interpreter. Compiled frames also count their depth and chain the references they
+// hold across calls in the state block, so that the GC finds them.
+public class DispatchTable {
+	public static final int SLOT_SIZE = 2 * Long.BYTES;
+	public static final int STUB_ENTRY = Long.BYTES;
+	// Offsets in the state block.
+	public static final int CALL_DEPTH = 0;
+	public static final int ROOT_CHAIN = Long.BYTES;
+	// Deeper calls go through the stubs, so recursion continues on the interpreter's call stack.
+	public static final int CALL_DEPTH_LIMIT = 1024;
+	// A callback counts as this many compiled frames, since its Java frames are much bigger.
+	private static final int CALLBACK_DEPTH = 32;
+	// The arguments are stored above the 32 bytes of shadow space that Windows callees may use.
+	private static final int SHADOW_SPACE = 32;
+
+	// Runs a method that compiled code calls without a compiled entry.
+	public interface Fallback {
+		Object invoke(MethodDescriptor method, runtime.heap.Pointer target, Object[] arguments);
+	}
+
+	public interface InterpreterCallback extends Callback {
+		long invoke(long method, Pointer arguments);
+	}
+
+	private final Fallback fallback;
+	// Referenced for as long as the stubs exist, since JNA drops unreachable callbacks.
+	private final InterpreterCallback callback = this::interpret;
+	private final Memory state = new Memory(2 * Long.BYTES);
+	private final Memory directory;
+	private final List<Memory> classTables = new ArrayList<>();
+	private final List<MethodDescriptor> methods;
+	private final Map<MethodDescriptor, Long> stubs = new HashMap<>();
+	private final Map<MethodDescriptor, List<Pointer>> slots = new HashMap<>();
+	private final long stubMemorySize;
+	private Pointer stubMemory;
+
+	// The type ids must cover every class whose instances can be receivers.
+	public DispatchTable(Map<ClassDescriptor, Integer> typeIds, Fallback fallback) {
+		this.fallback = fallback;
+		state.clear();
+		var maxId = 0;
+		var distinct = new LinkedHashSet<MethodDescriptor>();
+		for (var entry : typeIds.entrySet()) {
+			maxId = Math.max(maxId, entry.getValue());
+			for (var method : entry.getKey().getVirtualTable()) {
+				distinct.add(method);
+			}
+		}
+		methods = new ArrayList<>(distinct);
+		var callbackAddress = Pointer.nativeValue(CallbackReference.getFunctionPointer(callback));
+		var stubCode = new ArrayList<byte[]>();
+		var size = 0L;
+		for (int index = 0; index < methods.size(); index++) {
+			var code = assembleStub(index, methods.get(index).getParameterTypes().length + 1, callbackAddress);
+			stubCode.add(code);
+			size += code.length;
+		}
+		stubMemorySize = Math.max(1, size);
+		stubMemory = JITNative.allocateExecutable(stubMemorySize);
+		var offset = 0L;
+		for (int index = 0; index < methods.size(); index++) {
+			var code = stubCode.get(index);
+			stubMemory.write(offset, code, 0, code.length);
+			stubs.put(methods.get(index), Pointer.nativeValue(stubMemory) + offset);
+			offset += code.length;
+		}
+		directory = new Memory((maxId + 1L) * Long.BYTES);
+		directory.clear();
+		for (var entry : typeIds.entrySet()) {
+			directory.setLong(entry.getValue() * (long) Long.BYTES, Pointer.nativeValue(createClassTable(entry.getKey())));
+		}
+	}
+
+	private Memory createClassTable(ClassDescriptor type) {
+		var virtualTable = type.getVirtualTable();
+		var table = new Memory(Math.max(1, virtualTable.length) * (long) SLOT_SIZE);
+		table.clear();
+		for (int position = 0; position < virtualTable.length; position++) {
+			var method = virtualTable[position];
+			var slot = table.share(position * (long) SLOT_SIZE);
+			slot.setLong(STUB_ENTRY, stubs.get(method));
+			slots.computeIfAbsent(method, key -> new ArrayList<>()).add(slot);
+			update(slot, method);
+		}
+		classTables.add(table);
+		return table;
+	}
+
+	// Stores the arguments above the shadow space, copying those passed on the stack, and passes
+	// the method index and their address to the callback, whose result is returned as is.
+	private static byte[] assembleStub(int methodIndex, int argumentCount, long callbackAddress) {
+		var assembler = new X64Assembler();
+		var parameters = JITCompiler.PARAMETER_REGISTERS;
+		assembler.PUSH(RBP);
+		assembler.MOV_RegReg(RBP, RSP);
+		assembler.SUB_RegImm(RSP, SHADOW_SPACE + (argumentCount + 1) / 2 * 2 * Long.BYTES);
+		for (int index = 0; index < argumentCount; index++) {
+			var offset = SHADOW_SPACE + index * Long.BYTES;
+			if (index < parameters.size()) {
+				assembler.MOV_MemReg(RSP, offset, parameters.get(index));
+			} else {
+				assembler.MOV_RegMem(RAX, RBP, JITCompiler.STACK_ARGUMENTS + (index - parameters.size()) * Long.BYTES);
+				assembler.MOV_MemReg(RSP, offset, RAX);
+			}
+		}
+		assembler.MOV_RegImm(parameters.get(0), methodIndex);
+		assembler.LEA_RegMem(parameters.get(1), RSP, SHADOW_SPACE);
+		assembler.MOV_RegImm(RAX, callbackAddress);
+		assembler.CALL_Reg(RAX);
+		assembler.MOV_RegReg(RSP, RBP);
+		assembler.POP(RBP);
+		assembler.RET();
+		return assembler.getCode();
+	}
+
+	private long interpret(long index, Pointer arguments) {
+		var method = methods.get((int) index);
+		state.setLong(CALL_DEPTH, state.getLong(CALL_DEPTH) + CALLBACK_DEPTH);
+		try {
+			var target = new runtime.heap.Pointer(arguments.getLong(0));
+			var parameterTypes = method.getParameterTypes();
+			var values = new Object[parameterTypes.length];
+			for (int parameter = 0; parameter < values.length; parameter++) {
+				values[parameter] = JITNative.toValue(arguments.getLong((parameter + 1) * (long) Long.BYTES),
+						parameterTypes[parameter]);
+			}
+			return JITNative.resultToNative(fallback.invoke(method, target, values));
+		} catch (Throwable exception) {
+			JITNative.setPendingException(exception);
+			return JITNative.BAILOUT | JITNative.PENDING_EXCEPTION;
+		} finally {
+			state.setLong(CALL_DEPTH, state.getLong(CALL_DEPTH) - CALLBACK_DEPTH);
+		}
+	}
+
+	// Points the method's slots at its compiled code, or back at its stub once it is evicted.
+	public void update(MethodDescriptor method) {
+		var methodSlots = slots.get(method);
+		if (methodSlots != null) {
+			for (var slot : methodSlots) {
+				update(slot, method);
+			}
+		}
+	}
+
+	private void update(Pointer slot, MethodDescriptor method) {
+		var compiled = method.getCompiledMethod();
+		slot.setLong(0, compiled != null ? compiled.getEntryAddress() : stubs.get(method));
+	}
+
+	// Each record on the chain holds the previous record, the number of references and the references.
+	public void visitRoots(LongConsumer visitor) {
+		var record = state.getLong(ROOT_CHAIN);
+		while (record != 0) {
+			var pointer = new Pointer(record);
+			var count = pointer.getLong(Long.BYTES);
+			for (int index = 0; index < count; index++) {
+				visitor.accept(pointer.getLong((index + 2) * (long) Long.BYTES));
+			}
+			record = pointer.getLong(0);
+		}
+	}
+
+	// Number of active compiled frames that contain calls, callbacks weighted.
+	public long getCallDepth() {
+		return state.getLong(CALL_DEPTH);
+	}
+
+	public boolean isCallDepthExceeded() {
+		return getCallDepth() >= CALL_DEPTH_LIMIT;
+	}
+
+	public long getDirectoryAddress() {
+		return Pointer.nativeValue(directory);
+	}
+
+	public long getStateAddress() {
+		return Pointer.nativeValue(state);
+	}
+
+	public void close() {
+		if (stubMemory != null) {
+			JITNative.freeExecutable(stubMemory, stubMemorySize);
+			stubMemory = null;
+		}
+		classTables.clear();
+	}
+}
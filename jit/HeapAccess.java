@@ -0,0 +1,35 @@
+package jit;
+
+// What compiled code needs to know to access the heap directly.
+public class HeapAccess {
+	public static final HeapAccess NONE = new HeapAccess(0, false, false);
+
+	private final long nativeBase;
+	private final boolean compressedReferences;
+	private final boolean referenceStores;
+
+	// Reference stores skip the write barrier, so they may only be compiled if marking never runs
+	// alongside the mutator.
+	public HeapAccess(long nativeBase, boolean compressedReferences, boolean referenceStores) {
+		this.nativeBase = nativeBase;
+		this.compressedReferences = compressedReferences;
+		this.referenceStores = referenceStores;
+	}
+
+	// False if the heap is not natively addressable; compiled code then never touches it.
+	public boolean isAvailable() {
+		return nativeBase != 0;
+	}
+
+	public long getNativeBase() {
+		return nativeBase;
+	}
+
+	public boolean isCompressedReferences() {
+		return compressedReferences;
+	}
+
+	public boolean isReferenceStoreAllowed() {
+		return referenceStores;
+	}
+}
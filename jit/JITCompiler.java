@@ -16,467 +16,773 @@ import bytecode.OpCode;
 import jit.x64.X64Assembler;
 import jit.x64.X64Label;
 import jit.x64.X64Register;
+import runtime.descriptors.ArrayDescriptor;
+import runtime.descriptors.FieldDescriptor;
 import runtime.descriptors.MethodDescriptor;
+import runtime.descriptors.TypeDescriptor;
+import runtime.heap.Heap;
 import static jit.x64.X64Register.*;
 import static bytecode.OpCode.*;
 
+// Translates the bytecode into low-level code on virtual registers, optimizes it in SSA form,
+// allocates the registers by linear scan and emits x64 code. The frame is addressed through RBP:
+// the saved callee-saved registers follow the saved RBP, then the spill slots. Spilled values
+// pass through the two scratch registers, which are never allocated.
 public class JITCompiler {
-	private static final List<X64Register> GENERAL_REGISTERS = List.of(RAX, RCX, RDX, RBX, R8, R9, R10, R11, R12, R13,
-			R14, R15);
-	private static final List<X64Register> CALLEE_SAVED = List.of(RBX, R12, R13, R14, R15);
-
-	private static final Set<OpCode> BRANCH_INSTRUCTIONS = Set.of(GOTO, IF_TRUE, IF_FALSE);
-	private static final Set<OpCode> UNCONDITIONAL_BRANCHES = Set.of(GOTO, RETURN);
+	// Integer arguments of the native calling convention; further arguments are on the stack.
+	static final List<X64Register> PARAMETER_REGISTERS = Platform.isWindows() ? List.of(RCX, RDX, R8, R9)
+			: List.of(RDI, RSI, RDX, RCX, R8, R9);
+	private static final List<X64Register> CALLEE_SAVED = Platform.isWindows()
+			? List.of(RBX, RSI, RDI, R12, R13, R14, R15)
+			: List.of(RBX, R12, R13, R14, R15);
+	private static final List<X64Register> CALLER_SAVED = Platform.isWindows()
+			? List.of(RAX, RCX, RDX, R8, R9, R10, R11)
+			: List.of(RAX, RCX, RDX, RSI, RDI, R8, R9, R10, R11);
+	// Windows callees may use 32 bytes above the return address.
+	static final int SHADOW_SPACE = Platform.isWindows() ? 32 : 0;
+	// Offset of the first stack argument from RBP, above the saved RBP and the return address.
+	static final int STACK_ARGUMENTS = 2 * Long.BYTES + SHADOW_SPACE;
+
+	private static final Set<OpCode> HEAP_INSTRUCTIONS = Set.of(GETFIELD, PUTFIELD, ALOAD, ASTORE, ARRAYLENGTH);
+	// Holds the native heap address in methods that access the heap.
+	private static final X64Register HEAP_BASE = R15;
+	private static final X64Register SCRATCH1 = R10;
+	private static final X64Register SCRATCH2 = R11;
 
 	private final MethodDescriptor method;
+	private final HeapAccess heapAccess;
+	private final DispatchTable dispatchTable;
+	private final boolean usesHeap;
+	private final boolean usesCalls;
 	private final X64Assembler assembler = new X64Assembler();
-	private final Allocation allocation;
-	private final Map<X64Label, Allocation> branchState = new HashMap<>();
-	private final Map<Instruction, X64Label> labels = new HashMap<>();
+	private final SsaGraph graph;
+	private final SsaLowering lowering;
+	private final List<LirInstruction> code;
+	private final LinearScan allocation;
+	private final List<X64Register> saved = new ArrayList<>();
+	private final Map<Integer, X64Label> labels = new HashMap<>();
+	private final Map<Integer, X64Label> osrEntries = new HashMap<>();
+	private final Map<Integer, X64Label> bailouts = new HashMap<>();
+	private final X64Label exit;
+
+	public JITCompiler(MethodDescriptor method, HeapAccess heapAccess) {
+		this(method, heapAccess, null);
+	}
 
-	public JITCompiler(MethodDescriptor method) {
+	// Compiled code takes this and then the parameters. It returns int and boolean results
+	// zero-extended, references as heap addresses, and JITNative.BAILOUT with the reason if a
+	// check fails, in itself or in a callee. Calls need the dispatch table.
+	public JITCompiler(MethodDescriptor method, HeapAccess heapAccess, DispatchTable dispatchTable) {
 		Objects.requireNonNull(method);
+		Objects.requireNonNull(heapAccess);
 		this.method = method;
-		if (!JITPrecondition.fulfilled(method)) {
+		this.heapAccess = heapAccess;
+		this.dispatchTable = dispatchTable;
+		if (!JITPrecondition.fulfilled(method, heapAccess, dispatchTable)) {
 			throw new AssertionError("Preconditions for JIT compilation not fulfilled");
 		}
-		var parameters = allocateParameters(method.getParameterTypes().length);
-		var free = new HashSet<X64Register>(GENERAL_REGISTERS);
-		free.removeAll(parameters);
-		allocation = new Allocation(parameters, free);
-		allocateLocals(method.getLocalTypes().length);
-		createLabels(method.getCode());
-		emitInstructions(method.getCode());
+		usesCalls = contains(method.getCode(), Set.of(INVOKEVIRTUAL));
+		usesHeap = usesCalls || contains(method.getCode(), HEAP_INSTRUCTIONS);
+		graph = new SsaGraph(new LirBuilder(method, StackTypes.infer(method)));
+		SsaOptimizer.optimize(graph);
+		lowering = new SsaLowering(graph);
+		code = new LirPeephole(lowering.getCode(), lowering.getRegisterCount()).getCode();
+		var available = new ArrayList<X64Register>(CALLER_SAVED);
+		available.removeAll(List.of(SCRATCH1, SCRATCH2));
+		available.addAll(CALLEE_SAVED);
+		if (usesHeap) {
+			available.remove(HEAP_BASE);
+		}
+		var hints = new HashMap<Integer, X64Register>();
+		var parameters = method.getParameterTypes().length + 1;
+		for (int index = 0; index < Math.min(parameters, PARAMETER_REGISTERS.size()); index++) {
+			hints.put(code.get(0).getOperands()[index], PARAMETER_REGISTERS.get(index));
+		}
+		allocation = new LinearScan(code, lowering.getRegisterCount(), available, new HashSet<>(CALLEE_SAVED),
+				hints);
+		for (var register : CALLEE_SAVED) {
+			if (allocation.getUsedRegisters().contains(register) || usesHeap && register == HEAP_BASE) {
+				saved.add(register);
+			}
+		}
+		exit = assembler.createLabel();
+		for (var instruction : code) {
+			if (instruction.getOp() == LirOp.LABEL) {
+				labels.put(instruction.getTarget(), assembler.createLabel());
+			}
+		}
+		emitPrologue();
+		emitParameters(parameters);
+		for (int index = 1; index < code.size(); index++) {
+			emitInstruction(index);
+		}
+		emitBailouts();
+		emitEpilogue();
+	}
+
+	private static boolean contains(Instruction[] code, Set<OpCode> opCodes) {
+		for (var instruction : code) {
+			if (opCodes.contains(instruction.getOpCode())) {
+				return true;
+			}
+		}
+		return false;
 	}
 
 	public byte[] getCode() {
 		return assembler.getCode();
 	}
 
-	private void createLabels(Instruction[] instructions) {
-		for (int position = 0; position < instructions.length; position++) {
-			var current = instructions[position];
-			if (BRANCH_INSTRUCTIONS.contains(current.getOpCode())) {
-				var target = instructions[position + 1 + (int) current.getOperand()];
-				if (!labels.containsKey(target)) {
-					labels.put(target, assembler.createLabel());
-				}
+	// The optimized SSA form, for inspection.
+	public String getIr() {
+		return method.getIdentifier() + ":\n" + graph;
+	}
+
+	// Code offsets of the on-stack replacement entries by loop header position.
+	public Map<Integer, Integer> getOsrEntries() {
+		var offsets = new HashMap<Integer, Integer>();
+		for (var entry : osrEntries.entrySet()) {
+			offsets.put(entry.getKey(), entry.getValue().getTarget());
+		}
+		return offsets;
+	}
+
+	// Moves the arguments from the parameter registers and the stack to their allocated locations.
+	// Through the stack, since a parameter register may be allocated to another parameter.
+	private void emitParameters(int count) {
+		var variables = code.get(0).getOperands();
+		var moved = new ArrayList<Integer>();
+		for (int index = 0; index < Math.min(count, PARAMETER_REGISTERS.size()); index++) {
+			if (allocation.getRegister(variables[index]) != PARAMETER_REGISTERS.get(index)) {
+				assembler.PUSH(PARAMETER_REGISTERS.get(index));
+				moved.add(variables[index]);
+			}
+		}
+		Collections.reverse(moved);
+		for (var value : moved) {
+			var register = allocation.getRegister(value);
+			if (register != null) {
+				assembler.POP(register);
+			} else {
+				assembler.POP_Mem(RBP, slotOffset(value));
 			}
 		}
+		for (int index = PARAMETER_REGISTERS.size(); index < count; index++) {
+			var target = target(variables[index], SCRATCH1);
+			assembler.MOV_RegMem(target, RBP, STACK_ARGUMENTS + (index - PARAMETER_REGISTERS.size()) * Long.BYTES);
+			define(variables[index], target);
+		}
 	}
 
-	private void emitInstructions(Instruction[] code) {
+	// An OSR entry receives the address of the interpreter state and loads the values that the
+	// loop still needs from their slots, the one for the register of the address last.
+	private void emitOsrEntry(LirInstruction instruction) {
+		var base = PARAMETER_REGISTERS.get(0);
+		var entry = assembler.createLabel();
+		assembler.setLabel(entry);
 		emitPrologue();
-		for (int position = 0; position < code.length; position++) {
-			alignBranchEntry(position);
-			emitInstruction(position);
-		}
-	}
-
-	private void emitInstruction(int position) {
-		var code = method.getCode();
-		var instruction = code[position];
-		var opCode = instruction.getOpCode();
-		var operand = instruction.getOperand();
-		X64Register operand2;
-		X64Register operand1;
-		X64Register result_reg;
-		X64Label label;
-		switch (opCode) {
-		case LDC:
-			emitConstant(operand);
+		var values = instruction.getOperands();
+		var slots = (int[]) instruction.getOperand();
+		var baseSlot = -1;
+		for (int index = 0; index < values.length; index++) {
+			if (allocation.getRegister(values[index]) == base) {
+				baseSlot = slots[index];
+			} else {
+				var target = target(values[index], SCRATCH1);
+				assembler.MOV_RegMem(target, base, slots[index] * Long.BYTES);
+				define(values[index], target);
+			}
+		}
+		if (baseSlot >= 0) {
+			assembler.MOV_RegMem(base, base, baseSlot * Long.BYTES);
+		}
+		osrEntries.put(instruction.getTarget(), entry);
+	}
+
+	private void emitInstruction(int index) {
+		var instruction = code.get(index);
+		var result = instruction.getResult();
+		var operands = instruction.getOperands();
+		switch (instruction.getOp()) {
+		case CONST:
+			var target = target(result, SCRATCH1);
+			emitConstant(target, (long) instruction.getOperand(), lowering.isReference(result));
+			define(result, target);
 			break;
-		case BNEG:
-			operand1=pop();
-			result_reg=acquire();
-			assembler.MOV_RegReg(result_reg,operand1); //result=leftoperand
-			assembler.NOT(result_reg);
-			release(operand1);
-			push(result_reg);
+		case MOVE:
+			emitMove(result, operands[0]);
 			break;
-		case INEG:
-			operand1=pop();
-			result_reg=acquire();
-			assembler.MOV_RegReg(result_reg,operand1); //result=leftoperand
-			assembler.NEG(result_reg);
-			release(operand1);
-			push(result_reg);
+		case ADD:
+		case SUB:
+		case MUL:
+			if (instruction.getImmediate() != null) {
+				emitImmediateArithmetic(instruction.getOp(), result, operands[0], (int) (long) instruction.getImmediate());
+			} else {
+				emitArithmetic(instruction.getOp(), result, operands[0], operands[1]);
+			}
 			break;
-		case IADD:
-			operand2=pop();  //get operand register from evaluation stack
-			operand1=pop();
-			result_reg=acquire();
-			assembler.MOV_RegReg(result_reg,operand1); //result=leftoperand
-			assembler.ADD_RegReg(result_reg,operand2); //result=leftoperand-rightoperand
-			release(operand1);
-			release(operand2);
-			push(result_reg);
+		case DIV:
+		case REM:
+			emitDivision(index, instruction.getOp() == LirOp.DIV, result, operands, instruction.getImmediate());
 			break;
-		case ISUB:
-			operand2=pop();  //get operand register from evaluation stack
-			operand1=pop();
-			result_reg=acquire();
-			assembler.MOV_RegReg(result_reg,operand1); //result=leftoperand
-			assembler.SUB_RegReg(result_reg,operand2); //result=leftoperand-rightoperand
-			release(operand1);
-			release(operand2);
-			push(result_reg);
+		case NEG:
+			target = target(result, SCRATCH1);
+			load(target, operands[0]);
+			assembler.NEG32(target);
+			define(result, target);
 			break;
-		case IMUL:
-			operand2=pop();  //get operand register from evaluation stack
-			operand1=pop();
-			result_reg=acquire();
-			assembler.MOV_RegReg(result_reg,operand1); //result=leftoperand
-			assembler.IMUL_RegReg(result_reg,operand2); //result=leftoperand-rightoperand
-			release(operand1);
-			release(operand2);
-			push(result_reg);
+		case NOT:
+			target = target(result, SCRATCH1);
+			load(target, operands[0]);
+			assembler.XOR32_RegImm(target, 1);
+			define(result, target);
 			break;
-		case IDIV:
-			reserve(RAX);
-			reserve(RDX); //free rax and rdx
-			forceStack(1,RAX); //make sure stack pos 1 is in RAX (dividend in this case)
-			var operand_2_div=pop();
-			pop(); //forcestack makesure this go to RAX
-			assembler.CDQ(); //prepare RAX
-			assembler.IDIV(operand_2_div);
-			push(RAX);
-			release(operand_2_div);
-			release(RDX);
-
+		case COMPARE:
+			emitCompare(operands, instruction.getImmediate());
+			target = target(result, SCRATCH1);
+			emitSet((LirInstruction.Condition) instruction.getOperand(), target);
+			assembler.MOVZX8_RegReg(target, target);
+			define(result, target);
 			break;
-		case IREM:
-			// TODO: Implement
-			reserve(RAX);
-			reserve(RDX); //free rax and rdx
-			forceStack(1,RAX); //make sure stack pos 1 is in RAX (dividend in this case)
-			var operand_2_rem=pop();
-			pop(); //forcestack makesure this go to RAX
-			assembler.CDQ(); //prepare RAX
-			assembler.IDIV(operand_2_rem);
-			push(RDX);  //get remainder
-			release(operand_2_rem);
-			release(RAX);
-
+		case GETFIELD:
+			emitGetField(result, operands[0], (FieldDescriptor) instruction.getOperand());
 			break;
-		case LOAD:
-			// TODO: Implement
-			var index =(int) instruction.getOperand();
-			int numOfParams=allocation.getParameters().size();
-			int numOfLocals=allocation.getLocals().size();
-			if (index<=numOfParams){
-				var reg=allocation.getParameters().get(index-1);
-				push(reg);
-			}
-			else if (index-numOfParams<=numOfLocals){
-				var reg=allocation.getLocals().get(index-numOfParams-1);
-				push(reg);
-			}
-			else {
-				throw new AssertionError("Can not find the variable");
-			}
+		case PUTFIELD:
+			emitPutField(operands[0], operands[1], (FieldDescriptor) instruction.getOperand());
 			break;
-		case STORE:
-			var index2 =(int) instruction.getOperand();
-			var source=pop();
-			int numOfParams2=allocation.getParameters().size();
-			int numOfLocals2=allocation.getLocals().size();
-			if (index2<=numOfParams2){
-				var reg=allocation.getParameters().get(index2-1);
-				assembler.MOV_RegReg(reg,source);
-
-			}
-			else if (index2-numOfParams2<=numOfLocals2){
-				var reg=allocation.getLocals().get(index2-numOfParams2-1);
-				assembler.MOV_RegReg(reg,source);
-			}
-			else {
-				throw new AssertionError("Can not find the variable");
-			}
-			release(source);
+		case ARRAYLENGTH:
+			var array = use(operands[0], SCRATCH1);
+			emitNullCheck(array);
+			target = target(result, SCRATCH2);
+			assembler.MOV32_RegMem(target, HEAP_BASE, array, 0);
+			define(result, target);
 			break;
-		case CMPEQ:
-			// TODO: Implement
-
-			//break;
-		case CMPNE:
-			// TODO: Implement
-			//break;
-		case ICMPLT:
-			// TODO: Implement
-			//break;
-		case ICMPLE:
-			// TODO: Implement
-			//break;
-		case ICMPGT:
-			// TODO: Implement
-			//break;
-		case ICMPGE:
-			// TODO: Implement
-			operand2=pop();  //get operand register from evaluation stack
-			operand1=pop();
-			result_reg=acquire();
-			assembler.MOV_RegReg(result_reg,operand1); //result=leftoperand
-			assembler.CMP_RegReg(result_reg,operand2); //result=leftoperand-rightoperand
-			release(operand1);
-			release(operand2);
-			release(result_reg);
-			//push(result_reg);
+		case ALOAD:
+			emitArrayLoad(result, operands[0], operands[1], (ArrayDescriptor) instruction.getOperand());
 			break;
-		case IF_FALSE:
-			// TODO: Implement
-			var offset=(int) instruction.getOperand();
-			var target=code[position+1+offset];
-			label=labels.get(target);
-			matchAllocation(label);
-			var previous = position > 0 ? code[position - 1] : null;
-			if (previous==null){
-				throw new AssertionError("no boolean recorded");
-			}
-			var prev_opcode=previous.getOpCode();
-			switch (prev_opcode) {
-				case ICMPGT:
-					assembler.JLE_Rel(label);
-					break;
-				case CMPEQ:
-					assembler.JNE_Rel(label);
-					break;
-				case CMPNE:
-					assembler.JE_Rel(label);
-					break;
-				case ICMPLT:
-					assembler.JGE_Rel(label);
-					break;
-				case ICMPGE:
-					assembler.JL_Rel(label);
-					break;
-				case ICMPLE:
-					assembler.JG_Rel(label);
-					break;
-				default:
-					throw new AssertionError("Unsupported instruction in JIT compiler");
-
-			}
-
+		case ASTORE:
+			emitArrayStore(operands[0], operands[1], operands[2], (ArrayDescriptor) instruction.getOperand());
 			break;
-		case IF_TRUE:
-			// TODO: Implement
-			var offset2=(int) instruction.getOperand();
-			var target2=code[position+1+offset2];
-			label=labels.get(target2);
-			matchAllocation(label);
-			var previous2 = position > 0 ? code[position - 1] : null;
-			if (previous2==null){
-				throw new AssertionError("no boolean recorded");
-			}
-			var prev_opcode2=previous2.getOpCode();
-			switch (prev_opcode2){
-				case CMPEQ:
-					assembler.JE_Rel(label);
-					break;
-				case CMPNE:
-					assembler.JNE_Rel(label);
-					break;
-				case ICMPLT:
-					assembler.JL_Rel(label);
-					break;
-				case ICMPGT:
-					assembler.JG_Rel(label);
-					break;
-				case ICMPGE:
-					assembler.JGE_Rel(label);
-					break;
-				case ICMPLE:
-					assembler.JLE_Rel(label);
-					break;
-
-				default:
-					throw new AssertionError("Unsupported instruction in JIT compiler");
-			}
-
+		case CALL:
+			emitCall(index, result, operands, (MethodDescriptor) instruction.getOperand());
+			break;
+		case BRANCH:
+			emitCompare(operands, instruction.getImmediate());
+			emitJump((LirInstruction.Condition) instruction.getOperand(), labels.get(instruction.getTarget()));
+			break;
+		case JUMP:
+			assembler.JMP_Rel(labels.get(instruction.getTarget()));
 			break;
-		case GOTO:
-			// TODO: Implement
-			var offset3=(int) instruction.getOperand();
-			var target3=code[position+1+offset3];
-			label=labels.get(target3);
-			matchAllocation(label);
-			assembler.JMP_Rel(label);
+		case LABEL:
+			assembler.setLabel(labels.get(instruction.getTarget()));
 			break;
 		case RETURN:
-			emitReturn();
+			emitReturn(operands);
+			break;
+		case OSR_ENTRY:
+			emitOsrEntry(instruction);
 			break;
 		default:
 			throw new AssertionError("Unsupported instruction in JIT compiler");
 		}
 	}
 
-	private void emitReturn() {
-		if (method.getReturnType() != null && allocation.getEvaluation().size() == 1) {
-			forceStack(0, RAX);
-			if (allocation.getEvaluation().pop() != RAX) {
-				throw new AssertionError("Return must be in RAX");
-			}
-			release(RAX);
+	private void emitMove(int result, int source) {
+		var target = allocation.getRegister(result);
+		var register = allocation.getRegister(source);
+		if (target != null) {
+			load(target, source);
+		} else if (register != null) {
+			assembler.MOV_MemReg(RBP, slotOffset(result), register);
+		} else if (allocation.getSlot(result) != allocation.getSlot(source)) {
+			assembler.MOV_RegMem(SCRATCH1, RBP, slotOffset(source));
+			assembler.MOV_MemReg(RBP, slotOffset(result), SCRATCH1);
 		}
-		if (allocation.getEvaluation().size() != 0) {
-			throw new AssertionError("Register stack not empty");
-		}
-		emitEpilogue();
 	}
 
-	private void emitConstant(Object operand) {
-		int value;
-		if (operand instanceof Integer) {
-			value = (int) operand;
-		} else if (operand instanceof Boolean) {
-			value = (boolean) operand ? 1 : 0;
+	// XOR is shorter than MOV for zero, but changes the flags. Ints only need the lower half.
+	private void emitConstant(X64Register target, long value, boolean reference) {
+		if (value == 0) {
+			assembler.XOR32_RegReg(target, target);
+		} else if (reference) {
+			assembler.MOV_RegImm(target, value);
 		} else {
-			throw new AssertionError("Unsupported LDC operand in JIT compiler");
+			assembler.MOV32_RegImm(target, (int) value);
 		}
-		var target = acquire();
-		assembler.MOV_RegImm(target, value);  //mov rax,value
-		push(target);
 	}
 
-	private void emitPrologue() {
-		for (var register : CALLEE_SAVED) {
-			assembler.PUSH(register);
+	// Ints use 32-bit operations, which wrap like Java ints. An addition into a register of its own
+	// takes LEA, which keeps both operands. A result in the register of the right operand, which
+	// dies there, is combined with the left one in place.
+	private void emitArithmetic(LirOp op, int result, int left, int right) {
+		var target = target(result, SCRATCH1);
+		var first = allocation.getRegister(left);
+		var second = use(right, SCRATCH2);
+		if (op == LirOp.ADD && first != null && target != first && target != second) {
+			assembler.LEA32_RegMem(target, first, second);
+		} else if (target == second && left != right) {
+			var source = use(left, SCRATCH1);
+			if (op == LirOp.ADD) {
+				assembler.ADD32_RegReg(target, source);
+			} else if (op == LirOp.SUB) {
+				assembler.NEG32(target);
+				assembler.ADD32_RegReg(target, source);
+			} else {
+				assembler.IMUL32_RegReg(target, source);
+			}
+		} else {
+			load(target, left);
+			if (op == LirOp.ADD) {
+				assembler.ADD32_RegReg(target, second);
+			} else if (op == LirOp.SUB) {
+				assembler.SUB32_RegReg(target, second);
+			} else {
+				assembler.IMUL32_RegReg(target, second);
+			}
 		}
+		define(result, target);
 	}
 
-	private void emitEpilogue() {
-		var list = new ArrayList<>(CALLEE_SAVED);
-		Collections.reverse(list);
-		for (var register : list) {
-			assembler.POP(register);
+	// Subtraction adds the negated immediate, which wraps to itself for the smallest int as it should.
+	private void emitImmediateArithmetic(LirOp op, int result, int left, int immediate) {
+		var target = target(result, SCRATCH1);
+		if (op == LirOp.MUL) {
+			assembler.IMUL32_RegRegImm(target, use(left, SCRATCH1), immediate);
+		} else {
+			var addend = op == LirOp.SUB ? -immediate : immediate;
+			var source = allocation.getRegister(left);
+			if (source != null && source != target) {
+				assembler.LEA32_RegMem(target, source, addend);
+			} else {
+				load(target, left);
+				if (addend == 1) {
+					assembler.INC32(target);
+				} else if (addend == -1) {
+					assembler.DEC32(target);
+				} else {
+					assembler.ADD32_RegImm(target, addend);
+				}
+			}
 		}
-		assembler.RET();
+		define(result, target);
 	}
 
-	private void alignBranchEntry(int position) {
-		var code = method.getCode();
-		var current = code[position];
-		if (labels.containsKey(current)) {
-			var label = labels.get(current);
-			assembler.setLabel(label);
-			var previous = position > 0 ? code[position - 1] : null;
-			if (previous == null || !UNCONDITIONAL_BRANCHES.contains(previous.getOpCode())) {
-				matchAllocation(label);
+	// IDIV takes the dividend in EDX:EAX, which are saved around it if they hold other values. The
+	// divisor -1 is handled apart, since the quotient of the smallest int would trap. A constant
+	// divisor is neither, so it needs no checks.
+	private void emitDivision(int index, boolean quotient, int result, int[] operands, Long divisor) {
+		var minusOne = assembler.createLabel();
+		var done = assembler.createLabel();
+		if (divisor == null) {
+			load(SCRATCH2, operands[1]);
+			assembler.TEST32_RegReg(SCRATCH2, SCRATCH2);
+			assembler.JE_Rel(bailout(JITNative.DIVISION_BY_ZERO));
+			assembler.CMP32_RegImm(SCRATCH2, -1);
+			assembler.JE_Rel(minusOne);
+		} else {
+			assembler.MOV32_RegImm(SCRATCH2, (int) (long) divisor);
+		}
+		var preserved = new ArrayList<X64Register>();
+		for (var value : allocation.getLiveAcross(index)) {
+			var register = allocation.getRegister(value);
+			if ((register == RAX || register == RDX) && !preserved.contains(register)) {
+				preserved.add(register);
+			}
+		}
+		for (var register : preserved) {
+			assembler.PUSH(register);
+		}
+		load(RAX, operands[0]);
+		assembler.CDQ();
+		assembler.IDIV32(SCRATCH2);
+		if (preserved.isEmpty()) {
+			define(result, quotient ? RAX : RDX);
+		} else {
+			assembler.MOV_RegReg(SCRATCH1, quotient ? RAX : RDX);
+			Collections.reverse(preserved);
+			for (var register : preserved) {
+				assembler.POP(register);
+			}
+			define(result, SCRATCH1);
+		}
+		if (divisor == null) {
+			assembler.JMP_Rel(done);
+			assembler.setLabel(minusOne);
+			var target = target(result, SCRATCH1);
+			if (quotient) {
+				load(target, operands[0]);
+				assembler.NEG32(target);
 			} else {
-				resetAllocation(label);
+				assembler.XOR32_RegReg(target, target);
 			}
+			define(result, target);
+			assembler.setLabel(done);
 		}
 	}
 
-	private void matchAllocation(X64Label label) {
-		if (!branchState.containsKey(label)) {
-			branchState.put(label, allocation.clone());
+	private void emitGetField(int result, int instance, FieldDescriptor field) {
+		var address = use(instance, SCRATCH1);
+		emitNullCheck(address);
+		var target = target(result, SCRATCH2);
+		emitLoad(target, address, field.getOffset(), field.getType());
+		define(result, target);
+	}
+
+	private void emitPutField(int instance, int value, FieldDescriptor field) {
+		var address = use(instance, SCRATCH1);
+		emitNullCheck(address);
+		emitStore(address, field.getOffset(), use(value, SCRATCH2), field.getType());
+	}
+
+	private void emitArrayLoad(int result, int array, int index, ArrayDescriptor arrayType) {
+		var element = emitElementAddress(array, index, arrayType.getElementSize(), SCRATCH2);
+		var target = target(result, SCRATCH1);
+		emitLoad(target, element, Heap.getElementsOffset(arrayType.getElementSize()), arrayType.getElementType());
+		define(result, target);
+	}
+
+	private void emitArrayStore(int array, int index, int value, ArrayDescriptor arrayType) {
+		var element = emitElementAddress(array, index, arrayType.getElementSize(), SCRATCH1);
+		emitStore(element, Heap.getElementsOffset(arrayType.getElementSize()), use(value, SCRATCH2),
+				arrayType.getElementType());
+	}
+
+	// Checks the array and index and computes the array address plus the scaled index into the
+	// target, using both scratch registers.
+	private X64Register emitElementAddress(int array, int index, int elementSize, X64Register target) {
+		var address = use(array, SCRATCH1);
+		emitNullCheck(address);
+		var register = allocation.getRegister(index);
+		if (register != null) {
+			assembler.MOV32_RegReg(SCRATCH2, register); // clears the upper half for the address
 		} else {
-			realignAllocation(branchState.get(label));
+			assembler.MOV32_RegMem(SCRATCH2, RBP, slotOffset(index));
 		}
+		assembler.CMP32_RegMem(SCRATCH2, HEAP_BASE, address, 0);
+		assembler.JAE_Rel(bailout(JITNative.INDEX_OUT_OF_RANGE)); // unsigned, so negative indices fail too
+		assembler.LEA_RegMem(target, address, SCRATCH2, Integer.numberOfTrailingZeros(elementSize));
+		return target;
 	}
 
-	private void resetAllocation(X64Label label) {
-		if (branchState.containsKey(label)) {
-			var expected = branchState.get(label);
-			expected.copyTo(allocation);
+	private void emitLoad(X64Register target, X64Register address, int displacement, TypeDescriptor type) {
+		if (type == TypeDescriptor.INT_TYPE) {
+			assembler.MOVSXD_RegMem(target, HEAP_BASE, address, displacement);
+		} else if (type == TypeDescriptor.BOOLEAN_TYPE) {
+			assembler.MOVZX8_RegMem(target, HEAP_BASE, address, displacement);
+		} else if (heapAccess.isCompressedReferences()) {
+			assembler.MOV32_RegMem(target, HEAP_BASE, address, displacement);
+			assembler.SHL_RegImm(target, Heap.COMPRESSION_SHIFT);
+		} else {
+			assembler.MOV_RegMem(target, HEAP_BASE, address, displacement);
 		}
 	}
 
-	private void realignAllocation(Allocation expected) {
-		realignRegisters(allocation.getParameters(), expected.getParameters());
-		realignRegisters(allocation.getLocals(), expected.getLocals());
-		realignRegisters(allocation.getEvaluation(), expected.getEvaluation());
-		if (!allocation.equals(expected)) {
-			throw new AssertionError("Failed allocation alignment");
+	// Compressed references are encoded in the second scratch register.
+	private void emitStore(X64Register address, int displacement, X64Register value, TypeDescriptor type) {
+		if (type == TypeDescriptor.INT_TYPE) {
+			assembler.MOV32_MemReg(HEAP_BASE, address, displacement, value);
+		} else if (type == TypeDescriptor.BOOLEAN_TYPE) {
+			assembler.MOV8_MemReg(HEAP_BASE, address, displacement, value);
+		} else if (heapAccess.isCompressedReferences()) {
+			if (value != SCRATCH2) {
+				assembler.MOV_RegReg(SCRATCH2, value);
+			}
+			assembler.SHR_RegImm(SCRATCH2, Heap.COMPRESSION_SHIFT);
+			assembler.MOV32_MemReg(HEAP_BASE, address, displacement, SCRATCH2);
+		} else {
+			assembler.MOV_MemReg(HEAP_BASE, address, displacement, value);
 		}
-		expected.copyTo(allocation);
 	}
 
-	private void realignRegisters(List<X64Register> actual, List<X64Register> expected) {
-		if (actual.size() != expected.size()) {
-			throw new AssertionError("Inconsistent number of registers");
+	// Caller-saved registers of values live across the call are pushed around it. The live
+	// references are also pushed as a record on the root chain, since the callee may end up in
+	// the interpreter and collect garbage. Arguments beyond the parameter registers are pushed
+	// last to first, so that the first is on top at the call.
+	private void emitCall(int index, int result, int[] arguments, MethodDescriptor target) {
+		emitNullCheck(use(arguments[0], SCRATCH1));
+		var live = allocation.getLiveAcross(index);
+		var preserved = new ArrayList<X64Register>();
+		var references = new ArrayList<Integer>();
+		for (var value : live) {
+			var register = allocation.getRegister(value);
+			// a result that is also an argument is live across, but its old value is not needed
+			if (register != null && CALLER_SAVED.contains(register) && !preserved.contains(register)
+					&& value != result) {
+				preserved.add(register);
+			}
+			if (lowering.isReference(value)) {
+				references.add(value);
+			}
 		}
-		for (int index = 0; index < actual.size(); index++) {
-			var source = actual.get(index);
-			var target = expected.get(index);
-			if (source != target) {
-				reserve(target);
-				forceRegister(actual, index, target);
-				release(source);
+		for (var register : preserved) {
+			assembler.PUSH(register);
+		}
+		var pushes = preserved.size();
+		if (!references.isEmpty()) {
+			for (var reference : references) {
+				push(reference);
 			}
+			assembler.PUSH_Imm(references.size());
+			assembler.MOV_RegImm(SCRATCH2, dispatchTable.getStateAddress());
+			assembler.PUSH_Mem(SCRATCH2, DispatchTable.ROOT_CHAIN);
+			assembler.MOV_MemReg(SCRATCH2, DispatchTable.ROOT_CHAIN, RSP);
+			pushes += references.size() + 2;
+		}
+		var inRegisters = Math.min(arguments.length, PARAMETER_REGISTERS.size());
+		var onStack = arguments.length - inRegisters;
+		var padding = (pushes + onStack) % 2 * Long.BYTES; // keeps the stack 16-byte aligned
+		if (padding > 0) {
+			assembler.SUB_RegImm(RSP, padding);
+		}
+		for (int argument = arguments.length - 1; argument >= inRegisters; argument--) {
+			push(arguments[argument]);
+		}
+		// through the stack, since arguments may sit in each other's parameter registers
+		for (int argument = 0; argument < inRegisters; argument++) {
+			push(arguments[argument]);
+		}
+		for (int argument = inRegisters - 1; argument >= 0; argument--) {
+			assembler.POP(PARAMETER_REGISTERS.get(argument));
+		}
+		if (SHADOW_SPACE > 0) {
+			assembler.SUB_RegImm(RSP, SHADOW_SPACE);
+		}
+		emitDispatch(PARAMETER_REGISTERS.get(0), target.getPosition());
+		var cleanup = SHADOW_SPACE + onStack * Long.BYTES + padding;
+		if (cleanup > 0) {
+			assembler.ADD_RegImm(RSP, cleanup);
+		}
+		if (!references.isEmpty()) {
+			assembler.MOV_RegImm(SCRATCH2, dispatchTable.getStateAddress());
+			assembler.POP_Mem(SCRATCH2, DispatchTable.ROOT_CHAIN);
+			assembler.ADD_RegImm(RSP, (references.size() + 1) * Long.BYTES);
+		}
+		// a callee's bailout is returned unchanged; the epilogue restores RSP
+		assembler.TEST_RegReg(RAX, RAX);
+		assembler.JS_Rel(exit);
+		if (result >= 0) {
+			define(result, RAX);
+		}
+		Collections.reverse(preserved);
+		for (var register : preserved) {
+			assembler.POP(register);
 		}
 	}
 
-	private void forceStack(int stackPos, X64Register reg) {
-		forceRegister(allocation.getEvaluation(), stackPos, reg);
+	// Finds the class table through the type id in the receiver's header and calls the slot, or
+	// the stub in it once the call depth limit is reached.
+	private void emitDispatch(X64Register receiver, int virtualPosition) {
+		assembler.MOV_RegMem(RAX, HEAP_BASE, receiver, -Heap.BLOCK_HEADER_SIZE);
+		assembler.SHL_RegImm(RAX, Long.SIZE - Heap.TYPE_ID_SHIFT - Heap.TYPE_ID_BITS);
+		assembler.SHR_RegImm(RAX, Long.SIZE - Heap.TYPE_ID_BITS);
+		assembler.MOV_RegImm(SCRATCH2, dispatchTable.getDirectoryAddress());
+		assembler.MOV_RegMem(RAX, SCRATCH2, RAX, 3, 0);
+		assembler.MOV_RegImm(SCRATCH2, dispatchTable.getStateAddress());
+		assembler.CMP_MemImm(SCRATCH2, DispatchTable.CALL_DEPTH, DispatchTable.CALL_DEPTH_LIMIT);
+		var interpreted = assembler.createLabel();
+		var done = assembler.createLabel();
+		assembler.JAE_Rel(interpreted);
+		var slot = virtualPosition * DispatchTable.SLOT_SIZE;
+		assembler.CALL_Mem(RAX, slot);
+		assembler.JMP_Rel(done);
+		assembler.setLabel(interpreted);
+		assembler.CALL_Mem(RAX, slot + DispatchTable.STUB_ENTRY);
+		assembler.setLabel(done);
 	}
 
-	private void forceRegister(List<X64Register> list, int index, X64Register reg) {
-		var current = list.get(index);
-		if (current != reg) {
-			assembler.MOV_RegReg(reg, current);
-			list.set(index, reg);
+	private void emitJump(LirInstruction.Condition condition, X64Label label) {
+		switch (condition) {
+		case EQUAL:
+			assembler.JE_Rel(label);
+			break;
+		case NOT_EQUAL:
+			assembler.JNE_Rel(label);
+			break;
+		case LESS:
+			assembler.JL_Rel(label);
+			break;
+		case LESS_EQUAL:
+			assembler.JLE_Rel(label);
+			break;
+		case GREATER:
+			assembler.JG_Rel(label);
+			break;
+		default:
+			assembler.JGE_Rel(label);
+			break;
 		}
 	}
 
-	private X64Register acquire() {
-		return allocation.acquire();
+	// References compare in 64 bits, ints and booleans in 32 bits. TEST compares with zero.
+	private void emitCompare(int[] operands, Long immediate) {
+		var first = use(operands[0], SCRATCH1);
+		var wide = lowering.isReference(operands[0]);
+		if (immediate == null) {
+			var second = use(operands[1], SCRATCH2);
+			if (wide || lowering.isReference(operands[1])) {
+				assembler.CMP_RegReg(first, second);
+			} else {
+				assembler.CMP32_RegReg(first, second);
+			}
+		} else if (immediate == 0) {
+			if (wide) {
+				assembler.TEST_RegReg(first, first);
+			} else {
+				assembler.TEST32_RegReg(first, first);
+			}
+		} else if (wide) {
+			assembler.CMP_RegImm(first, (int) (long) immediate);
+		} else {
+			assembler.CMP32_RegImm(first, (int) (long) immediate);
+		}
 	}
 
-	private void release(X64Register reg) {
-		allocation.release(reg);
+	// Sets the low byte of the register to the condition from the flags.
+	private void emitSet(LirInstruction.Condition condition, X64Register target) {
+		switch (condition) {
+		case EQUAL:
+			assembler.SETE(target);
+			break;
+		case NOT_EQUAL:
+			assembler.SETNE(target);
+			break;
+		case LESS:
+			assembler.SETL(target);
+			break;
+		case LESS_EQUAL:
+			assembler.SETLE(target);
+			break;
+		case GREATER:
+			assembler.SETG(target);
+			break;
+		default:
+			assembler.SETGE(target);
+			break;
+		}
 	}
 
-	private void reserve(X64Register reg) {
-		if (allocation.isFree(reg)) {
-			allocation.acquireSpecific(reg);
+	private void emitReturn(int[] operands) {
+		if (operands.length == 0) {
+			assembler.XOR32_RegReg(RAX, RAX);
+		} else if (lowering.isReference(operands[0])) {
+			load(RAX, operands[0]);
 		} else {
-			var target = allocation.acquire();
-			assembler.MOV_RegReg(target, reg);
-			allocation.relocate(reg, target);  //relocation: tranfer all metadata about reg into a new reg to free up reg
+			var register = allocation.getRegister(operands[0]);
+			if (register != null) {
+				assembler.MOV32_RegReg(RAX, register);
+			} else {
+				assembler.MOV32_RegMem(RAX, RBP, slotOffset(operands[0]));
+			}
 		}
+		assembler.JMP_Rel(exit);
 	}
 
-	private void push(X64Register register) {
-		allocation.getEvaluation().push(register);
+	private void emitNullCheck(X64Register reference) {
+		assembler.TEST_RegReg(reference, reference);
+		assembler.JE_Rel(bailout(JITNative.NULL_DEREFERENCED));
 	}
 
-	@SuppressWarnings("unused")
-	private X64Register pop() {
-		return allocation.getEvaluation().pop();
+	private X64Label bailout(int reason) {
+		return bailouts.computeIfAbsent(reason, key -> assembler.createLabel());
 	}
 
-	@SuppressWarnings("unused")
-	private X64Register peek() {
-		return allocation.getEvaluation().peek();
+	private void emitBailouts() {
+		for (var bailout : bailouts.entrySet()) {
+			assembler.setLabel(bailout.getValue());
+			assembler.MOV_RegImm(RAX, JITNative.BAILOUT | bailout.getKey());
+			assembler.JMP_Rel(exit);
+		}
+	}
+
+	// Keeps RSP 16-byte aligned below the spill slots.
+	private void emitPrologue() {
+		assembler.PUSH(RBP);
+		assembler.MOV_RegReg(RBP, RSP);
+		for (var register : saved) {
+			assembler.PUSH(register);
+		}
+		var slots = allocation.getSlotCount() + (saved.size() + allocation.getSlotCount()) % 2;
+		if (slots > 0) {
+			assembler.SUB_RegImm(RSP, slots * Long.BYTES);
+		}
+		if (usesHeap) {
+			assembler.MOV_RegImm(HEAP_BASE, heapAccess.getNativeBase());
+		}
+		if (usesCalls) {
+			assembler.MOV_RegImm(SCRATCH2, dispatchTable.getStateAddress());
+			assembler.ADD_MemImm(SCRATCH2, DispatchTable.CALL_DEPTH, 1);
+		}
 	}
 
-	private List<X64Register> allocateParameters(int paramCount) {
-		boolean isWindows = Platform.isWindows();
-		var parameters = new ArrayList<X64Register>();
-		if (paramCount > 0) {
-			parameters.add(isWindows ? RCX : RDI);
+	// Expects the result in RAX.
+	private void emitEpilogue() {
+		assembler.setLabel(exit);
+		if (usesCalls) {
+			assembler.MOV_RegImm(SCRATCH2, dispatchTable.getStateAddress());
+			assembler.ADD_MemImm(SCRATCH2, DispatchTable.CALL_DEPTH, -1);
 		}
-		if (paramCount > 1) {
-			parameters.add(isWindows ? RDX : RSI);
+		if (saved.isEmpty()) {
+			assembler.MOV_RegReg(RSP, RBP);
+		} else {
+			assembler.LEA_RegMem(RSP, RBP, -saved.size() * Long.BYTES);
 		}
-		if (paramCount > 2) {
-			parameters.add(isWindows ? R8 : RDX);
+		var restored = new ArrayList<>(saved);
+		Collections.reverse(restored);
+		for (var register : restored) {
+			assembler.POP(register);
 		}
-		if (paramCount > 3) {
-			parameters.add(isWindows ? R9 : RCX);
+		assembler.POP(RBP);
+		assembler.RET();
+	}
+
+	private int slotOffset(int value) {
+		var slot = allocation.getSlot(value);
+		if (slot < 0) {
+			throw new AssertionError("Value v" + value + " is not spilled");
 		}
-		if (paramCount > 4) {
-			throw new AssertionError("Only four parameters currently supported");
+		return -(saved.size() + slot + 1) * Long.BYTES;
+	}
+
+	// Register holding the value, loaded into the scratch register if it is spilled.
+	private X64Register use(int value, X64Register scratch) {
+		var register = allocation.getRegister(value);
+		if (register != null) {
+			return register;
 		}
-		return parameters;
+		assembler.MOV_RegMem(scratch, RBP, slotOffset(value));
+		return scratch;
 	}
 
-	private void allocateLocals(int localCount) {
-		for (int index = 0; index < localCount; index++) {
-			allocation.addLocal();
+	// Register to compute the value in, the scratch register if it is spilled; define() stores it.
+	private X64Register target(int value, X64Register scratch) {
+		var register = allocation.getRegister(value);
+		return register != null ? register : scratch;
+	}
+
+	private void define(int value, X64Register source) {
+		var register = allocation.getRegister(value);
+		if (register == null) {
+			assembler.MOV_MemReg(RBP, slotOffset(value), source);
+		} else if (register != source) {
+			assembler.MOV_RegReg(register, source);
+		}
+	}
+
+	private void load(X64Register target, int value) {
+		var register = allocation.getRegister(value);
+		if (register == null) {
+			assembler.MOV_RegMem(target, RBP, slotOffset(value));
+		} else if (register != target) {
+			assembler.MOV_RegReg(target, register);
+		}
+	}
+
+	private void push(int value) {
+		var register = allocation.getRegister(value);
+		if (register != null) {
+			assembler.PUSH(register);
+		} else {
+			assembler.PUSH_Mem(RBP, slotOffset(value));
 		}
 	}
 }
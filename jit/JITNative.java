@@ -1,38 +1,159 @@
 package jit;
 
+import com.sun.jna.Function;
 import com.sun.jna.Library;
 import com.sun.jna.Native;
+import com.sun.jna.Platform;
+import com.sun.jna.Pointer;
 
+import error.VMException;
 import runtime.descriptors.TypeDescriptor;
+import runtime.heap.Heap;
 
 public class JITNative {
 	public interface CLibrary extends Library {
-		CLibrary INSTANCE = (CLibrary) Native.load("NativeCall", CLibrary.class);
-		
-		int call(byte[] code, int codeLength, int[] arguments, int nofArguments);
+		CLibrary INSTANCE = Native.load("c", CLibrary.class);
+
+		int PROT_READ = 0x1;
+		int PROT_WRITE = 0x2;
+		int PROT_EXEC = 0x4;
+		int MAP_PRIVATE = 0x2;
+		int MAP_ANONYMOUS = Platform.isMac() ? 0x1000 : 0x20;
+
+		Pointer mmap(Pointer address, long length, int protection, int flags, int fd, long offset);
+
+		int munmap(Pointer address, long length);
+	}
+
+	public interface Kernel32 extends Library {
+		Kernel32 INSTANCE = Native.load("kernel32", Kernel32.class);
+
+		int MEM_COMMIT = 0x1000;
+		int MEM_RESERVE = 0x2000;
+		int MEM_RELEASE = 0x8000;
+		int PAGE_EXECUTE_READWRITE = 0x40;
+
+		Pointer VirtualAlloc(Pointer address, long size, int allocationType, int protection);
+
+		boolean VirtualFree(Pointer address, long size, int freeType);
+	}
+
+	// Compiled code returns BAILOUT combined with one of the reasons if a check fails.
+	public static final long BAILOUT = Long.MIN_VALUE;
+	public static final int NULL_DEREFERENCED = 1;
+	public static final int INDEX_OUT_OF_RANGE = 2;
+	// An interpreted callee failed; the exception waits in pendingException.
+	public static final int PENDING_EXCEPTION = 3;
+	public static final int DIVISION_BY_ZERO = 4;
+
+	private static final Pointer MAP_FAILED = new Pointer(-1);
+	private static final ThreadLocal<Throwable> pendingException = new ThreadLocal<>();
+
+	// Reserves readable, writable and executable memory for the code cache.
+	public static Pointer allocateExecutable(long size) {
+		Pointer memory;
+		if (Platform.isWindows()) {
+			memory = Kernel32.INSTANCE.VirtualAlloc(null, size,
+					Kernel32.MEM_COMMIT | Kernel32.MEM_RESERVE, Kernel32.PAGE_EXECUTE_READWRITE);
+		} else {
+			memory = CLibrary.INSTANCE.mmap(null, size,
+					CLibrary.PROT_READ | CLibrary.PROT_WRITE | CLibrary.PROT_EXEC,
+					CLibrary.MAP_PRIVATE | CLibrary.MAP_ANONYMOUS, -1, 0);
+		}
+		if (memory == null || memory.equals(MAP_FAILED)) {
+			throw new AssertionError("Executable memory cannot be allocated");
+		}
+		return memory;
 	}
 
-	public static Object call(byte[] code, Object[] arguments, TypeDescriptor returnType) {
-		var input = new int[arguments.length];
+	public static void freeExecutable(Pointer memory, long size) {
+		if (Platform.isWindows()) {
+			Kernel32.INSTANCE.VirtualFree(memory, 0, Kernel32.MEM_RELEASE);
+		} else {
+			CLibrary.INSTANCE.munmap(memory, size);
+		}
+	}
+
+	public static Object call(Function entry, runtime.heap.Pointer target, Object[] arguments,
+			TypeDescriptor returnType) {
+		var input = new Object[arguments.length + 1];
+		input[0] = toNative(target);
 		for (int index = 0; index < arguments.length; index++) {
-			var value = arguments[index];
-			if (value instanceof Integer) {
-				input[index] = (int)value;
-			} else if (value instanceof Boolean) {
-				input[index] = (boolean)value ? 1 : 0;
-			} else {
-				throw new AssertionError("Unsupported argument type");
+			input[index + 1] = toNative(arguments[index]);
+		}
+		return fromNative(entry.invokeLong(input), returnType);
+	}
+
+	// Passes the values in a native array, whose address is the only argument.
+	public static Object callWithState(Function entry, Object[] values, TypeDescriptor returnType) {
+		var state = new long[Math.max(1, values.length)];
+		for (int index = 0; index < values.length; index++) {
+			state[index] = toNative(values[index]);
+		}
+		return fromNative(entry.invokeLong(new Object[] { state }), returnType);
+	}
+
+	// Exceptions cannot unwind native frames, so the callback keeps them until compiled code has
+	// returned to Java.
+	static void setPendingException(Throwable exception) {
+		pendingException.set(exception);
+	}
+
+	// Compiled code works on 64-bit registers, hence values are passed sign-extended.
+	static long toNative(Object value) {
+		if (value instanceof Integer) {
+			return (int) value;
+		} else if (value instanceof Boolean) {
+			return (boolean) value ? 1 : 0;
+		} else if (value instanceof runtime.heap.Pointer) {
+			return ((runtime.heap.Pointer) value).getAddress();
+		} else if (value == null) {
+			return Heap.NULL_POINTER;
+		} else {
+			throw new AssertionError("Unsupported argument type");
+		}
+	}
+
+	// Results are returned like compiled code returns them, ints zero-extended.
+	static long resultToNative(Object value) {
+		return value instanceof Integer ? Integer.toUnsignedLong((int) value) : toNative(value);
+	}
+
+	private static Object fromNative(long result, TypeDescriptor returnType) {
+		if (result < 0) {
+			var reason = (int) (result & ~BAILOUT);
+			if (reason == PENDING_EXCEPTION) {
+				throwPendingException();
+			} else if (reason == DIVISION_BY_ZERO) {
+				throw new ArithmeticException("/ by zero"); // as thrown by the interpreter
 			}
+			throw new VMException(reason == NULL_DEREFERENCED ? "Null dereferenced" : "Array index out of range");
 		}
-		int result = CLibrary.INSTANCE.call(code, code.length, input, input.length);
-		if (returnType == null) {
+		return toValue(result, returnType);
+	}
+
+	private static void throwPendingException() {
+		var exception = pendingException.get();
+		pendingException.remove();
+		if (exception instanceof RuntimeException) {
+			throw (RuntimeException) exception;
+		} else if (exception instanceof Error) {
+			throw (Error) exception;
+		}
+		throw new VMException("Compiled call failed: " + exception);
+	}
+
+	static Object toValue(long value, TypeDescriptor type) {
+		if (type == null) {
+			return null;
+		} else if (type == TypeDescriptor.BOOLEAN_TYPE) {
+			return value != 0;
+		} else if (type == TypeDescriptor.INT_TYPE) {
+			return (int) value;
+		} else if (value == Heap.NULL_POINTER) {
 			return null;
-		} else if (returnType == TypeDescriptor.BOOLEAN_TYPE) {
-			return result != 0; 
-		} else if (returnType == TypeDescriptor.INT_TYPE) {
-			return result;
 		} else {
-			throw new AssertionError("Unsupported return type");
+			return new runtime.heap.Pointer(value);
 		}
 	}
 }
@@ -0,0 +1,84 @@
+package jit;
+
+public class JITOptions {
+	private boolean enabled = true;
+	private long codeCacheSize = 1024 * 1024;
+	private int compileThreshold = 1000;
+	private int backEdgeThreshold = 10000;
+	private int compilerThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 4);
+	private boolean printStatistics;
+	private boolean printIr;
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	// Executable memory reserved for compiled code; least recently called methods are evicted beyond it.
+	public long getCodeCacheSize() {
+		return codeCacheSize;
+	}
+
+	public void setCodeCacheSize(long codeCacheSize) {
+		if (codeCacheSize < 4 * 1024) {
+			throw new IllegalArgumentException("Code cache must have at least 4 KB");
+		}
+		this.codeCacheSize = codeCacheSize;
+	}
+
+	// Number of calls after which a method is queued for compilation.
+	public int getCompileThreshold() {
+		return compileThreshold;
+	}
+
+	public void setCompileThreshold(int compileThreshold) {
+		if (compileThreshold < 1) {
+			throw new IllegalArgumentException("Compile threshold must be positive");
+		}
+		this.compileThreshold = compileThreshold;
+	}
+
+	// Number of iterations of a single loop after which its method is queued for compilation.
+	public int getBackEdgeThreshold() {
+		return backEdgeThreshold;
+	}
+
+	public void setBackEdgeThreshold(int backEdgeThreshold) {
+		if (backEdgeThreshold < 1) {
+			throw new IllegalArgumentException("Back-edge threshold must be positive");
+		}
+		this.backEdgeThreshold = backEdgeThreshold;
+	}
+
+	// Background compiler threads; with none, methods are compiled by the interpreter thread.
+	public int getCompilerThreads() {
+		return compilerThreads;
+	}
+
+	public void setCompilerThreads(int compilerThreads) {
+		if (compilerThreads < 0) {
+			throw new IllegalArgumentException("Negative number of compiler threads");
+		}
+		this.compilerThreads = compilerThreads;
+	}
+
+	public boolean isPrintStatistics() {
+		return printStatistics;
+	}
+
+	public void setPrintStatistics(boolean printStatistics) {
+		this.printStatistics = printStatistics;
+	}
+
+	// Prints the optimized SSA form of every compiled method.
+	public boolean isPrintIr() {
+		return printIr;
+	}
+
+	public void setPrintIr(boolean printIr) {
+		this.printIr = printIr;
+	}
+}
@@ -1,29 +1,26 @@
 package jit;
 
+import java.util.List;
 import java.util.Set;
 
+import bytecode.Instruction;
 import bytecode.OpCode;
+import runtime.descriptors.ArrayDescriptor;
+import runtime.descriptors.ClassDescriptor;
+import runtime.descriptors.FieldDescriptor;
 import runtime.descriptors.MethodDescriptor;
 import runtime.descriptors.TypeDescriptor;
 
 public class JITPrecondition {
-	private static final Set<OpCode> CONDITIONAL_BRANCHES = Set.of(OpCode.IF_TRUE, OpCode.IF_FALSE);
-	private static final Set<OpCode> COMPARE_OPERATORS = Set.of(OpCode.CMPEQ, OpCode.CMPNE, OpCode.ICMPLT,
-			OpCode.ICMPLE, OpCode.ICMPGT, OpCode.ICMPGE);
-	
-	
-	public static boolean fulfilled(MethodDescriptor method) {
-		if (method.getReturnType() != null && !supportedType(method.getReturnType())) {
-			return false;
-		}
-		if (method.getParameterTypes().length > 4) {
+	public static boolean fulfilled(MethodDescriptor method, HeapAccess heapAccess) {
+		return fulfilled(method, heapAccess, null);
+	}
+
+	// Calls need a dispatch table.
+	public static boolean fulfilled(MethodDescriptor method, HeapAccess heapAccess, DispatchTable dispatchTable) {
+		if (!supportedSignature(method)) {
 			return false;
 		}
-		for (var parameterType : method.getParameterTypes()) {
-			if (!supportedType(parameterType)) {
-				return false;
-			}
-		}
 		for (var localType : method.getLocalTypes()) {
 			if (!supportedType(localType)) {
 				return false;
@@ -47,36 +44,53 @@ public class JITPrecondition {
 				var index = (int) operand;
 				var parameters = method.getParameterTypes();
 				var locals = method.getLocalTypes();
-				if (index <= 0 || index > parameters.length + locals.length) {
+				var first = instruction.getOpCode() == OpCode.LOAD ? 0 : 1;
+				if (index < first || index > parameters.length + locals.length) {
 					return false;
-				} else if (index <= parameters.length && !supportedType(parameters[index - 1])) {
+				} else if (index > 0 && index <= parameters.length && !supportedType(parameters[index - 1])) {
 					return false;
 				} else if (index > parameters.length && !supportedType(locals[index - 1 - parameters.length])) {
 					return false;
 				}
 				break;
-			case CMPEQ:
-			case CMPNE:
-			case ICMPLT:
-			case ICMPLE:
-			case ICMPGT:
-			case ICMPGE:
-				var next = position + 1 < code.length ? code[position + 1] : null;
-				if (next == null || !CONDITIONAL_BRANCHES.contains(next.getOpCode())) {
-					return false;
-				}
-				break;
 			case IF_FALSE:
 			case IF_TRUE:
 				if (!(operand instanceof Integer)) {
 					return false;
 				}
-				var previous = position > 0 ? code[position - 1] : null;
-				if (previous == null || !COMPARE_OPERATORS.contains(previous.getOpCode())) {
+				break;
+			case GETFIELD:
+			case PUTFIELD:
+				if (!heapAccess.isAvailable() || !(operand instanceof FieldDescriptor)) {
+					return false;
+				}
+				var fieldType = ((FieldDescriptor) operand).getType();
+				if (!supportedType(fieldType) || instruction.getOpCode() == OpCode.PUTFIELD
+						&& StackTypes.isReference(fieldType) && !heapAccess.isReferenceStoreAllowed()) {
+					return false;
+				}
+				break;
+			case INVOKEVIRTUAL:
+				if (dispatchTable == null || !heapAccess.isAvailable() || !(operand instanceof MethodDescriptor)
+						|| !supportedSignature((MethodDescriptor) operand)) {
+					return false;
+				}
+				break;
+			case ALOAD:
+			case ASTORE:
+			case ARRAYLENGTH:
+				if (!heapAccess.isAvailable()) {
 					return false;
 				}
 				break;
 			case GOTO:
+			case CMPEQ:
+			case CMPNE:
+			case ICMPLT:
+			case ICMPLE:
+			case ICMPGT:
+			case ICMPGE:
+			case ACONST_NULL:
 			case IADD:
 			case ISUB:
 			case IMUL:
@@ -90,10 +104,43 @@ public class JITPrecondition {
 				return false;
 			}
 		}
+		var stackTypes = StackTypes.infer(method);
+		return stackTypes != null && supportedArrayAccesses(code, stackTypes, heapAccess);
+	}
+
+	// Array accesses need the element layout, which comes from the static array type.
+	private static boolean supportedArrayAccesses(Instruction[] code, List<List<TypeDescriptor>> stackTypes,
+			HeapAccess heapAccess) {
+		for (int position = 0; position < code.length; position++) {
+			var opCode = code[position].getOpCode();
+			var stack = stackTypes.get(position);
+			if (stack == null || opCode != OpCode.ALOAD && opCode != OpCode.ASTORE) {
+				continue;
+			}
+			var arrayType = (ArrayDescriptor) stack.get(opCode == OpCode.ALOAD ? 1 : 2);
+			var elementType = arrayType.getElementType();
+			if (!supportedType(elementType) || opCode == OpCode.ASTORE && StackTypes.isReference(elementType)
+					&& !heapAccess.isReferenceStoreAllowed()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean supportedSignature(MethodDescriptor method) {
+		if (method.getReturnType() != null && !supportedType(method.getReturnType())) {
+			return false;
+		}
+		for (var parameterType : method.getParameterTypes()) {
+			if (!supportedType(parameterType)) {
+				return false;
+			}
+		}
 		return true;
 	}
 
 	private static boolean supportedType(TypeDescriptor descriptor) {
-		return descriptor == TypeDescriptor.BOOLEAN_TYPE || descriptor == TypeDescriptor.INT_TYPE;
+		return descriptor == TypeDescriptor.BOOLEAN_TYPE || descriptor == TypeDescriptor.INT_TYPE
+				|| descriptor instanceof ClassDescriptor || descriptor instanceof ArrayDescriptor;
 	}
 }
@@ -0,0 +1,282 @@
+package jit;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import jit.x64.X64Register;
+
+// Linear-scan register allocation over low-level code. Each virtual register gets one interval,
+// from its first definition to its last use, widened over the blocks it is live in and out of,
+// and keeps one location for all of it: a register or a spill slot. Instruction i uses its
+// operands at position 2i and defines its result at 2i + 1, so a result can take over the
+// register of an operand that dies there.
+final class LinearScan {
+	private static final class Interval {
+		private final int value;
+		private int start = Integer.MAX_VALUE;
+		private int end = -1;
+		private X64Register register;
+		private int slot = -1;
+
+		public Interval(int value) {
+			this.value = value;
+		}
+
+		public void cover(int position) {
+			start = Math.min(start, position);
+			end = Math.max(end, position);
+		}
+	}
+
+	private final List<LirInstruction> code;
+	private final Interval[] intervals;
+	private final List<Integer> calls = new ArrayList<>();
+	private final Map<Integer, Integer> hints = new HashMap<>();
+	private final Set<X64Register> usedRegisters = new LinkedHashSet<>();
+	private int slotCount;
+
+	// Registers are taken in the given order, but intervals across calls prefer the callee-saved
+	// ones. Fixed hints name the register a value arrives in.
+	public LinearScan(List<LirInstruction> code, int registerCount, List<X64Register> available,
+			Set<X64Register> calleeSaved, Map<Integer, X64Register> fixedHints) {
+		this.code = code;
+		intervals = new Interval[registerCount];
+		buildIntervals();
+		for (int index = 0; index < code.size(); index++) {
+			var instruction = code.get(index);
+			if (instruction.getOp() == LirOp.CALL) {
+				calls.add(index);
+			}
+			// results prefer the register of the operand they copy or combine with, for ADD and MUL the
+			// one that dies there
+			var op = instruction.getOp();
+			var operands = instruction.getOperands();
+			if (instruction.getResult() >= 0 && operands.length > 0 && op != LirOp.CALL && op != LirOp.DIV
+					&& op != LirOp.REM) {
+				var hint = operands[0];
+				if ((op == LirOp.ADD || op == LirOp.MUL) && operands.length == 2 && !diesAt(operands[0], index)
+						&& diesAt(operands[1], index)) {
+					hint = operands[1];
+				}
+				hints.put(instruction.getResult(), hint);
+			}
+		}
+		allocate(available, calleeSaved, fixedHints);
+	}
+
+	// Null if the value is spilled or never defined.
+	public X64Register getRegister(int value) {
+		return intervals[value] != null ? intervals[value].register : null;
+	}
+
+	// Spill slot of the value, or -1.
+	public int getSlot(int value) {
+		return intervals[value] != null ? intervals[value].slot : -1;
+	}
+
+	public int getSlotCount() {
+		return slotCount;
+	}
+
+	public Set<X64Register> getUsedRegisters() {
+		return usedRegisters;
+	}
+
+	// Values live before and after the instruction, in the order of their virtual registers.
+	public List<Integer> getLiveAcross(int index) {
+		var live = new ArrayList<Integer>();
+		for (var interval : intervals) {
+			if (interval != null && interval.start < 2 * index && interval.end > 2 * index + 1) {
+				live.add(interval.value);
+			}
+		}
+		return live;
+	}
+
+	private boolean diesAt(int value, int index) {
+		return intervals[value].end == 2 * index;
+	}
+
+	private void buildIntervals() {
+		var blocks = new ArrayList<Integer>(); // first instruction of each block
+		var labels = new HashMap<Integer, Integer>();
+		for (int index = 0; index < code.size(); index++) {
+			var instruction = code.get(index);
+			if (index == 0 || instruction.getOp() == LirOp.LABEL || isBlockEnd(code.get(index - 1))) {
+				blocks.add(index);
+			}
+			if (instruction.getOp() == LirOp.LABEL) {
+				labels.put(instruction.getTarget(), blocks.size() - 1);
+			}
+		}
+		var count = blocks.size();
+		var uses = new BitSet[count];
+		var definitions = new BitSet[count];
+		var liveIn = new BitSet[count];
+		var liveOut = new BitSet[count];
+		var successors = new ArrayList<List<Integer>>();
+		for (int block = 0; block < count; block++) {
+			uses[block] = new BitSet();
+			definitions[block] = new BitSet();
+			liveIn[block] = new BitSet();
+			liveOut[block] = new BitSet();
+			for (int index = blocks.get(block); index < end(blocks, block); index++) {
+				var instruction = code.get(index);
+				for (var value : instruction.getUses()) {
+					if (!definitions[block].get(value)) {
+						uses[block].set(value);
+					}
+				}
+				for (var value : instruction.getDefinitions()) {
+					definitions[block].set(value);
+				}
+			}
+			var last = code.get(end(blocks, block) - 1);
+			var next = new ArrayList<Integer>();
+			if (last.getOp() == LirOp.JUMP || last.getOp() == LirOp.BRANCH) {
+				next.add(labels.get(last.getTarget()));
+			}
+			if (!last.isUnconditionalBranch() && block + 1 < count) {
+				next.add(block + 1);
+			}
+			successors.add(next);
+		}
+		var changed = true;
+		while (changed) {
+			changed = false;
+			for (int block = count - 1; block >= 0; block--) {
+				var out = new BitSet();
+				for (var successor : successors.get(block)) {
+					out.or(liveIn[successor]);
+				}
+				var in = (BitSet) out.clone();
+				in.andNot(definitions[block]);
+				in.or(uses[block]);
+				if (!in.equals(liveIn[block]) || !out.equals(liveOut[block])) {
+					liveIn[block] = in;
+					liveOut[block] = out;
+					changed = true;
+				}
+			}
+		}
+		for (int block = 0; block < count; block++) {
+			var first = blocks.get(block);
+			var last = end(blocks, block) - 1;
+			liveIn[block].stream().forEach(value -> interval(value).cover(2 * first));
+			liveOut[block].stream().forEach(value -> interval(value).cover(2 * last + 1));
+			for (int index = first; index <= last; index++) {
+				var instruction = code.get(index);
+				for (var value : instruction.getUses()) {
+					interval(value).cover(2 * index);
+				}
+				for (var value : instruction.getDefinitions()) {
+					interval(value).cover(2 * index + 1);
+				}
+			}
+		}
+	}
+
+	private static boolean isBlockEnd(LirInstruction instruction) {
+		var op = instruction.getOp();
+		return op == LirOp.JUMP || op == LirOp.BRANCH || op == LirOp.RETURN;
+	}
+
+	private int end(List<Integer> blocks, int block) {
+		return block + 1 < blocks.size() ? blocks.get(block + 1) : code.size();
+	}
+
+	private Interval interval(int value) {
+		if (intervals[value] == null) {
+			intervals[value] = new Interval(value);
+		}
+		return intervals[value];
+	}
+
+	private void allocate(List<X64Register> available, Set<X64Register> calleeSaved,
+			Map<Integer, X64Register> fixedHints) {
+		var sorted = new ArrayList<Interval>();
+		for (var interval : intervals) {
+			if (interval != null) {
+				sorted.add(interval);
+			}
+		}
+		sorted.sort(Comparator.comparingInt((Interval interval) -> interval.start)
+				.thenComparingInt(interval -> interval.value));
+		var active = new ArrayList<Interval>();
+		var free = new HashSet<X64Register>(available);
+		for (var current : sorted) {
+			active.removeIf(interval -> {
+				if (interval.end < current.start) {
+					free.add(interval.register);
+					return true;
+				}
+				return false;
+			});
+			var register = choose(current, available, free, calleeSaved, fixedHints);
+			if (register != null) {
+				assign(current, register, free, active);
+				continue;
+			}
+			var victim = current;
+			for (var interval : active) {
+				if (interval.end > victim.end) {
+					victim = interval;
+				}
+			}
+			if (victim != current) {
+				active.remove(victim);
+				assign(current, victim.register, free, active);
+				victim.register = null;
+			}
+			victim.slot = slotCount++;
+		}
+	}
+
+	private X64Register choose(Interval current, List<X64Register> available, Set<X64Register> free,
+			Set<X64Register> calleeSaved, Map<Integer, X64Register> fixedHints) {
+		var fixed = fixedHints.get(current.value);
+		if (fixed != null && free.contains(fixed)) {
+			return fixed;
+		}
+		var hint = hints.get(current.value);
+		if (hint != null && intervals[hint] != null && free.contains(intervals[hint].register)) {
+			return intervals[hint].register;
+		}
+		if (crossesCall(current)) {
+			for (var register : available) {
+				if (free.contains(register) && calleeSaved.contains(register)) {
+					return register;
+				}
+			}
+		}
+		for (var register : available) {
+			if (free.contains(register)) {
+				return register;
+			}
+		}
+		return null;
+	}
+
+	private boolean crossesCall(Interval interval) {
+		for (var index : calls) {
+			if (interval.start < 2 * index && interval.end > 2 * index + 1) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void assign(Interval interval, X64Register register, Set<X64Register> free, List<Interval> active) {
+		interval.register = register;
+		free.remove(register);
+		active.add(interval);
+		usedRegisters.add(register);
+	}
+}
@@ -0,0 +1,340 @@
+package jit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import bytecode.Instruction;
+import bytecode.OpCode;
+import runtime.descriptors.ArrayDescriptor;
+import runtime.descriptors.FieldDescriptor;
+import runtime.descriptors.MethodDescriptor;
+import runtime.descriptors.TypeDescriptor;
+import runtime.heap.Heap;
+import static bytecode.OpCode.*;
+
+// Translates the bytecode of a method into low-level code. This, the parameters and the locals
+// each have a virtual register; every value pushed on the evaluation stack gets a new one. At
+// branch targets, the evaluation stack is in fixed registers, which branching code copies into.
+// Labels are numbered by the bytecode position of the target. Each loop header gets an OSR entry
+// after the code, which defines the variables and the evaluation stack from the interpreter
+// state and jumps to the header.
+final class LirBuilder {
+	private final MethodDescriptor method;
+	private final List<List<TypeDescriptor>> stackTypes;
+	private final List<LirInstruction> code = new ArrayList<>();
+	private final List<Boolean> references = new ArrayList<>();
+	private final int[] variables;
+	private final Set<Integer> targets = new HashSet<>();
+	private final Map<Integer, int[]> entryStacks = new HashMap<>();
+	private LinkedList<Integer> stack = new LinkedList<>();
+
+	public LirBuilder(MethodDescriptor method, List<List<TypeDescriptor>> stackTypes) {
+		this.method = method;
+		this.stackTypes = stackTypes;
+		var parameterTypes = method.getParameterTypes();
+		var localTypes = method.getLocalTypes();
+		variables = new int[1 + parameterTypes.length + localTypes.length];
+		variables[0] = newRegister(true);
+		for (int index = 0; index < parameterTypes.length; index++) {
+			variables[index + 1] = newRegister(StackTypes.isReference(parameterTypes[index]));
+		}
+		emit(LirOp.ENTRY, -1, Arrays.copyOf(variables, parameterTypes.length + 1), null, -1);
+		for (int index = 0; index < localTypes.length; index++) {
+			var reference = StackTypes.isReference(localTypes[index]);
+			var local = newRegister(reference);
+			variables[parameterTypes.length + 1 + index] = local;
+			// locals start with their default value
+			emit(LirOp.CONST, local, new int[0], reference ? Heap.NULL_POINTER : 0L, -1);
+		}
+		var instructions = method.getCode();
+		for (int position = 0; position < instructions.length; position++) {
+			var instruction = instructions[position];
+			if (isBranch(instruction.getOpCode())) {
+				targets.add(position + 1 + (int) instruction.getOperand());
+			}
+		}
+		translate(instructions);
+		emitOsrEntries(instructions);
+	}
+
+	public List<LirInstruction> getCode() {
+		return code;
+	}
+
+	public int getRegisterCount() {
+		return references.size();
+	}
+
+	public boolean isReference(int register) {
+		return references.get(register);
+	}
+
+	private static boolean isBranch(OpCode opCode) {
+		return opCode == GOTO || opCode == IF_TRUE || opCode == IF_FALSE;
+	}
+
+	private void translate(Instruction[] instructions) {
+		var position = 0;
+		while (position < instructions.length) {
+			if (targets.contains(position) && stackTypes.get(position) != null) {
+				if (position > 0 && fallsThrough(instructions, position - 1)) {
+					moveToEntry(position);
+				}
+				emit(LirOp.LABEL, -1, new int[0], null, position);
+				stack = new LinkedList<>();
+				for (var register : entryStack(position)) {
+					stack.add(register);
+				}
+			}
+			if (stackTypes.get(position) == null) {
+				position++; // unreachable
+			} else {
+				position = translate(instructions, position);
+			}
+		}
+	}
+
+	// The interpreter state holds this, the parameters, the locals and then the evaluation stack
+	// from the top, one slot each.
+	private void emitOsrEntries(Instruction[] instructions) {
+		var headers = new TreeSet<Integer>();
+		for (int position = 0; position < instructions.length; position++) {
+			var instruction = instructions[position];
+			if (isBranch(instruction.getOpCode()) && (int) instruction.getOperand() < 0
+					&& stackTypes.get(position) != null) {
+				headers.add(position + 1 + (int) instruction.getOperand());
+			}
+		}
+		for (var header : headers) {
+			var entry = entryStack(header);
+			var values = Arrays.copyOf(variables, variables.length + entry.length);
+			System.arraycopy(entry, 0, values, variables.length, entry.length);
+			var slots = new int[values.length];
+			for (int slot = 0; slot < slots.length; slot++) {
+				slots[slot] = slot;
+			}
+			emit(LirOp.OSR_ENTRY, -1, values, slots, header);
+			emit(LirOp.JUMP, -1, new int[0], null, header);
+		}
+	}
+
+	private boolean fallsThrough(Instruction[] instructions, int position) {
+		var opCode = instructions[position].getOpCode();
+		return stackTypes.get(position) != null && opCode != GOTO && opCode != RETURN;
+	}
+
+	// Returns the position of the next instruction to translate.
+	private int translate(Instruction[] instructions, int position) {
+		var instruction = instructions[position];
+		var operand = instruction.getOperand();
+		switch (instruction.getOpCode()) {
+		case LDC:
+			var constant = operand instanceof Boolean ? ((boolean) operand ? 1L : 0L) : (long) (int) operand;
+			push(emitValue(LirOp.CONST, false, new int[0], constant));
+			break;
+		case ACONST_NULL:
+			push(emitValue(LirOp.CONST, true, new int[0], Heap.NULL_POINTER));
+			break;
+		case IADD:
+			emitBinary(LirOp.ADD);
+			break;
+		case ISUB:
+			emitBinary(LirOp.SUB);
+			break;
+		case IMUL:
+			emitBinary(LirOp.MUL);
+			break;
+		case IDIV:
+			emitBinary(LirOp.DIV);
+			break;
+		case IREM:
+			emitBinary(LirOp.REM);
+			break;
+		case INEG:
+			push(emitValue(LirOp.NEG, false, new int[] { pop() }, null));
+			break;
+		case BNEG:
+			push(emitValue(LirOp.NOT, false, new int[] { pop() }, null));
+			break;
+		case LOAD:
+			push(variables[(int) operand]);
+			break;
+		case STORE:
+			var variable = variables[(int) operand];
+			var value = pop();
+			detach(variable);
+			emit(LirOp.MOVE, variable, new int[] { value }, null, -1);
+			break;
+		case GETFIELD:
+			var field = (FieldDescriptor) operand;
+			push(emitValue(LirOp.GETFIELD, StackTypes.isReference(field.getType()), new int[] { pop() }, field));
+			break;
+		case PUTFIELD:
+			value = pop();
+			emit(LirOp.PUTFIELD, -1, new int[] { pop(), value }, operand, -1);
+			break;
+		case ARRAYLENGTH:
+			push(emitValue(LirOp.ARRAYLENGTH, false, new int[] { pop() }, null));
+			break;
+		case ALOAD:
+			var arrayType = (ArrayDescriptor) stackTypes.get(position).get(1);
+			var index = pop();
+			var array = pop();
+			push(emitValue(LirOp.ALOAD, StackTypes.isReference(arrayType.getElementType()), new int[] { array, index },
+					arrayType));
+			break;
+		case ASTORE:
+			arrayType = (ArrayDescriptor) stackTypes.get(position).get(2);
+			value = pop();
+			index = pop();
+			array = pop();
+			emit(LirOp.ASTORE, -1, new int[] { array, index, value }, arrayType, -1);
+			break;
+		case INVOKEVIRTUAL:
+			var target = (MethodDescriptor) operand;
+			var arguments = new int[target.getParameterTypes().length + 1];
+			for (int argument = arguments.length - 1; argument >= 0; argument--) {
+				arguments[argument] = pop();
+			}
+			var returnType = target.getReturnType();
+			if (returnType != null) {
+				push(emitValue(LirOp.CALL, StackTypes.isReference(returnType), arguments, target));
+			} else {
+				emit(LirOp.CALL, -1, arguments, target, -1);
+			}
+			break;
+		case CMPEQ:
+		case CMPNE:
+		case ICMPLT:
+		case ICMPLE:
+		case ICMPGT:
+		case ICMPGE:
+			var condition = condition(instruction.getOpCode());
+			var right = pop();
+			var left = pop();
+			var next = position + 1 < instructions.length ? instructions[position + 1] : null;
+			if (next != null && (next.getOpCode() == IF_TRUE || next.getOpCode() == IF_FALSE)
+					&& !targets.contains(position + 1)) {
+				// compare and branch without materializing the boolean
+				var branchTarget = position + 2 + (int) next.getOperand();
+				moveToEntry(branchTarget);
+				emit(LirOp.BRANCH, -1, new int[] { left, right },
+						next.getOpCode() == IF_TRUE ? condition : condition.negate(), branchTarget);
+				return position + 2;
+			}
+			push(emitValue(LirOp.COMPARE, false, new int[] { left, right }, condition));
+			break;
+		case IF_TRUE:
+		case IF_FALSE:
+			var flag = pop();
+			var branchTarget = position + 1 + (int) operand;
+			moveToEntry(branchTarget);
+			code.add(new LirInstruction(LirOp.BRANCH, -1, new int[] { flag }, instruction.getOpCode() == IF_TRUE
+					? LirInstruction.Condition.NOT_EQUAL : LirInstruction.Condition.EQUAL, branchTarget, 0L));
+			break;
+		case GOTO:
+			branchTarget = position + 1 + (int) operand;
+			moveToEntry(branchTarget);
+			emit(LirOp.JUMP, -1, new int[0], null, branchTarget);
+			break;
+		case RETURN:
+			if (method.getReturnType() != null) {
+				emit(LirOp.RETURN, -1, new int[] { pop() }, null, -1);
+			} else {
+				emit(LirOp.RETURN, -1, new int[0], null, -1);
+			}
+			break;
+		default:
+			throw new AssertionError("Unsupported instruction in JIT compiler");
+		}
+		return position + 1;
+	}
+
+	private static LirInstruction.Condition condition(OpCode opCode) {
+		switch (opCode) {
+		case CMPEQ:
+			return LirInstruction.Condition.EQUAL;
+		case CMPNE:
+			return LirInstruction.Condition.NOT_EQUAL;
+		case ICMPLT:
+			return LirInstruction.Condition.LESS;
+		case ICMPLE:
+			return LirInstruction.Condition.LESS_EQUAL;
+		case ICMPGT:
+			return LirInstruction.Condition.GREATER;
+		default:
+			return LirInstruction.Condition.GREATER_EQUAL;
+		}
+	}
+
+	private void emitBinary(LirOp op) {
+		var right = pop();
+		var left = pop();
+		push(emitValue(op, false, new int[] { left, right }, null));
+	}
+
+	private int emitValue(LirOp op, boolean reference, int[] operands, Object operand) {
+		var result = newRegister(reference);
+		emit(op, result, operands, operand, -1);
+		return result;
+	}
+
+	private void emit(LirOp op, int result, int[] operands, Object operand, int target) {
+		code.add(new LirInstruction(op, result, operands, operand, target));
+	}
+
+	// Copies the values that the branch target expects on the evaluation stack. Values keep their
+	// depth, so they never move between the fixed registers.
+	private void moveToEntry(int position) {
+		var entry = entryStack(position);
+		for (int index = 0; index < entry.length; index++) {
+			if (stack.get(index) != entry[index]) {
+				emit(LirOp.MOVE, entry[index], new int[] { stack.get(index) }, null, -1);
+			}
+		}
+	}
+
+	private int[] entryStack(int position) {
+		return entryStacks.computeIfAbsent(position, key -> {
+			var types = stackTypes.get(position);
+			var registers = new int[types.size()];
+			for (int index = 0; index < registers.length; index++) {
+				registers[index] = newRegister(StackTypes.isReference(types.get(index)));
+			}
+			return registers;
+		});
+	}
+
+	// Values of a variable that is about to be overwritten are copied off the evaluation stack.
+	private void detach(int variable) {
+		var copy = -1;
+		for (int index = 0; index < stack.size(); index++) {
+			if (stack.get(index) == variable) {
+				if (copy < 0) {
+					copy = emitValue(LirOp.MOVE, references.get(variable), new int[] { variable }, null);
+				}
+				stack.set(index, copy);
+			}
+		}
+	}
+
+	private int newRegister(boolean reference) {
+		references.add(reference);
+		return references.size() - 1;
+	}
+
+	private void push(int register) {
+		stack.push(register);
+	}
+
+	private int pop() {
+		return stack.pop();
+	}
+}
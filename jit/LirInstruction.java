@@ -0,0 +1,139 @@
+package jit;
+
+import java.util.Arrays;
+
+// One low-level instruction on virtual registers. The operand holds the constant, the field,
+// array or method descriptor, the branch condition, or the state slots of an OSR entry; the
+// target is a label number, or the loop header position of an OSR entry. An immediate, if any,
+// stands for the last operand of arithmetic, COMPARE and BRANCH.
+final class LirInstruction {
+	enum Condition {
+		EQUAL, NOT_EQUAL, LESS, LESS_EQUAL, GREATER, GREATER_EQUAL;
+
+		public Condition negate() {
+			switch (this) {
+			case EQUAL:
+				return NOT_EQUAL;
+			case NOT_EQUAL:
+				return EQUAL;
+			case LESS:
+				return GREATER_EQUAL;
+			case LESS_EQUAL:
+				return GREATER;
+			case GREATER:
+				return LESS_EQUAL;
+			default:
+				return LESS;
+			}
+		}
+
+		// Condition with the operands swapped.
+		public Condition reverse() {
+			switch (this) {
+			case LESS:
+				return GREATER;
+			case LESS_EQUAL:
+				return GREATER_EQUAL;
+			case GREATER:
+				return LESS;
+			case GREATER_EQUAL:
+				return LESS_EQUAL;
+			default:
+				return this;
+			}
+		}
+	}
+
+	private static final int[] NONE = new int[0];
+
+	private final LirOp op;
+	private final int result;
+	private final int[] operands;
+	private final Object operand;
+	private final int target;
+	private final Long immediate;
+
+	public LirInstruction(LirOp op, int result, int[] operands, Object operand, int target) {
+		this(op, result, operands, operand, target, null);
+	}
+
+	public LirInstruction(LirOp op, int result, int[] operands, Object operand, int target, Long immediate) {
+		this.op = op;
+		this.result = result;
+		this.operands = operands;
+		this.operand = operand;
+		this.target = target;
+		this.immediate = immediate;
+	}
+
+	public LirOp getOp() {
+		return op;
+	}
+
+	// Virtual register defined by the instruction, or -1.
+	public int getResult() {
+		return result;
+	}
+
+	public int[] getOperands() {
+		return operands;
+	}
+
+	public Object getOperand() {
+		return operand;
+	}
+
+	public int getTarget() {
+		return target;
+	}
+
+	// Null if all operands are in registers.
+	public Long getImmediate() {
+		return immediate;
+	}
+
+	public int[] getUses() {
+		return isEntry() ? NONE : operands;
+	}
+
+	public int[] getDefinitions() {
+		if (isEntry()) {
+			return operands;
+		}
+		return result >= 0 ? new int[] { result } : NONE;
+	}
+
+	public boolean isEntry() {
+		return op == LirOp.ENTRY || op == LirOp.OSR_ENTRY;
+	}
+
+	public boolean isUnconditionalBranch() {
+		return op == LirOp.JUMP || op == LirOp.RETURN;
+	}
+
+	@Override
+	public String toString() {
+		var builder = new StringBuilder();
+		if (result >= 0) {
+			builder.append('v').append(result).append(" = ");
+		}
+		builder.append(op);
+		for (var value : operands) {
+			builder.append(" v").append(value);
+		}
+		if (immediate != null) {
+			builder.append(" #").append(immediate);
+		}
+		if (operand instanceof int[]) {
+			builder.append(' ').append(Arrays.toString((int[]) operand));
+		} else if (operand != null) {
+			builder.append(' ').append(operand);
+		}
+		if (op == LirOp.BRANCH || op == LirOp.JUMP || op == LirOp.LABEL) {
+			builder.append(" L").append(target);
+		} else if (op == LirOp.OSR_ENTRY) {
+			builder.append(" @").append(target);
+		}
+		return builder.toString();
+	}
+}
@@ -0,0 +1,15 @@
+package jit;
+
+// Operations of the low-level code that JITCompiler allocates registers for. Ints are 32-bit
+// values in 64-bit virtual registers whose upper half is undefined, booleans are 0 or 1 and
+// references are heap addresses.
+enum LirOp {
+	ENTRY, // defines this and the parameters
+	CONST, MOVE, ADD, SUB, MUL, DIV, REM, NEG, NOT,
+	COMPARE, // boolean result of the condition
+	GETFIELD, PUTFIELD, ARRAYLENGTH, ALOAD, ASTORE,
+	CALL, BRANCH, // on the condition between two operands, or an operand and an immediate
+	JUMP, LABEL, RETURN,
+	OSR_ENTRY, // defines its operands from the interpreter state and continues at a loop header
+	PHI // one operand per predecessor, only in SSA form
+}
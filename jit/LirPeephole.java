@@ -0,0 +1,187 @@
+package jit;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Local improvements of the low-level code before register allocation. A result that is only
+// moved into another register is computed there directly, copies of registers that never change
+// are replaced by the original, constants that fit 32 bits are folded into the instructions that
+// take an immediate, and side-effect free instructions whose results are never used are removed,
+// until nothing changes. Divisor immediates are never 0 or -1.
+final class LirPeephole {
+	private static final Set<LirOp> PURE = Set.of(LirOp.CONST, LirOp.MOVE, LirOp.ADD, LirOp.SUB, LirOp.MUL,
+			LirOp.NEG, LirOp.NOT, LirOp.COMPARE);
+	private static final Set<LirOp> FOLDABLE = Set.of(LirOp.ADD, LirOp.SUB, LirOp.MUL, LirOp.DIV, LirOp.REM,
+			LirOp.COMPARE, LirOp.BRANCH);
+
+	private final List<LirInstruction> code;
+	private final int[] uses;
+	private final int[] definitions;
+
+	public LirPeephole(List<LirInstruction> code, int registerCount) {
+		this.code = new ArrayList<>(code);
+		uses = new int[registerCount];
+		definitions = new int[registerCount];
+		var changed = true;
+		while (changed) {
+			changed = coalesce();
+			changed |= propagateCopies();
+			changed |= foldConstants();
+			changed |= removeDead();
+		}
+	}
+
+	public List<LirInstruction> getCode() {
+		return code;
+	}
+
+	private void count() {
+		for (int value = 0; value < uses.length; value++) {
+			uses[value] = 0;
+			definitions[value] = 0;
+		}
+		for (var instruction : code) {
+			for (var value : instruction.getUses()) {
+				uses[value]++;
+			}
+			for (var value : instruction.getDefinitions()) {
+				definitions[value]++;
+			}
+		}
+	}
+
+	// t = op ...; x = MOVE t becomes x = op ... if t is used nowhere else.
+	private boolean coalesce() {
+		count();
+		var changed = false;
+		for (int index = 0; index + 1 < code.size(); index++) {
+			var instruction = code.get(index);
+			var next = code.get(index + 1);
+			var result = instruction.getResult();
+			if (next.getOp() == LirOp.MOVE && result >= 0 && next.getOperands()[0] == result && uses[result] == 1
+					&& definitions[result] == 1) {
+				code.set(index, new LirInstruction(instruction.getOp(), next.getResult(), instruction.getOperands(),
+						instruction.getOperand(), instruction.getTarget(), instruction.getImmediate()));
+				code.remove(index + 1);
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	// t = MOVE s, where neither is defined anywhere else, lets the uses of t read s.
+	private boolean propagateCopies() {
+		count();
+		var copies = new HashMap<Integer, Integer>();
+		for (var instruction : code) {
+			var result = instruction.getResult();
+			if (instruction.getOp() == LirOp.MOVE && definitions[result] == 1) {
+				var source = instruction.getOperands()[0];
+				if (definitions[source] == 1) {
+					copies.put(result, source);
+				}
+			}
+		}
+		if (copies.isEmpty()) {
+			return false;
+		}
+		var changed = false;
+		for (int index = 0; index < code.size(); index++) {
+			var instruction = code.get(index);
+			var operands = instruction.getUses().clone();
+			var replaced = false;
+			for (int operand = 0; operand < operands.length; operand++) {
+				var source = copies.get(operands[operand]); // copies of copies are followed in the next round
+				if (source != null) {
+					operands[operand] = source;
+					replaced = true;
+				}
+			}
+			if (replaced) {
+				code.set(index, new LirInstruction(instruction.getOp(), instruction.getResult(), operands,
+						instruction.getOperand(), instruction.getTarget(), instruction.getImmediate()));
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	// Only constants of registers without other definitions are folded, so the constant holds
+	// wherever the register is used.
+	private boolean foldConstants() {
+		count();
+		var constants = new HashMap<Integer, Long>();
+		for (var instruction : code) {
+			var result = instruction.getResult();
+			if (instruction.getOp() == LirOp.CONST && definitions[result] == 1) {
+				var value = (long) instruction.getOperand();
+				if (value == (int) value) {
+					constants.put(result, value);
+				}
+			}
+		}
+		var changed = false;
+		for (int index = 0; index < code.size(); index++) {
+			var instruction = code.get(index);
+			var operands = instruction.getOperands();
+			if (!FOLDABLE.contains(instruction.getOp()) || operands.length != 2) {
+				continue;
+			}
+			var folded = fold(instruction, constants);
+			if (folded != null) {
+				code.set(index, folded);
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	private static LirInstruction fold(LirInstruction instruction, Map<Integer, Long> constants) {
+		var op = instruction.getOp();
+		var left = instruction.getOperands()[0];
+		var right = instruction.getOperands()[1];
+		var operand = instruction.getOperand();
+		var result = instruction.getResult();
+		Long immediate;
+		var ordered = op == LirOp.SUB || op == LirOp.DIV || op == LirOp.REM;
+		if (constants.containsKey(right)) {
+			immediate = constants.get(right);
+			if (immediate == 0 && (op == LirOp.DIV || op == LirOp.REM)) {
+				return null; // throws
+			}
+			if (op == LirOp.REM && (immediate == 1 || immediate == -1)) {
+				return new LirInstruction(LirOp.CONST, result, new int[0], 0L, -1);
+			}
+			if (op == LirOp.DIV && immediate == -1) {
+				return new LirInstruction(LirOp.NEG, result, new int[] { left }, null, -1);
+			}
+		} else if (constants.containsKey(left) && !ordered) {
+			immediate = constants.get(left);
+			left = right;
+			if (operand instanceof LirInstruction.Condition) {
+				operand = ((LirInstruction.Condition) operand).reverse();
+			}
+		} else {
+			return null;
+		}
+		if ((op == LirOp.ADD || op == LirOp.SUB) && immediate == 0
+				|| (op == LirOp.MUL || op == LirOp.DIV) && immediate == 1) {
+			return new LirInstruction(LirOp.MOVE, result, new int[] { left }, null, -1);
+		}
+		return new LirInstruction(op, result, new int[] { left }, operand, instruction.getTarget(), immediate);
+	}
+
+	private boolean removeDead() {
+		count();
+		return code.removeIf(instruction -> {
+			var result = instruction.getResult();
+			if (instruction.getOp() == LirOp.MOVE && instruction.getOperands()[0] == result) {
+				return true;
+			}
+			return PURE.contains(instruction.getOp()) && uses[result] == 0;
+		});
+	}
+}
@@ -0,0 +1,563 @@
+package jit;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Static single assignment form of the low-level code on a control flow graph. Every value has a
+// single definition; PHI instructions at the start of a block select the operand of the
+// predecessor that control came from. Each block ends with a BRANCH, JUMP or RETURN whose targets
+// are its successors: a BRANCH continues at the first one if the condition holds and at the
+// second otherwise. Blocks are numbered apart from the label numbers of the low-level code.
+//
+// The entry block and the OSR entries are the roots of the dominator tree, below a virtual root,
+// so the entry does not dominate the loops that on-stack replacement enters.
+final class SsaGraph {
+	static final class Block {
+		private final int id;
+		private final List<LirInstruction> phis = new ArrayList<>();
+		private final List<LirInstruction> instructions = new ArrayList<>();
+		private final List<Block> predecessors = new ArrayList<>();
+		private final List<Block> successors = new ArrayList<>();
+		private final List<Block> dominated = new ArrayList<>();
+		private Block dominator;
+		private int order; // in reverse postorder
+		private int preorder; // in the dominator tree
+		private int postorder;
+		private int loopDepth;
+
+		public Block(int id) {
+			this.id = id;
+		}
+
+		public int getId() {
+			return id;
+		}
+
+		public List<LirInstruction> getPhis() {
+			return phis;
+		}
+
+		// Ends with the branch.
+		public List<LirInstruction> getInstructions() {
+			return instructions;
+		}
+
+		public LirInstruction getTerminator() {
+			return instructions.get(instructions.size() - 1);
+		}
+
+		public List<Block> getPredecessors() {
+			return predecessors;
+		}
+
+		public List<Block> getSuccessors() {
+			return successors;
+		}
+
+		// Null for the roots and the blocks that only the virtual root dominates.
+		public Block getDominator() {
+			return dominator;
+		}
+
+		public List<Block> getDominated() {
+			return dominated;
+		}
+
+		public int getLoopDepth() {
+			return loopDepth;
+		}
+
+		// The entry block or an OSR entry.
+		public boolean isRoot() {
+			return !instructions.isEmpty() && instructions.get(0).isEntry();
+		}
+	}
+
+	private final List<Block> blocks = new ArrayList<>();
+	private final List<Block> order = new ArrayList<>();
+	private final Map<Block, Set<Block>> loops = new LinkedHashMap<>();
+	private final List<Boolean> references = new ArrayList<>();
+	private int nextBlock;
+
+	public SsaGraph(LirBuilder builder) {
+		var code = builder.getCode();
+		var labels = split(code);
+		connect(labels);
+		analyze();
+		construct(builder);
+	}
+
+	// Blocks in the order of the code.
+	public List<Block> getBlocks() {
+		return blocks;
+	}
+
+	public Block getEntry() {
+		return blocks.get(0);
+	}
+
+	// Blocks in reverse postorder, which visits dominators before the blocks they dominate.
+	public List<Block> getOrder() {
+		return order;
+	}
+
+	// Blocks of the natural loops by their header, outer loops first.
+	public Map<Block, Set<Block>> getLoops() {
+		return loops;
+	}
+
+	public int getValueCount() {
+		return references.size();
+	}
+
+	public boolean isReference(int value) {
+		return references.get(value);
+	}
+
+	public int newValue(boolean reference) {
+		references.add(reference);
+		return references.size() - 1;
+	}
+
+	// A new block, placed in the code before the given one.
+	public Block addBlock(Block before) {
+		var block = new Block(nextBlock++);
+		blocks.add(blocks.indexOf(before), block);
+		return block;
+	}
+
+	public boolean dominates(Block dominator, Block block) {
+		return dominator.preorder <= block.preorder && block.postorder <= dominator.postorder;
+	}
+
+	// Removes one edge and the PHI operands that belong to it.
+	public void removeEdge(Block from, Block to) {
+		var index = to.predecessors.indexOf(from);
+		to.predecessors.remove(index);
+		for (int phi = 0; phi < to.phis.size(); phi++) {
+			var instruction = to.phis.get(phi);
+			var operands = new int[instruction.getOperands().length - 1];
+			for (int operand = 0, next = 0; operand < instruction.getOperands().length; operand++) {
+				if (operand != index) {
+					operands[next++] = instruction.getOperands()[operand];
+				}
+			}
+			to.phis.set(phi, new LirInstruction(LirOp.PHI, instruction.getResult(), operands, null, -1));
+		}
+		from.successors.remove(to);
+	}
+
+	// Removes the blocks that no root reaches and recomputes the order, the dominator tree and
+	// the loops. Called whenever the passes change the control flow.
+	public void analyze() {
+		var visited = new HashSet<Block>();
+		var postorder = new ArrayList<Block>();
+		for (var block : blocks) {
+			if (block.isRoot() && visited.add(block)) {
+				visit(block, visited, postorder);
+			}
+		}
+		for (var block : blocks) {
+			if (!visited.contains(block)) {
+				for (var successor : new ArrayList<>(block.successors)) {
+					removeEdge(block, successor);
+				}
+			}
+		}
+		blocks.removeIf(block -> !visited.contains(block));
+		order.clear();
+		for (int index = postorder.size() - 1; index >= 0; index--) {
+			var block = postorder.get(index);
+			block.order = order.size();
+			order.add(block);
+		}
+		computeDominators();
+		findLoops();
+	}
+
+	// Depth-first without recursion, since the code may be long.
+	private static void visit(Block root, Set<Block> visited, List<Block> postorder) {
+		var stack = new ArrayDeque<Block>();
+		var next = new ArrayDeque<Integer>();
+		stack.push(root);
+		next.push(0);
+		while (!stack.isEmpty()) {
+			var block = stack.peek();
+			var index = next.pop();
+			if (index < block.successors.size()) {
+				next.push(index + 1);
+				var successor = block.successors.get(index);
+				if (visited.add(successor)) {
+					stack.push(successor);
+					next.push(0);
+				}
+			} else {
+				stack.pop();
+				postorder.add(block);
+			}
+		}
+	}
+
+	// Cooper, Harvey and Kennedy: iterates over the reverse postorder until the immediate
+	// dominators settle. The virtual root is the sentinel, which comes before every block.
+	private void computeDominators() {
+		var root = new Block(-1);
+		root.order = -1;
+		root.dominator = root;
+		for (var block : order) {
+			block.dominator = block.isRoot() ? root : null;
+			block.dominated.clear();
+		}
+		var changed = true;
+		while (changed) {
+			changed = false;
+			for (var block : order) {
+				if (block.isRoot()) {
+					continue;
+				}
+				Block dominator = null;
+				for (var predecessor : block.predecessors) {
+					if (predecessor.dominator != null) {
+						dominator = dominator == null ? predecessor : intersect(predecessor, dominator);
+					}
+				}
+				if (dominator != block.dominator) {
+					block.dominator = dominator;
+					changed = true;
+				}
+			}
+		}
+		var roots = new ArrayList<Block>();
+		for (var block : order) {
+			if (block.dominator == root) {
+				block.dominator = null;
+				roots.add(block);
+			} else {
+				block.dominator.dominated.add(block);
+			}
+		}
+		var counter = new int[1];
+		for (var block : roots) {
+			number(block, counter);
+		}
+	}
+
+	private static Block intersect(Block first, Block second) {
+		while (first != second) {
+			while (first.order > second.order) {
+				first = first.dominator;
+			}
+			while (second.order > first.order) {
+				second = second.dominator;
+			}
+		}
+		return first;
+	}
+
+	private static void number(Block root, int[] counter) {
+		var stack = new ArrayDeque<Block>();
+		var next = new ArrayDeque<Integer>();
+		root.preorder = counter[0]++;
+		stack.push(root);
+		next.push(0);
+		while (!stack.isEmpty()) {
+			var block = stack.peek();
+			var index = next.pop();
+			if (index < block.dominated.size()) {
+				next.push(index + 1);
+				var child = block.dominated.get(index);
+				child.preorder = counter[0]++;
+				stack.push(child);
+				next.push(0);
+			} else {
+				stack.pop();
+				block.postorder = counter[0]++;
+			}
+		}
+	}
+
+	// A back edge goes to a block that dominates its source; the loop is everything that reaches
+	// the source without passing the header. Loops with the same header are merged.
+	private void findLoops() {
+		loops.clear();
+		for (var block : order) {
+			block.loopDepth = 0;
+			for (var predecessor : block.predecessors) {
+				if (dominates(block, predecessor)) {
+					var body = loops.computeIfAbsent(block, key -> new HashSet<>(Set.of(key)));
+					var work = new ArrayDeque<Block>();
+					if (body.add(predecessor)) {
+						work.push(predecessor);
+					}
+					while (!work.isEmpty()) {
+						for (var source : work.pop().predecessors) {
+							if (body.add(source)) {
+								work.push(source);
+							}
+						}
+					}
+				}
+			}
+		}
+		for (var body : loops.values()) {
+			for (var block : body) {
+				block.loopDepth++;
+			}
+		}
+	}
+
+	// Cuts the code into blocks and returns the block of each label.
+	private Map<Integer, Block> split(List<LirInstruction> code) {
+		var labels = new HashMap<Integer, Block>();
+		Block current = null;
+		for (var instruction : code) {
+			var op = instruction.getOp();
+			if (current == null || op == LirOp.LABEL || op == LirOp.OSR_ENTRY
+					|| !current.instructions.isEmpty() && isTerminator(current.getTerminator())) {
+				current = new Block(nextBlock++);
+				blocks.add(current);
+			}
+			if (op == LirOp.LABEL) {
+				labels.put(instruction.getTarget(), current);
+			} else {
+				current.instructions.add(instruction);
+			}
+		}
+		return labels;
+	}
+
+	private static boolean isTerminator(LirInstruction instruction) {
+		var op = instruction.getOp();
+		return op == LirOp.BRANCH || op == LirOp.JUMP || op == LirOp.RETURN;
+	}
+
+	// Branch targets become successors; blocks that fall through end with a JUMP.
+	private void connect(Map<Integer, Block> labels) {
+		var jump = new LirInstruction(LirOp.JUMP, -1, new int[0], null, -1);
+		for (int index = 0; index < blocks.size(); index++) {
+			var block = blocks.get(index);
+			var next = index + 1 < blocks.size() ? blocks.get(index + 1) : null;
+			var last = block.instructions.isEmpty() ? null : block.getTerminator();
+			if (last == null || !isTerminator(last)) {
+				if (next == null) {
+					throw new AssertionError("Code falls off the end");
+				}
+				block.instructions.add(jump);
+				addEdge(block, next);
+			} else if (last.getOp() == LirOp.JUMP) {
+				block.instructions.set(block.instructions.size() - 1, jump);
+				addEdge(block, labels.get(last.getTarget()));
+			} else if (last.getOp() == LirOp.BRANCH) {
+				var target = labels.get(last.getTarget());
+				if (target == next) {
+					block.instructions.set(block.instructions.size() - 1, jump);
+				} else {
+					block.instructions.set(block.instructions.size() - 1, new LirInstruction(LirOp.BRANCH, -1,
+							last.getOperands(), last.getOperand(), -1, last.getImmediate()));
+					addEdge(block, target);
+				}
+				addEdge(block, next);
+			}
+		}
+	}
+
+	private static void addEdge(Block from, Block to) {
+		from.successors.add(to);
+		to.predecessors.add(from);
+	}
+
+	// Places PHIs for each register at the iterated dominance frontier of its definitions where
+	// it is live, then renames the registers to values along the dominator tree.
+	private void construct(LirBuilder builder) {
+		var registers = builder.getRegisterCount();
+		var liveIn = liveIn(registers);
+		var frontiers = new HashMap<Block, Set<Block>>();
+		for (var block : order) {
+			if (block.predecessors.size() < 2) {
+				continue;
+			}
+			for (var predecessor : block.predecessors) {
+				for (var runner = predecessor; runner != null && runner != block.dominator; runner = runner.dominator) {
+					frontiers.computeIfAbsent(runner, key -> new HashSet<>()).add(block);
+				}
+			}
+		}
+		var definitions = new HashMap<Integer, List<Block>>();
+		for (var block : order) {
+			for (var instruction : block.instructions) {
+				for (var register : instruction.getDefinitions()) {
+					definitions.computeIfAbsent(register, key -> new ArrayList<>()).add(block);
+				}
+			}
+		}
+		var variables = new HashMap<LirInstruction, Integer>();
+		for (var definition : definitions.entrySet()) {
+			var register = definition.getKey();
+			var work = new ArrayDeque<Block>(definition.getValue());
+			var placed = new HashSet<Block>();
+			while (!work.isEmpty()) {
+				for (var block : frontiers.getOrDefault(work.pop(), Set.of())) {
+					if (liveIn.get(block).get(register) && placed.add(block)) {
+						var phi = new LirInstruction(LirOp.PHI, -1, new int[block.predecessors.size()], null, -1);
+						block.phis.add(phi);
+						variables.put(phi, register);
+						work.push(block);
+					}
+				}
+			}
+		}
+		var stacks = new HashMap<Integer, ArrayDeque<Integer>>();
+		for (var block : order) {
+			if (block.dominator == null) {
+				rename(block, builder, variables, stacks);
+			}
+		}
+	}
+
+	private Map<Block, BitSet> liveIn(int registers) {
+		var uses = new HashMap<Block, BitSet>();
+		var definitions = new HashMap<Block, BitSet>();
+		var liveIn = new HashMap<Block, BitSet>();
+		for (var block : order) {
+			var used = new BitSet(registers);
+			var defined = new BitSet(registers);
+			for (var instruction : block.instructions) {
+				for (var register : instruction.getUses()) {
+					if (!defined.get(register)) {
+						used.set(register);
+					}
+				}
+				for (var register : instruction.getDefinitions()) {
+					defined.set(register);
+				}
+			}
+			uses.put(block, used);
+			definitions.put(block, defined);
+			liveIn.put(block, new BitSet(registers));
+		}
+		var changed = true;
+		while (changed) {
+			changed = false;
+			for (int index = order.size() - 1; index >= 0; index--) {
+				var block = order.get(index);
+				var live = new BitSet(registers);
+				for (var successor : block.successors) {
+					live.or(liveIn.get(successor));
+				}
+				live.andNot(definitions.get(block));
+				live.or(uses.get(block));
+				if (!live.equals(liveIn.get(block))) {
+					liveIn.put(block, live);
+					changed = true;
+				}
+			}
+		}
+		return liveIn;
+	}
+
+	// Recursive along the dominator tree, whose depth grows with the nesting of the code.
+	private void rename(Block block, LirBuilder builder, Map<LirInstruction, Integer> variables,
+			Map<Integer, ArrayDeque<Integer>> stacks) {
+		var pushed = new ArrayList<Integer>();
+		for (int index = 0; index < block.phis.size(); index++) {
+			var phi = block.phis.get(index);
+			var register = variables.get(phi);
+			var value = define(register, builder, stacks, pushed);
+			var renamed = new LirInstruction(LirOp.PHI, value, phi.getOperands(), null, -1);
+			variables.put(renamed, register);
+			block.phis.set(index, renamed);
+		}
+		for (int index = 0; index < block.instructions.size(); index++) {
+			var instruction = block.instructions.get(index);
+			var operands = instruction.getOperands().clone();
+			var result = instruction.getResult();
+			if (instruction.isEntry()) {
+				for (int operand = 0; operand < operands.length; operand++) {
+					operands[operand] = define(operands[operand], builder, stacks, pushed);
+				}
+			} else {
+				for (int operand = 0; operand < operands.length; operand++) {
+					operands[operand] = current(operands[operand], stacks);
+				}
+				if (result >= 0) {
+					result = define(result, builder, stacks, pushed);
+				}
+			}
+			block.instructions.set(index, new LirInstruction(instruction.getOp(), result, operands,
+					instruction.getOperand(), instruction.getTarget(), instruction.getImmediate()));
+		}
+		for (var successor : block.successors) {
+			for (int index = 0; index < successor.predecessors.size(); index++) {
+				if (successor.predecessors.get(index) == block) {
+					for (var phi : successor.phis) {
+						phi.getOperands()[index] = current(variables.get(phi), stacks);
+					}
+				}
+			}
+		}
+		for (var child : block.dominated) {
+			rename(child, builder, variables, stacks);
+		}
+		for (var register : pushed) {
+			stacks.get(register).pop();
+		}
+	}
+
+	private int define(int register, LirBuilder builder, Map<Integer, ArrayDeque<Integer>> stacks,
+			List<Integer> pushed) {
+		var value = newValue(builder.isReference(register));
+		stacks.computeIfAbsent(register, key -> new ArrayDeque<>()).push(value);
+		pushed.add(register);
+		return value;
+	}
+
+	private static int current(int register, Map<Integer, ArrayDeque<Integer>> stacks) {
+		var stack = stacks.get(register);
+		if (stack == null || stack.isEmpty()) {
+			throw new AssertionError("Register v" + register + " used before its definition");
+		}
+		return stack.peek();
+	}
+
+	@Override
+	public String toString() {
+		var text = new StringBuilder();
+		for (var block : blocks) {
+			text.append('B').append(block.id).append(':');
+			if (!block.predecessors.isEmpty()) {
+				text.append(" <-");
+				for (var predecessor : block.predecessors) {
+					text.append(" B").append(predecessor.id);
+				}
+			}
+			if (block.loopDepth > 0) {
+				text.append(" (loop depth ").append(block.loopDepth).append(')');
+			}
+			text.append('\n');
+			for (var phi : block.phis) {
+				text.append("  ").append(phi).append('\n');
+			}
+			for (var instruction : block.instructions) {
+				text.append("  ");
+				if (isTerminator(instruction) && instruction.getOp() != LirOp.RETURN) {
+					text.append(instruction.toString().replace(" L-1", ""));
+					text.append(" ->");
+					for (var successor : block.successors) {
+						text.append(" B").append(successor.id);
+					}
+				} else {
+					text.append(instruction);
+				}
+				text.append('\n');
+			}
+		}
+		return text.toString();
+	}
+}
@@ -0,0 +1,307 @@
+package jit;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Translates the SSA form back into low-level code, leaving the graph as it is. PHIs are isolated
+// first: every operand is copied into a new value at the end of its predecessor, and the result
+// from a new value at the start of the block, so a PHI and its operands can share one register.
+// Then copies are coalesced where their values do not interfere: two values interfere if one is
+// live where the other is defined and they may differ. Each class of coalesced values becomes
+// one virtual register, and copies within a class disappear.
+final class SsaLowering {
+	private final SsaGraph graph;
+	private final List<SsaGraph.Block> blocks;
+	private final Map<SsaGraph.Block, List<LirInstruction>> code = new HashMap<>();
+	private final List<Boolean> references = new ArrayList<>();
+	// The value that a copy holds, by its definition.
+	private final List<Integer> origins = new ArrayList<>();
+	private final List<SsaGraph.Block> definitionBlocks = new ArrayList<>();
+	private final List<Integer> definitionIndices = new ArrayList<>(); // -1 for PHIs
+	private final Map<SsaGraph.Block, BitSet> liveOut = new HashMap<>();
+	private final Map<SsaGraph.Block, Map<Integer, Integer>> lastUses = new HashMap<>();
+	private final List<Integer> classes = new ArrayList<>(); // union-find parents
+	private final Map<Integer, List<Integer>> members = new HashMap<>();
+	private final List<LirInstruction> lowered = new ArrayList<>();
+	private final List<Boolean> registers = new ArrayList<>();
+
+	public SsaLowering(SsaGraph graph) {
+		this.graph = graph;
+		blocks = graph.getBlocks();
+		for (int value = 0; value < graph.getValueCount(); value++) {
+			newValue(graph.isReference(value));
+		}
+		for (var block : blocks) {
+			code.put(block, new ArrayList<>(block.getInstructions()));
+		}
+		var phis = isolate();
+		for (var block : blocks) {
+			locate(block, phis.get(block));
+		}
+		computeLiveness(phis);
+		for (var block : blocks) {
+			for (var phi : phis.get(block)) {
+				for (var operand : phi.getOperands()) {
+					union(phi.getResult(), operand);
+				}
+			}
+		}
+		coalesce();
+		emit();
+	}
+
+	public List<LirInstruction> getCode() {
+		return lowered;
+	}
+
+	public int getRegisterCount() {
+		return registers.size();
+	}
+
+	public boolean isReference(int register) {
+		return registers.get(register);
+	}
+
+	private int newValue(boolean reference) {
+		references.add(reference);
+		origins.add(references.size() - 1);
+		classes.add(references.size() - 1);
+		definitionBlocks.add(null);
+		definitionIndices.add(0);
+		return references.size() - 1;
+	}
+
+	// Returns the isolated PHIs of each block, whose operands are copies at the ends of the
+	// predecessors and whose result is copied at the start of the block.
+	private Map<SsaGraph.Block, List<LirInstruction>> isolate() {
+		var isolated = new HashMap<SsaGraph.Block, List<LirInstruction>>();
+		for (var block : blocks) {
+			var phis = new ArrayList<LirInstruction>();
+			var copies = new ArrayList<LirInstruction>();
+			for (var phi : block.getPhis()) {
+				var reference = references.get(phi.getResult());
+				var operands = new int[phi.getOperands().length];
+				for (int index = 0; index < operands.length; index++) {
+					operands[index] = newValue(reference);
+					var predecessor = code.get(block.getPredecessors().get(index));
+					predecessor.add(predecessor.size() - 1, copy(operands[index], phi.getOperands()[index]));
+				}
+				var result = newValue(reference);
+				phis.add(new LirInstruction(LirOp.PHI, result, operands, null, -1));
+				copies.add(copy(phi.getResult(), result));
+			}
+			code.get(block).addAll(0, copies);
+			isolated.put(block, phis);
+		}
+		return isolated;
+	}
+
+	private LirInstruction copy(int target, int source) {
+		origins.set(target, origins.get(source));
+		return new LirInstruction(LirOp.MOVE, target, new int[] { source }, null, -1);
+	}
+
+	private void locate(SsaGraph.Block block, List<LirInstruction> phis) {
+		for (var phi : phis) {
+			definitionBlocks.set(phi.getResult(), block);
+			definitionIndices.set(phi.getResult(), -1);
+		}
+		var instructions = code.get(block);
+		var uses = new HashMap<Integer, Integer>();
+		for (int index = 0; index < instructions.size(); index++) {
+			var instruction = instructions.get(index);
+			for (var value : instruction.getDefinitions()) {
+				definitionBlocks.set(value, block);
+				definitionIndices.set(value, index);
+			}
+			for (var value : instruction.getUses()) {
+				uses.put(value, index);
+			}
+		}
+		lastUses.put(block, uses);
+	}
+
+	// PHI operands are live out of their predecessor only; PHI results are defined at the start
+	// of their block.
+	private void computeLiveness(Map<SsaGraph.Block, List<LirInstruction>> phis) {
+		var uses = new HashMap<SsaGraph.Block, BitSet>();
+		var definitions = new HashMap<SsaGraph.Block, BitSet>();
+		var liveIn = new HashMap<SsaGraph.Block, BitSet>();
+		for (var block : blocks) {
+			var used = new BitSet();
+			var defined = new BitSet();
+			for (var phi : phis.get(block)) {
+				defined.set(phi.getResult());
+			}
+			for (var instruction : code.get(block)) {
+				for (var value : instruction.getUses()) {
+					if (!defined.get(value)) {
+						used.set(value);
+					}
+				}
+				for (var value : instruction.getDefinitions()) {
+					defined.set(value);
+				}
+			}
+			uses.put(block, used);
+			definitions.put(block, defined);
+			liveIn.put(block, new BitSet());
+			liveOut.put(block, new BitSet());
+		}
+		var order = graph.getOrder();
+		var changed = true;
+		while (changed) {
+			changed = false;
+			for (int index = order.size() - 1; index >= 0; index--) {
+				var block = order.get(index);
+				var out = new BitSet();
+				for (var successor : block.getSuccessors()) {
+					out.or(liveIn.get(successor));
+					var predecessor = successor.getPredecessors().indexOf(block);
+					for (var phi : phis.get(successor)) {
+						out.set(phi.getOperands()[predecessor]);
+					}
+				}
+				var in = (BitSet) out.clone();
+				in.andNot(definitions.get(block));
+				in.or(uses.get(block));
+				if (!in.equals(liveIn.get(block)) || !out.equals(liveOut.get(block))) {
+					liveIn.put(block, in);
+					liveOut.put(block, out);
+					changed = true;
+				}
+			}
+		}
+	}
+
+	// Copies in inner loops first, where they cost the most.
+	private void coalesce() {
+		var copies = new ArrayList<LirInstruction>();
+		var sorted = new ArrayList<>(blocks);
+		sorted.sort(Comparator.comparingInt((SsaGraph.Block block) -> -block.getLoopDepth()));
+		for (var block : sorted) {
+			for (var instruction : code.get(block)) {
+				if (instruction.getOp() == LirOp.MOVE) {
+					copies.add(instruction);
+				}
+			}
+		}
+		for (var copy : copies) {
+			var first = find(copy.getResult());
+			var second = find(copy.getOperands()[0]);
+			if (first != second && !classesInterfere(first, second)) {
+				union(first, second);
+			}
+		}
+	}
+
+	private boolean classesInterfere(int first, int second) {
+		for (var value : members(first)) {
+			for (var other : members(second)) {
+				if (interfere(value, other)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	// Values defined at the same point always interfere, like the parameters or the results of
+	// the PHIs of a block. Otherwise only the value defined first can be live at the definition of
+	// the other, which it must dominate.
+	private boolean interfere(int value, int other) {
+		var block = definitionBlocks.get(value);
+		var index = definitionIndices.get(value);
+		var otherBlock = definitionBlocks.get(other);
+		var otherIndex = definitionIndices.get(other);
+		if (block == otherBlock && index == otherIndex) {
+			return true;
+		}
+		if ((int) origins.get(value) == origins.get(other)) {
+			return false;
+		}
+		if (block == otherBlock ? index < otherIndex : graph.dominates(block, otherBlock)) {
+			return isLiveAfter(value, otherBlock, otherIndex);
+		}
+		if (block == otherBlock || graph.dominates(otherBlock, block)) {
+			return isLiveAfter(other, block, index);
+		}
+		return false;
+	}
+
+	private boolean isLiveAfter(int value, SsaGraph.Block block, int index) {
+		return liveOut.get(block).get(value) || lastUses.get(block).getOrDefault(value, -1) > index;
+	}
+
+	private int find(int value) {
+		while (classes.get(value) != value) {
+			classes.set(value, classes.get(classes.get(value)));
+			value = classes.get(value);
+		}
+		return value;
+	}
+
+	private List<Integer> members(int root) {
+		return members.computeIfAbsent(root, key -> new ArrayList<>(List.of(key)));
+	}
+
+	private void union(int first, int second) {
+		first = find(first);
+		second = find(second);
+		if (first != second) {
+			members(first).addAll(members(second));
+			members.remove(second);
+			classes.set(second, first);
+		}
+	}
+
+	// Blocks keep their order; a branch to the next block falls through. Labels are the block
+	// numbers.
+	private void emit() {
+		var numbers = new HashMap<Integer, Integer>();
+		for (int index = 0; index < blocks.size(); index++) {
+			var block = blocks.get(index);
+			var next = index + 1 < blocks.size() ? blocks.get(index + 1) : null;
+			if (index > 0) {
+				lowered.add(new LirInstruction(LirOp.LABEL, -1, new int[0], null, block.getId()));
+			}
+			for (var instruction : code.get(block)) {
+				var op = instruction.getOp();
+				if (op == LirOp.MOVE && find(instruction.getResult()) == find(instruction.getOperands()[0])) {
+					continue;
+				}
+				var operands = instruction.getOperands().clone();
+				for (int operand = 0; operand < operands.length; operand++) {
+					operands[operand] = register(operands[operand], numbers);
+				}
+				var result = instruction.getResult() >= 0 ? register(instruction.getResult(), numbers) : -1;
+				var successors = block.getSuccessors();
+				if (op == LirOp.JUMP) {
+					if (successors.get(0) != next) {
+						lowered.add(new LirInstruction(LirOp.JUMP, -1, operands, null, successors.get(0).getId()));
+					}
+				} else if (op == LirOp.BRANCH) {
+					lowered.add(new LirInstruction(LirOp.BRANCH, -1, operands, instruction.getOperand(),
+							successors.get(0).getId(), instruction.getImmediate()));
+					if (successors.get(1) != next) {
+						lowered.add(new LirInstruction(LirOp.JUMP, -1, new int[0], null, successors.get(1).getId()));
+					}
+				} else {
+					lowered.add(new LirInstruction(op, result, operands, instruction.getOperand(),
+							instruction.getTarget(), instruction.getImmediate()));
+				}
+			}
+		}
+	}
+
+	private int register(int value, Map<Integer, Integer> numbers) {
+		return numbers.computeIfAbsent(find(value), key -> {
+			registers.add(references.get(key));
+			return registers.size() - 1;
+		});
+	}
+}
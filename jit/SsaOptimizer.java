@@ -0,0 +1,619 @@
+package jit;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Global optimizations of the SSA form. Copies and PHIs that select a single value are replaced
+// by their source; sparse conditional constant propagation folds the values and branches it can
+// prove constant and drops the blocks that become unreachable; value numbering along the
+// dominator tree removes instructions whose result a dominating one already computed;
+// loop-invariant code motion hoists instructions that neither trap nor have side effects into a
+// preheader; dead code elimination removes what no side effect, trap or branch needs; and blocks
+// that only jump on are skipped.
+final class SsaOptimizer {
+	// Neither trap nor have side effects.
+	private static final Set<LirOp> PURE = Set.of(LirOp.CONST, LirOp.MOVE, LirOp.ADD, LirOp.SUB, LirOp.MUL,
+			LirOp.NEG, LirOp.NOT, LirOp.COMPARE);
+	// Depend on nothing but their operands, so a dominating instruction computed the same result
+	// or trapped.
+	private static final Set<LirOp> NUMBERED = Set.of(LirOp.CONST, LirOp.ADD, LirOp.SUB, LirOp.MUL, LirOp.DIV,
+			LirOp.REM, LirOp.NEG, LirOp.NOT, LirOp.COMPARE, LirOp.ARRAYLENGTH);
+	private static final LirInstruction JUMP = new LirInstruction(LirOp.JUMP, -1, new int[0], null, -1);
+
+	private final SsaGraph graph;
+
+	private SsaOptimizer(SsaGraph graph) {
+		this.graph = graph;
+	}
+
+	public static void optimize(SsaGraph graph) {
+		var optimizer = new SsaOptimizer(graph);
+		optimizer.propagateCopies();
+		optimizer.propagateConstants();
+		optimizer.propagateCopies();
+		optimizer.numberValues();
+		optimizer.hoistInvariants();
+		optimizer.numberValues();
+		optimizer.removeDead();
+		optimizer.skipEmptyBlocks();
+	}
+
+	private void propagateCopies() {
+		var replacements = new HashMap<Integer, Integer>();
+		var changed = true;
+		while (changed) {
+			changed = false;
+			for (var block : graph.getOrder()) {
+				changed |= block.getPhis().removeIf(phi -> {
+					var source = -1;
+					for (var operand : phi.getOperands()) {
+						operand = resolve(operand, replacements);
+						if (operand != phi.getResult() && operand != source) {
+							if (source >= 0) {
+								return false;
+							}
+							source = operand;
+						}
+					}
+					if (source < 0) {
+						return false;
+					}
+					replacements.put(phi.getResult(), source);
+					return true;
+				});
+				changed |= block.getInstructions().removeIf(instruction -> {
+					if (instruction.getOp() != LirOp.MOVE) {
+						return false;
+					}
+					replacements.put(instruction.getResult(), resolve(instruction.getOperands()[0], replacements));
+					return true;
+				});
+			}
+		}
+		substitute(replacements);
+	}
+
+	// Values start unknown and only rise to a constant and then to varying; blocks and edges
+	// become executable once a branch may take them. Iterates until nothing rises.
+	private void propagateConstants() {
+		var constants = new HashMap<Integer, Long>();
+		var varying = new HashSet<Integer>();
+		var executable = new HashSet<SsaGraph.Block>();
+		var edges = new HashSet<List<SsaGraph.Block>>();
+		for (var block : graph.getOrder()) {
+			if (block.isRoot()) {
+				executable.add(block);
+			}
+		}
+		var changed = true;
+		while (changed) {
+			changed = false;
+			for (var block : graph.getOrder()) {
+				if (!executable.contains(block)) {
+					continue;
+				}
+				for (var phi : block.getPhis()) {
+					for (int index = 0; index < phi.getOperands().length; index++) {
+						var operand = phi.getOperands()[index];
+						if (edges.contains(List.of(block.getPredecessors().get(index), block))
+								&& (varying.contains(operand) || constants.containsKey(operand))) {
+							changed |= raise(phi.getResult(), constants.get(operand), constants, varying);
+						}
+					}
+				}
+				for (var instruction : block.getInstructions()) {
+					changed |= evaluate(instruction, constants, varying);
+				}
+				var terminator = block.getTerminator();
+				var taken = block.getSuccessors();
+				if (terminator.getOp() == LirOp.BRANCH) {
+					var values = values(terminator, constants, varying);
+					if (values == null) {
+						taken = List.of();
+					} else if (values.length > 0) {
+						var holds = test((LirInstruction.Condition) terminator.getOperand(), values[0], values[1]);
+						taken = List.of(taken.get(holds ? 0 : 1));
+					}
+				}
+				for (var successor : taken) {
+					changed |= edges.add(List.of(block, successor));
+					changed |= executable.add(successor);
+				}
+			}
+		}
+		for (var block : new ArrayList<>(graph.getOrder())) {
+			if (!executable.contains(block)) {
+				continue;
+			}
+			var folded = new ArrayList<LirInstruction>();
+			block.getPhis().removeIf(phi -> {
+				var constant = constants.get(phi.getResult());
+				if (constant != null) {
+					folded.add(new LirInstruction(LirOp.CONST, phi.getResult(), new int[0], constant, -1));
+				}
+				return constant != null;
+			});
+			var instructions = block.getInstructions();
+			for (int index = 0; index < instructions.size(); index++) {
+				var instruction = instructions.get(index);
+				var constant = constants.get(instruction.getResult());
+				if (constant != null && instruction.getOp() != LirOp.CONST && !instruction.isEntry()) {
+					instructions.set(index, new LirInstruction(LirOp.CONST, instruction.getResult(), new int[0],
+							constant, -1));
+				}
+			}
+			instructions.addAll(0, folded);
+			if (block.getTerminator().getOp() == LirOp.BRANCH) {
+				var successors = block.getSuccessors();
+				var first = edges.contains(List.of(block, successors.get(0)));
+				var second = edges.contains(List.of(block, successors.get(1)));
+				if (first != second) {
+					graph.removeEdge(block, successors.get(first ? 1 : 0));
+					instructions.set(instructions.size() - 1, JUMP);
+				}
+			}
+		}
+		graph.analyze();
+	}
+
+	// Returns whether the value rose; a null constant stands for varying.
+	private static boolean raise(int value, Long constant, Map<Integer, Long> constants, Set<Integer> varying) {
+		if (varying.contains(value)) {
+			return false;
+		}
+		var known = constants.get(value);
+		if (constant != null && (known == null || known.equals(constant))) {
+			return constants.put(value, constant) == null;
+		}
+		constants.remove(value);
+		varying.add(value);
+		return true;
+	}
+
+	private static boolean evaluate(LirInstruction instruction, Map<Integer, Long> constants,
+			Set<Integer> varying) {
+		var result = instruction.getResult();
+		var op = instruction.getOp();
+		if (instruction.isEntry()) {
+			var changed = false;
+			for (var value : instruction.getOperands()) {
+				changed |= raise(value, null, constants, varying);
+			}
+			return changed;
+		}
+		if (result < 0) {
+			return false;
+		}
+		if (op == LirOp.CONST) {
+			return raise(result, (long) instruction.getOperand(), constants, varying);
+		}
+		if (!PURE.contains(op) && op != LirOp.DIV && op != LirOp.REM) {
+			return raise(result, null, constants, varying);
+		}
+		var values = values(instruction, constants, varying);
+		if (values == null) {
+			return false;
+		}
+		if (values.length == 0) {
+			return raise(result, null, constants, varying);
+		}
+		return raise(result, fold(instruction, values), constants, varying);
+	}
+
+	// Constant operands, the immediate last; empty if one varies and null if one is still unknown.
+	private static long[] values(LirInstruction instruction, Map<Integer, Long> constants, Set<Integer> varying) {
+		var operands = instruction.getOperands();
+		var immediate = instruction.getImmediate();
+		var values = new long[operands.length + (immediate != null ? 1 : 0)];
+		var unknown = false;
+		for (int index = 0; index < operands.length; index++) {
+			if (varying.contains(operands[index])) {
+				return new long[0];
+			}
+			var constant = constants.get(operands[index]);
+			if (constant == null) {
+				unknown = true;
+			} else {
+				values[index] = constant;
+			}
+		}
+		if (immediate != null) {
+			values[operands.length] = immediate;
+		}
+		return unknown ? null : values;
+	}
+
+	// Ints wrap like Java ints; null if the instruction traps.
+	private static Long fold(LirInstruction instruction, long[] values) {
+		var left = (int) values[0];
+		var right = values.length > 1 ? (int) values[1] : 0;
+		switch (instruction.getOp()) {
+		case MOVE:
+			return values[0];
+		case ADD:
+			return (long) (left + right);
+		case SUB:
+			return (long) (left - right);
+		case MUL:
+			return (long) (left * right);
+		case DIV:
+			return right != 0 ? (long) (left / right) : null;
+		case REM:
+			return right != 0 ? (long) (left % right) : null;
+		case NEG:
+			return (long) -left;
+		case NOT:
+			return values[0] ^ 1;
+		default:
+			return test((LirInstruction.Condition) instruction.getOperand(), values[0], values[1]) ? 1L : 0L;
+		}
+	}
+
+	// Int constants are sign-extended, so they compare like ints.
+	private static boolean test(LirInstruction.Condition condition, long left, long right) {
+		switch (condition) {
+		case EQUAL:
+			return left == right;
+		case NOT_EQUAL:
+			return left != right;
+		case LESS:
+			return left < right;
+		case LESS_EQUAL:
+			return left <= right;
+		case GREATER:
+			return left > right;
+		default:
+			return left >= right;
+		}
+	}
+
+	// Keeps a table of the instructions in the dominators of the current block. Commutative
+	// operations and comparisons are keyed with their operands in order.
+	private void numberValues() {
+		var replacements = new HashMap<Integer, Integer>();
+		var table = new HashMap<List<Object>, Integer>();
+		for (var block : graph.getOrder()) {
+			if (block.getDominator() == null) {
+				number(block, table, replacements);
+			}
+		}
+		substitute(replacements);
+	}
+
+	// Recursive along the dominator tree, like the renaming of SsaGraph.
+	private void number(SsaGraph.Block block, Map<List<Object>, Integer> table, Map<Integer, Integer> replacements) {
+		var added = new ArrayList<List<Object>>();
+		block.getPhis().removeIf(phi -> {
+			var operands = new ArrayList<Object>();
+			operands.add(LirOp.PHI);
+			operands.add(block);
+			for (var operand : phi.getOperands()) {
+				operands.add(resolve(operand, replacements));
+			}
+			return replace(phi.getResult(), operands, table, replacements, added);
+		});
+		block.getInstructions().removeIf(instruction -> {
+			if (!NUMBERED.contains(instruction.getOp())) {
+				return false;
+			}
+			var operands = instruction.getOperands().clone();
+			for (int index = 0; index < operands.length; index++) {
+				operands[index] = resolve(operands[index], replacements);
+			}
+			var operand = instruction.getOperand();
+			var op = instruction.getOp();
+			if (operands.length == 2 && operands[0] > operands[1] && instruction.getImmediate() == null
+					&& (op == LirOp.ADD || op == LirOp.MUL || op == LirOp.COMPARE)) {
+				operands = new int[] { operands[1], operands[0] };
+				if (op == LirOp.COMPARE) {
+					operand = ((LirInstruction.Condition) operand).reverse();
+				}
+			}
+			var key = new ArrayList<Object>(Arrays.asList(op, operand, instruction.getImmediate(),
+					graph.isReference(instruction.getResult())));
+			for (var value : operands) {
+				key.add(value);
+			}
+			return replace(instruction.getResult(), key, table, replacements, added);
+		});
+		for (var child : block.getDominated()) {
+			number(child, table, replacements);
+		}
+		for (var key : added) {
+			table.remove(key);
+		}
+	}
+
+	private static boolean replace(int value, List<Object> key, Map<List<Object>, Integer> table,
+			Map<Integer, Integer> replacements, List<List<Object>> added) {
+		var existing = table.get(key);
+		if (existing != null) {
+			replacements.put(value, existing);
+			return true;
+		}
+		table.put(key, value);
+		added.add(key);
+		return false;
+	}
+
+	// Every loop gets a preheader first. The PHIs that merged the values entering the loop, from
+	// the code before it and from OSR entries, then select a single value from outside the loop.
+	// Inner loops go first, so that their invariants can move on out of the enclosing loops.
+	private void hoistInvariants() {
+		if (graph.getLoops().isEmpty()) {
+			return;
+		}
+		for (var loop : new ArrayList<>(graph.getLoops().entrySet())) {
+			preheader(loop.getKey(), loop.getValue());
+		}
+		graph.analyze();
+		propagateCopies();
+		var loops = new ArrayList<>(graph.getLoops().entrySet());
+		loops.sort(Comparator.comparingInt(loop -> loop.getValue().size()));
+		for (var loop : loops) {
+			hoist(loop.getKey(), loop.getValue());
+		}
+	}
+
+	private void hoist(SsaGraph.Block header, Set<SsaGraph.Block> body) {
+		var inside = new HashSet<Integer>();
+		var candidates = new ArrayList<LirInstruction>();
+		for (var block : body) {
+			for (var phi : block.getPhis()) {
+				inside.add(phi.getResult());
+			}
+			for (var instruction : block.getInstructions()) {
+				for (var value : instruction.getDefinitions()) {
+					inside.add(value);
+				}
+			}
+		}
+		var constantDivisors = new HashSet<Integer>();
+		for (var block : graph.getBlocks()) {
+			for (var instruction : block.getInstructions()) {
+				if (instruction.getOp() == LirOp.CONST && (long) instruction.getOperand() != 0) {
+					constantDivisors.add(instruction.getResult());
+				}
+			}
+		}
+		var changed = true;
+		while (changed) {
+			changed = false;
+			for (var block : graph.getOrder()) {
+				if (!body.contains(block)) {
+					continue;
+				}
+				for (var instruction : block.getInstructions()) {
+					if (!inside.contains(instruction.getResult()) || !isHoistable(instruction, constantDivisors)) {
+						continue;
+					}
+					var invariant = true;
+					for (var operand : instruction.getOperands()) {
+						invariant &= !inside.contains(operand);
+					}
+					if (invariant) {
+						inside.remove(instruction.getResult());
+						candidates.add(instruction);
+						changed = true;
+					}
+				}
+			}
+		}
+		var preheader = preheader(header, body);
+		var instructions = preheader.getInstructions();
+		for (var block : body) {
+			block.getInstructions().removeAll(candidates);
+		}
+		instructions.addAll(instructions.size() - 1, candidates);
+	}
+
+	private static boolean isHoistable(LirInstruction instruction, Set<Integer> constantDivisors) {
+		var op = instruction.getOp();
+		if (op == LirOp.DIV || op == LirOp.REM) {
+			return instruction.getImmediate() == null ? constantDivisors.contains(instruction.getOperands()[1])
+					: instruction.getImmediate() != 0;
+		}
+		return PURE.contains(op);
+	}
+
+	// The only block that enters the loop, if it has no other successor; otherwise a new block
+	// that all entering edges go through, which merges their PHI operands.
+	private SsaGraph.Block preheader(SsaGraph.Block header, Set<SsaGraph.Block> body) {
+		var predecessors = header.getPredecessors();
+		var entering = new ArrayList<Integer>();
+		for (int index = 0; index < predecessors.size(); index++) {
+			if (!body.contains(predecessors.get(index))) {
+				entering.add(index);
+			}
+		}
+		if (entering.size() == 1 && predecessors.get(entering.get(0)).getSuccessors().size() == 1) {
+			return predecessors.get(entering.get(0));
+		}
+		var preheader = graph.addBlock(header);
+		preheader.getInstructions().add(JUMP);
+		for (var index : entering) {
+			var predecessor = predecessors.get(index);
+			predecessor.getSuccessors().set(predecessor.getSuccessors().indexOf(header), preheader);
+			preheader.getPredecessors().add(predecessor);
+		}
+		var phis = header.getPhis();
+		for (int phi = 0; phi < phis.size(); phi++) {
+			var instruction = phis.get(phi);
+			var operands = new int[predecessors.size() - entering.size() + 1];
+			var merged = new int[entering.size()];
+			for (int index = 0, next = 0; index < predecessors.size(); index++) {
+				if (entering.contains(index)) {
+					merged[entering.indexOf(index)] = instruction.getOperands()[index];
+				} else {
+					operands[next++] = instruction.getOperands()[index];
+				}
+			}
+			var value = merged[0];
+			for (var operand : merged) {
+				if (operand != merged[0]) {
+					value = graph.newValue(graph.isReference(instruction.getResult()));
+					preheader.getPhis().add(new LirInstruction(LirOp.PHI, value, merged, null, -1));
+					break;
+				}
+			}
+			operands[operands.length - 1] = value;
+			phis.set(phi, new LirInstruction(LirOp.PHI, instruction.getResult(), operands, null, -1));
+		}
+		for (int index = entering.size() - 1; index >= 0; index--) {
+			predecessors.remove((int) entering.get(index));
+		}
+		predecessors.add(preheader);
+		preheader.getSuccessors().add(header);
+		return preheader;
+	}
+
+	// Marks the operands of everything that must stay, and of the values those need. OSR entries
+	// only load the values that are used.
+	private void removeDead() {
+		var definitions = new HashMap<Integer, LirInstruction>();
+		var live = new HashSet<Integer>();
+		var work = new ArrayDeque<Integer>();
+		var constantDivisors = new HashSet<Integer>();
+		for (var block : graph.getBlocks()) {
+			for (var instruction : block.getInstructions()) {
+				if (instruction.getOp() == LirOp.CONST && (long) instruction.getOperand() != 0) {
+					constantDivisors.add(instruction.getResult());
+				}
+			}
+		}
+		for (var block : graph.getBlocks()) {
+			for (var phi : block.getPhis()) {
+				definitions.put(phi.getResult(), phi);
+			}
+			for (var instruction : block.getInstructions()) {
+				if (!isRemovable(instruction, constantDivisors)) {
+					for (var value : instruction.getUses()) {
+						if (live.add(value)) {
+							work.push(value);
+						}
+					}
+				} else if (instruction.getResult() >= 0) {
+					definitions.put(instruction.getResult(), instruction);
+				}
+			}
+		}
+		while (!work.isEmpty()) {
+			var definition = definitions.get(work.pop());
+			if (definition != null) {
+				for (var value : definition.getUses()) {
+					if (live.add(value)) {
+						work.push(value);
+					}
+				}
+			}
+		}
+		for (var block : graph.getBlocks()) {
+			block.getPhis().removeIf(phi -> !live.contains(phi.getResult()));
+			var instructions = block.getInstructions();
+			instructions.removeIf(instruction -> isRemovable(instruction, constantDivisors)
+					&& !live.contains(instruction.getResult()));
+			var first = instructions.get(0);
+			if (first.getOp() == LirOp.OSR_ENTRY) {
+				var values = new ArrayList<Integer>();
+				var slots = new ArrayList<Integer>();
+				for (int index = 0; index < first.getOperands().length; index++) {
+					if (live.contains(first.getOperands()[index])) {
+						values.add(first.getOperands()[index]);
+						slots.add(((int[]) first.getOperand())[index]);
+					}
+				}
+				instructions.set(0, new LirInstruction(LirOp.OSR_ENTRY, -1, toArray(values), toArray(slots),
+						first.getTarget()));
+			}
+		}
+	}
+
+	// The predecessors of a block that only jumps go to its successor directly and take over its
+	// PHI operands there, unless they already branch to the successor.
+	private void skipEmptyBlocks() {
+		for (var block : graph.getBlocks()) {
+			var successors = block.getSuccessors();
+			if (block.isRoot() || !block.getPhis().isEmpty() || block.getInstructions().size() > 1
+					|| successors.size() != 1 || successors.get(0) == block) {
+				continue;
+			}
+			var successor = successors.get(0);
+			var index = successor.getPredecessors().indexOf(block);
+			for (var predecessor : new ArrayList<>(block.getPredecessors())) {
+				if (predecessor.getSuccessors().contains(successor)) {
+					continue;
+				}
+				predecessor.getSuccessors().set(predecessor.getSuccessors().indexOf(block), successor);
+				block.getPredecessors().remove(predecessor);
+				successor.getPredecessors().add(predecessor);
+				var phis = successor.getPhis();
+				for (int phi = 0; phi < phis.size(); phi++) {
+					var instruction = phis.get(phi);
+					var operands = Arrays.copyOf(instruction.getOperands(), instruction.getOperands().length + 1);
+					operands[operands.length - 1] = operands[index];
+					phis.set(phi, new LirInstruction(LirOp.PHI, instruction.getResult(), operands, null, -1));
+				}
+			}
+		}
+		graph.analyze();
+	}
+
+	private static boolean isRemovable(LirInstruction instruction, Set<Integer> constantDivisors) {
+		return instruction.getResult() >= 0 && isHoistable(instruction, constantDivisors);
+	}
+
+	private static int[] toArray(List<Integer> list) {
+		var array = new int[list.size()];
+		for (int index = 0; index < array.length; index++) {
+			array[index] = list.get(index);
+		}
+		return array;
+	}
+
+	private static int resolve(int value, Map<Integer, Integer> replacements) {
+		var replacement = replacements.get(value);
+		while (replacement != null) {
+			value = replacement;
+			replacement = replacements.get(value);
+		}
+		return value;
+	}
+
+	// Rewrites all uses of replaced values.
+	private void substitute(Map<Integer, Integer> replacements) {
+		if (replacements.isEmpty()) {
+			return;
+		}
+		for (var block : graph.getBlocks()) {
+			substitute(block.getPhis(), replacements);
+			substitute(block.getInstructions(), replacements);
+		}
+	}
+
+	private static void substitute(List<LirInstruction> instructions, Map<Integer, Integer> replacements) {
+		for (int index = 0; index < instructions.size(); index++) {
+			var instruction = instructions.get(index);
+			if (instruction.isEntry()) {
+				continue;
+			}
+			var operands = instruction.getOperands().clone();
+			var replaced = false;
+			for (int operand = 0; operand < operands.length; operand++) {
+				var value = resolve(operands[operand], replacements);
+				replaced |= value != operands[operand];
+				operands[operand] = value;
+			}
+			if (replaced) {
+				instructions.set(index, new LirInstruction(instruction.getOp(), instruction.getResult(), operands,
+						instruction.getOperand(), instruction.getTarget(), instruction.getImmediate()));
+			}
+		}
+	}
+}
@@ -0,0 +1,208 @@
+package jit;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import bytecode.Instruction;
+import runtime.descriptors.ArrayDescriptor;
+import runtime.descriptors.ClassDescriptor;
+import runtime.descriptors.FieldDescriptor;
+import runtime.descriptors.MethodDescriptor;
+import runtime.descriptors.TypeDescriptor;
+
+// Static types of the evaluation stack before each instruction, top first. Compiled code has no
+// type information at run time, so array accesses take the element layout from here. A null
+// entry is the null constant or this; references of different types merge to MIXED_REFERENCE.
+final class StackTypes {
+	static final TypeDescriptor MIXED_REFERENCE = new TypeDescriptor("reference");
+
+	private StackTypes() {
+	}
+
+	// Returns null if the code contains instructions outside of the JIT subset or the stack is
+	// inconsistent. Unreachable instructions have a null state.
+	static List<List<TypeDescriptor>> infer(MethodDescriptor method) {
+		var code = method.getCode();
+		var states = new ArrayList<List<TypeDescriptor>>();
+		for (int position = 0; position < code.length; position++) {
+			states.add(null);
+		}
+		if (code.length == 0) {
+			return states;
+		}
+		states.set(0, new LinkedList<>());
+		var work = new ArrayDeque<Integer>();
+		work.add(0);
+		while (!work.isEmpty()) {
+			int position = work.poll();
+			var instruction = code[position];
+			var stack = transfer(method, instruction, new LinkedList<>(states.get(position)));
+			if (stack == null) {
+				return null;
+			}
+			for (var successor : successors(instruction, position)) {
+				if (successor < 0 || successor >= code.length) {
+					return null;
+				}
+				var previous = states.get(successor);
+				var merged = previous == null ? stack : merge(previous, stack);
+				if (merged == null) {
+					return null;
+				}
+				if (!merged.equals(previous)) {
+					states.set(successor, merged);
+					work.add(successor);
+				}
+			}
+		}
+		return states;
+	}
+
+	static boolean isReference(TypeDescriptor type) {
+		return type == null || type == MIXED_REFERENCE || type instanceof ClassDescriptor
+				|| type instanceof ArrayDescriptor;
+	}
+
+	private static List<Integer> successors(Instruction instruction, int position) {
+		switch (instruction.getOpCode()) {
+		case GOTO:
+			return List.of(position + 1 + (int) instruction.getOperand());
+		case IF_TRUE:
+		case IF_FALSE:
+			return List.of(position + 1, position + 1 + (int) instruction.getOperand());
+		case RETURN:
+			return List.of();
+		default:
+			return List.of(position + 1);
+		}
+	}
+
+	private static List<TypeDescriptor> merge(List<TypeDescriptor> first, List<TypeDescriptor> second) {
+		if (first.size() != second.size()) {
+			return null;
+		}
+		var result = new LinkedList<TypeDescriptor>();
+		for (int index = 0; index < first.size(); index++) {
+			var left = first.get(index);
+			var right = second.get(index);
+			if (left == right || right == null && isReference(left)) {
+				result.add(left);
+			} else if (left == null && isReference(right)) {
+				result.add(right);
+			} else if (isReference(left) && isReference(right)) {
+				result.add(MIXED_REFERENCE);
+			} else {
+				return null;
+			}
+		}
+		return result;
+	}
+
+	private static LinkedList<TypeDescriptor> transfer(MethodDescriptor method, Instruction instruction,
+			LinkedList<TypeDescriptor> stack) {
+		var operand = instruction.getOperand();
+		switch (instruction.getOpCode()) {
+		case LDC:
+			if (operand instanceof Integer) {
+				stack.push(TypeDescriptor.INT_TYPE);
+			} else if (operand instanceof Boolean) {
+				stack.push(TypeDescriptor.BOOLEAN_TYPE);
+			} else {
+				return null;
+			}
+			return stack;
+		case ACONST_NULL:
+			stack.push(null);
+			return stack;
+		case IADD:
+		case ISUB:
+		case IMUL:
+		case IDIV:
+		case IREM:
+			return pop(stack, 2) ? push(stack, TypeDescriptor.INT_TYPE) : null;
+		case INEG:
+			return pop(stack, 1) ? push(stack, TypeDescriptor.INT_TYPE) : null;
+		case BNEG:
+			return pop(stack, 1) ? push(stack, TypeDescriptor.BOOLEAN_TYPE) : null;
+		case CMPEQ:
+		case CMPNE:
+		case ICMPLT:
+		case ICMPLE:
+		case ICMPGT:
+		case ICMPGE:
+			return pop(stack, 2) ? push(stack, TypeDescriptor.BOOLEAN_TYPE) : null;
+		case IF_TRUE:
+		case IF_FALSE:
+			return pop(stack, 1) ? stack : null;
+		case GOTO:
+			return stack;
+		case LOAD:
+			if (!(operand instanceof Integer)) {
+				return null;
+			}
+			var index = (int) operand;
+			var parameters = method.getParameterTypes();
+			var locals = method.getLocalTypes();
+			if (index < 0 || index > parameters.length + locals.length) {
+				return null;
+			}
+			stack.push(index == 0 ? null
+					: index <= parameters.length ? parameters[index - 1] : locals[index - 1 - parameters.length]);
+			return stack;
+		case STORE:
+			return pop(stack, 1) ? stack : null;
+		case GETFIELD:
+			if (!(operand instanceof FieldDescriptor)) {
+				return null;
+			}
+			return pop(stack, 1) ? push(stack, ((FieldDescriptor) operand).getType()) : null;
+		case PUTFIELD:
+			return operand instanceof FieldDescriptor && pop(stack, 2) ? stack : null;
+		case ALOAD:
+			if (stack.size() < 2 || !(stack.get(1) instanceof ArrayDescriptor)) {
+				return null;
+			}
+			var elementType = ((ArrayDescriptor) stack.get(1)).getElementType();
+			pop(stack, 2);
+			return push(stack, elementType);
+		case ASTORE:
+			if (stack.size() < 3 || !(stack.get(2) instanceof ArrayDescriptor)) {
+				return null;
+			}
+			pop(stack, 3);
+			return stack;
+		case ARRAYLENGTH:
+			return pop(stack, 1) ? push(stack, TypeDescriptor.INT_TYPE) : null;
+		case INVOKEVIRTUAL:
+			if (!(operand instanceof MethodDescriptor)) {
+				return null;
+			}
+			var target = (MethodDescriptor) operand;
+			if (!pop(stack, target.getParameterTypes().length + 1)) {
+				return null;
+			}
+			return target.getReturnType() != null ? push(stack, target.getReturnType()) : stack;
+		case RETURN:
+			return method.getReturnType() == null || pop(stack, 1) ? stack : null;
+		default:
+			return null;
+		}
+	}
+
+	private static boolean pop(LinkedList<TypeDescriptor> stack, int count) {
+		if (stack.size() < count) {
+			return false;
+		}
+		for (int index = 0; index < count; index++) {
+			stack.pop();
+		}
+		return true;
+	}
+
+	private static LinkedList<TypeDescriptor> push(LinkedList<TypeDescriptor> stack, TypeDescriptor type) {
+		stack.push(type);
+		return stack;
+	}
+}
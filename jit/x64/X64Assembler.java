@@ -1,8 +1,11 @@
 package jit.x64;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+// Jumps are emitted with 32-bit displacements and relaxed to 8 bits where the target is in range
+// once the code is complete. Label targets then move to their final offsets.
 public class X64Assembler {
 	static enum Prefix {
 		NONE((byte) 0), REX_W((byte) 0x48), REX_R((byte) 0x44), REX_WR((byte) 0x4C), REX_B((byte) 0x41),
@@ -20,9 +23,13 @@ public class X64Assembler {
 	}
 
 	static enum OpCode {
-		ADD_RM_R((byte) 0x01), EXTENDED((byte) 0x0F), SUB_RM_R((byte) 0x29), CMP_RM_R((byte) 0x39),
-		MOV_RM_R((byte) 0x89), CDQ((byte) 0x99), MOV_R_IMM((byte) 0xB8), PUSH_R((byte) 0x50), POP_R((byte) 0x58),
-		RET((byte) 0xC3), JMP_REL32((byte) 0xE9), IDIV_RM((byte) 0xF7), NEG((byte) 0xF7), NOT((byte)0xF7);
+		ADD_RM_R((byte) 0x01), EXTENDED((byte) 0x0F), SUB_RM_R((byte) 0x29), CMP_RM_R((byte) 0x39), CMP_R_RM((byte) 0x3B),
+		MOV_RM_R((byte) 0x89), MOV_R_RM((byte) 0x8B), CDQ((byte) 0x99), MOV_R_IMM((byte) 0xB8), PUSH_R((byte) 0x50), POP_R((byte) 0x58),
+		RET((byte) 0xC3), JMP_REL32((byte) 0xE9), IDIV_RM((byte) 0xF7), NEG((byte) 0xF7), NOT((byte)0xF7),
+		MOVSXD_R_RM((byte) 0x63), MOV_RM8_R8((byte) 0x88), LEA((byte) 0x8D), TEST_RM_R((byte) 0x85),
+		SHIFT_RM_IMM8((byte) 0xC1), ALU_RM_IMM32((byte) 0x81), GROUP5((byte) 0xFF), POP_RM((byte) 0x8F),
+		PUSH_IMM32((byte) 0x68), ALU_RM_IMM8((byte) 0x83), IMUL_R_RM_IMM32((byte) 0x69), IMUL_R_RM_IMM8((byte) 0x6B),
+		MOV_RM_IMM32((byte) 0xC7), XOR_RM_R((byte) 0x31);
 
 		private final byte code;
 
@@ -37,7 +44,9 @@ public class X64Assembler {
 
 	static enum OpCode2 {
 		JE_REL32((byte) 0x84), JNE_REL32((byte) 0x85), JL_REL32((byte) 0x8C), JLE_REL32((byte) 0x8E),
-		JGE_REL32((byte)0x8D), JG_REL32((byte) 0x8F), IMUL_R_RM((byte) 0xAF);
+		JGE_REL32((byte)0x8D), JG_REL32((byte) 0x8F), JAE_REL32((byte) 0x83), IMUL_R_RM((byte) 0xAF),
+		MOVZX_R_RM8((byte) 0xB6), JS_REL32((byte) 0x88), SETE((byte) 0x94), SETNE((byte) 0x95), SETL((byte) 0x9C),
+		SETGE((byte) 0x9D), SETLE((byte) 0x9E), SETG((byte) 0x9F);
 
 		private final byte code;
 
@@ -50,20 +59,24 @@ public class X64Assembler {
 		}
 	}
 
-	private final List<Byte> code = new ArrayList<>();
+	private static final byte REX = 0x40;
+	private static final byte REX_X = 0x42;
+	private static final int SHORT_JUMP_SIZE = 2;
+	private static final int JMP_SIZE = 5;
+	private static final byte JMP_REL8 = (byte) 0xEB;
+	private static final byte JCC_REL8_DISTANCE = 0x10; // from the second opcode byte of the 32-bit form
+
+	private byte[] code = new byte[256];
+	private int size;
 	private final List<X64Label> labels = new ArrayList<>();
+	private final List<X64Jump> jumps = new ArrayList<>();
+	private byte[] result;
 
 	public byte[] getCode() {
-		fixLabels();
-		return toArray(code);
-	}
-
-	private byte[] toArray(List<Byte> list) {
-		byte[] array = new byte[list.size()];
-		for (int index = 0; index < list.size(); index++) {
-			array[index] = list.get(index);
+		if (result == null) {
+			result = relaxJumps();
 		}
-		return array;
+		return result;
 	}
 
 	public X64Label createLabel() {
@@ -76,27 +89,79 @@ public class X64Assembler {
 		if (label.getTarget() != null) {
 			throw new AssertionError("Label already set");
 		}
-		label.setTarget(code.size());
+		label.setTarget(size);
 	}
 
-	private void fixLabels() {
-		for (var label : labels) {
-			for (var jump : label.getJumps()) {
-				if (label.getTarget() == null) {
-					throw new AssertionError("Undefined label target");
-				}
-				if (jump.getByteSize() == 4) {
-					fixJump32(jump, label.getTarget());
-				} else {
-					throw new AssertionError("Label size not supported");
+	// Starts with all jumps short and lengthens those whose targets are out of range until none
+	// are, since lengthening one can put others out of range. Then copies the code with the
+	// final jumps in place.
+	private byte[] relaxJumps() {
+		for (var jump : jumps) {
+			if (jump.getLabel().getTarget() == null) {
+				throw new AssertionError("Undefined label target");
+			}
+		}
+		var count = jumps.size();
+		var positions = new int[count];
+		for (int index = 0; index < count; index++) {
+			positions[index] = jumps.get(index).getPosition();
+			jumps.get(index).setShort(true);
+		}
+		var savings = new int[count + 1]; // bytes saved by the jumps before each one
+		var changed = true;
+		while (changed) {
+			changed = false;
+			for (int index = 0; index < count; index++) {
+				var jump = jumps.get(index);
+				savings[index + 1] = savings[index] + (jump.isShort() ? jump.getSize() - SHORT_JUMP_SIZE : 0);
+			}
+			for (int index = 0; index < count; index++) {
+				var jump = jumps.get(index);
+				if (jump.isShort()) {
+					var end = relocate(positions, savings, jump.getPosition()) + SHORT_JUMP_SIZE;
+					var relative = relocate(positions, savings, jump.getLabel().getTarget()) - end;
+					if (relative != (byte) relative) {
+						jump.setShort(false);
+						changed = true;
+					}
 				}
 			}
 		}
+		var relaxed = new byte[size - savings[count]];
+		var source = 0;
+		var target = 0;
+		for (var jump : jumps) {
+			var length = jump.getPosition() - source;
+			System.arraycopy(code, source, relaxed, target, length);
+			target += length;
+			source = jump.getPosition() + jump.getSize();
+			var labelTarget = relocate(positions, savings, jump.getLabel().getTarget());
+			if (jump.isShort()) {
+				// JMP has one opcode byte, Jcc a prefix and the condition
+				relaxed[target] = jump.getSize() == JMP_SIZE ? JMP_REL8
+						: (byte) (code[jump.getPosition() + 1] - JCC_REL8_DISTANCE);
+				relaxed[target + 1] = (byte) (labelTarget - (target + SHORT_JUMP_SIZE));
+				target += SHORT_JUMP_SIZE;
+			} else {
+				System.arraycopy(code, jump.getPosition(), relaxed, target, jump.getSize() - Integer.BYTES);
+				target += jump.getSize();
+				writeLittleEndian(relaxed, target - Integer.BYTES, labelTarget - target);
+			}
+		}
+		System.arraycopy(code, source, relaxed, target, size - source);
+		for (var label : labels) {
+			if (label.getTarget() != null) {
+				label.setTarget(relocate(positions, savings, label.getTarget()));
+			}
+		}
+		return relaxed;
 	}
 
-	private void fixJump32(X64Jump jump, int target) {
-		var relative = target - (jump.getPosition() + jump.getByteSize());
-		writeLittleEndian(jump.getPosition(), relative);
+	// Offset in the relaxed code; jumps at the offset itself come after it.
+	private static int relocate(int[] positions, int[] savings, int offset) {
+		var index = Arrays.binarySearch(positions, offset);
+		var before = index >= 0 ? index : -index - 1;
+		return offset - savings[before];
 	}
 
 	public void ADD_RegReg(X64Register target, X64Register source) {
@@ -111,10 +176,99 @@ public class X64Assembler {
 		encodeRegReg(OpCode.EXTENDED, OpCode2.IMUL_R_RM, target, source);
 	}
 
+	public void ADD32_RegReg(X64Register target, X64Register source) {
+		encodeRegReg(OpCode.ADD_RM_R, null, false, source, target);
+	}
+
+	public void SUB32_RegReg(X64Register target, X64Register source) {
+		encodeRegReg(OpCode.SUB_RM_R, null, false, source, target);
+	}
+
+	public void IMUL32_RegReg(X64Register target, X64Register source) {
+		encodeRegReg(OpCode.EXTENDED, OpCode2.IMUL_R_RM, false, target, source);
+	}
+
+	public void ADD32_RegImm(X64Register target, int immediate) {
+		encodeAluImm(false, X64Register.RAX, target, immediate); // /0
+	}
+
+	public void SUB32_RegImm(X64Register target, int immediate) {
+		encodeAluImm(false, X64Register.RBP, target, immediate); // /5
+	}
+
+	// imul target32, source32, immediate
+	public void IMUL32_RegRegImm(X64Register target, X64Register source, int immediate) {
+		if (isByte(immediate)) {
+			encodeRegReg(OpCode.IMUL_R_RM_IMM8, null, false, target, source);
+			emit((byte) immediate);
+		} else {
+			encodeRegReg(OpCode.IMUL_R_RM_IMM32, null, false, target, source);
+			emitLittleEndian(immediate);
+		}
+	}
+
+	public void INC32(X64Register target) {
+		encodeRegReg(OpCode.GROUP5, null, false, X64Register.RAX, target); // /0
+	}
+
+	public void DEC32(X64Register target) {
+		encodeRegReg(OpCode.GROUP5, null, false, X64Register.RCX, target); // /1
+	}
+
+	// lea target32, [base + index]
+	public void LEA32_RegMem(X64Register target, X64Register base, X64Register index) {
+		encodeRegMem(OpCode.LEA, null, false, target, base, index, 0, 0);
+	}
+
+	// lea target32, [base + displacement]
+	public void LEA32_RegMem(X64Register target, X64Register base, int displacement) {
+		encodeRegMem(OpCode.LEA, null, false, target, base, null, 0, displacement);
+	}
+
+	// xor target32, source32; clears the upper half of target
+	public void XOR32_RegReg(X64Register target, X64Register source) {
+		encodeRegReg(OpCode.XOR_RM_R, null, false, source, target);
+	}
+
+	// sign-extends EAX into EDX
 	public void CDQ() {
-		emit(Prefix.REX_W.getCode());
 		emit(OpCode.CDQ.getCode());
 	}
+
+	// divides EDX:EAX, quotient in EAX and remainder in EDX
+	public void IDIV32(X64Register source) {
+		encodeRegReg(OpCode.IDIV_RM, null, false, X64Register.RDI, source); // /7
+	}
+
+	public void NEG32(X64Register source) {
+		encodeRegReg(OpCode.NEG, null, false, X64Register.RBX, source); // /3
+	}
+
+	public void XOR32_RegImm(X64Register target, int immediate) {
+		encodeAluImm(false, X64Register.RSI, target, immediate); // /6
+	}
+
+	public void CMP32_RegReg(X64Register rm32, X64Register reg) {
+		encodeRegReg(OpCode.CMP_RM_R, null, false, reg, rm32);
+	}
+
+	public void CMP32_RegImm(X64Register target, int immediate) {
+		encodeAluImm(false, X64Register.RDI, target, immediate); // /7
+	}
+
+	// the immediate is sign-extended to 64 bits
+	public void CMP_RegImm(X64Register target, int immediate) {
+		encodeAluImm(true, X64Register.RDI, target, immediate); // /7
+	}
+
+	// cmp reg32, dword [base + index + displacement]
+	public void CMP32_RegMem(X64Register reg, X64Register base, X64Register index, int displacement) {
+		encodeRegMem(OpCode.CMP_R_RM, null, false, reg, base, index, 0, displacement);
+	}
+
+	public void TEST32_RegReg(X64Register rm32, X64Register reg) {
+		encodeRegReg(OpCode.TEST_RM_R, null, false, reg, rm32);
+	}
 	
 	public void CMP_RegReg(X64Register rm64, X64Register reg) {
 		encodeRegReg(OpCode.CMP_RM_R, null, reg, rm64);
@@ -124,6 +278,18 @@ public class X64Assembler {
 		encodeRegReg(OpCode.IDIV_RM, null, X64Register.RDI, source);
 	}
 
+	public void TEST_RegReg(X64Register rm64, X64Register reg) {
+		encodeRegReg(OpCode.TEST_RM_R, null, reg, rm64);
+	}
+
+	public void JAE_Rel(X64Label label) {
+		encodeJump32(OpCode.EXTENDED, OpCode2.JAE_REL32, label);
+	}
+
+	public void JS_Rel(X64Label label) {
+		encodeJump32(OpCode.EXTENDED, OpCode2.JS_REL32, label);
+	}
+
 	public void JE_Rel(X64Label label) {
 		encodeJump32(OpCode.EXTENDED, OpCode2.JE_REL32, label);
 	}
@@ -152,12 +318,158 @@ public class X64Assembler {
 		encodeJump32(OpCode.JMP_REL32, null, label);
 	}
 
+	public void SETE(X64Register target) {
+		encodeRegReg8(OpCode2.SETE, X64Register.RAX, target);
+	}
+
+	public void SETNE(X64Register target) {
+		encodeRegReg8(OpCode2.SETNE, X64Register.RAX, target);
+	}
+
+	public void SETL(X64Register target) {
+		encodeRegReg8(OpCode2.SETL, X64Register.RAX, target);
+	}
+
+	public void SETLE(X64Register target) {
+		encodeRegReg8(OpCode2.SETLE, X64Register.RAX, target);
+	}
+
+	public void SETG(X64Register target) {
+		encodeRegReg8(OpCode2.SETG, X64Register.RAX, target);
+	}
+
+	public void SETGE(X64Register target) {
+		encodeRegReg8(OpCode2.SETGE, X64Register.RAX, target);
+	}
+
+	// movzx target32, source8
+	public void MOVZX8_RegReg(X64Register target, X64Register source) {
+		encodeRegReg8(OpCode2.MOVZX_R_RM8, target, source);
+	}
+
 	public void MOV_RegReg(X64Register target, X64Register source) {
 		encodeRegReg(OpCode.MOV_RM_R, null, source, target);
 	}
 
+	// mov target, [base + displacement]
+	public void MOV_RegMem(X64Register target, X64Register base, int displacement) {
+		encodeRegMem(OpCode.MOV_R_RM, null, true, target, base, null, 0, displacement);
+	}
+
+	// mov target, qword [base + index + displacement]
+	public void MOV_RegMem(X64Register target, X64Register base, X64Register index, int displacement) {
+		encodeRegMem(OpCode.MOV_R_RM, null, true, target, base, index, 0, displacement);
+	}
+
+	// mov target, qword [base + index * 2^scale + displacement]
+	public void MOV_RegMem(X64Register target, X64Register base, X64Register index, int scale, int displacement) {
+		encodeRegMem(OpCode.MOV_R_RM, null, true, target, base, index, scale, displacement);
+	}
+
+	// mov target32, dword [base + displacement], zero-extended
+	public void MOV32_RegMem(X64Register target, X64Register base, int displacement) {
+		encodeRegMem(OpCode.MOV_R_RM, null, false, target, base, null, 0, displacement);
+	}
+
+	// mov target32, dword [base + index + displacement], zero-extended
+	public void MOV32_RegMem(X64Register target, X64Register base, X64Register index, int displacement) {
+		encodeRegMem(OpCode.MOV_R_RM, null, false, target, base, index, 0, displacement);
+	}
+
+	// movsxd target, dword [base + index + displacement]
+	public void MOVSXD_RegMem(X64Register target, X64Register base, X64Register index, int displacement) {
+		encodeRegMem(OpCode.MOVSXD_R_RM, null, true, target, base, index, 0, displacement);
+	}
+
+	// movzx target32, byte [base + index + displacement]
+	public void MOVZX8_RegMem(X64Register target, X64Register base, X64Register index, int displacement) {
+		encodeRegMem(OpCode.EXTENDED, OpCode2.MOVZX_R_RM8, false, target, base, index, 0, displacement);
+	}
+
+	// mov qword [base + index + displacement], source
+	public void MOV_MemReg(X64Register base, X64Register index, int displacement, X64Register source) {
+		encodeRegMem(OpCode.MOV_RM_R, null, true, source, base, index, 0, displacement);
+	}
+
+	// mov qword [base + displacement], source
+	public void MOV_MemReg(X64Register base, int displacement, X64Register source) {
+		encodeRegMem(OpCode.MOV_RM_R, null, true, source, base, null, 0, displacement);
+	}
+
+	// mov dword [base + index + displacement], source32
+	public void MOV32_MemReg(X64Register base, X64Register index, int displacement, X64Register source) {
+		encodeRegMem(OpCode.MOV_RM_R, null, false, source, base, index, 0, displacement);
+	}
+
+	// mov byte [base + index + displacement], source8
+	public void MOV8_MemReg(X64Register base, X64Register index, int displacement, X64Register source) {
+		encodeRegMem(OpCode.MOV_RM8_R8, null, false, source, base, index, 0, displacement);
+	}
+
+	// lea target, [base + index * 2^scale]
+	public void LEA_RegMem(X64Register target, X64Register base, X64Register index, int scale) {
+		encodeRegMem(OpCode.LEA, null, true, target, base, index, scale, 0);
+	}
+
+	// lea target, [base + displacement]
+	public void LEA_RegMem(X64Register target, X64Register base, int displacement) {
+		encodeRegMem(OpCode.LEA, null, true, target, base, null, 0, displacement);
+	}
+
+	// movsxd target, source32
+	public void MOVSXD_RegReg(X64Register target, X64Register source) {
+		encodeRegReg(OpCode.MOVSXD_R_RM, null, target, source);
+	}
+
+	// mov target32, source32, which clears the upper half of target
+	public void MOV32_RegReg(X64Register target, X64Register source) {
+		encodeRegReg32(OpCode.MOV_RM_R, source, target);
+	}
+
+	public void SHL_RegImm(X64Register target, int amount) {
+		encodeRegReg(OpCode.SHIFT_RM_IMM8, null, X64Register.RSP, target); // /4
+		emit((byte) amount);
+	}
+
+	public void SHR_RegImm(X64Register target, int amount) {
+		encodeRegReg(OpCode.SHIFT_RM_IMM8, null, X64Register.RBP, target); // /5
+		emit((byte) amount);
+	}
+
+	public void ADD_RegImm(X64Register target, int immediate) {
+		encodeAluImm(true, X64Register.RAX, target, immediate); // /0
+	}
+
+	public void SUB_RegImm(X64Register target, int immediate) {
+		encodeAluImm(true, X64Register.RBP, target, immediate); // /5
+	}
+
+	// add qword [base + displacement], immediate
+	public void ADD_MemImm(X64Register base, int displacement, int immediate) {
+		encodeAluMemImm(X64Register.RAX, base, displacement, immediate); // /0
+	}
+
+	// cmp qword [base + displacement], immediate
+	public void CMP_MemImm(X64Register base, int displacement, int immediate) {
+		encodeAluMemImm(X64Register.RDI, base, displacement, immediate); // /7
+	}
+
+	// Takes the shortest encoding: a zero-extended or sign-extended 32-bit immediate if the value
+	// fits. Unlike XOR, it leaves the flags alone.
 	public void MOV_RegImm(X64Register target, long immediate) {
-		encodeRegNoModImm(OpCode.MOV_R_IMM, target, (int) (immediate & 0xFFFFFFFF), (int) (immediate >>> 32));
+		if (immediate >>> 32 == 0) {
+			encodeRegNoModImm(OpCode.MOV_R_IMM, target, (int) immediate, null);
+		} else if (immediate == (int) immediate) {
+			encodeRegReg(OpCode.MOV_RM_IMM32, null, X64Register.RAX, target); // /0
+			emitLittleEndian((int) immediate);
+		} else {
+			encodeRegNoModImm(OpCode.MOV_R_IMM, target, (int) (immediate & 0xFFFFFFFF), (int) (immediate >>> 32));
+		}
+	}
+
+	// mov target32, immediate, which clears the upper half of target
+	public void MOV32_RegImm(X64Register target, int immediate) {
+		encodeRegNoModImm(OpCode.MOV_R_IMM, target, immediate, null);
 	}
 
 	public void NEG(X64Register source) {
@@ -176,18 +488,68 @@ public class X64Assembler {
 		encodeRegNoMod(Prefix.NONE, OpCode.POP_R, reg);
 	}
 
+	// push qword [base + displacement]
+	public void PUSH_Mem(X64Register base, int displacement) {
+		encodeRegMem(OpCode.GROUP5, null, false, X64Register.RSI, base, null, 0, displacement); // /6
+	}
+
+	// pop qword [base + displacement]
+	public void POP_Mem(X64Register base, int displacement) {
+		encodeRegMem(OpCode.POP_RM, null, false, X64Register.RAX, base, null, 0, displacement); // /0
+	}
+
+	// push imm32, sign-extended to 64 bits
+	public void PUSH_Imm(int immediate) {
+		emit(OpCode.PUSH_IMM32.getCode());
+		emitLittleEndian(immediate);
+	}
+
+	public void CALL_Reg(X64Register target) {
+		encodeRegReg32(OpCode.GROUP5, X64Register.RDX, target); // /2
+	}
+
+	// call qword [base + displacement]
+	public void CALL_Mem(X64Register base, int displacement) {
+		encodeRegMem(OpCode.GROUP5, null, false, X64Register.RDX, base, null, 0, displacement); // /2
+	}
+
 	public void RET() {
 		emit(OpCode.RET.getCode());
 	}
 
 	private void encodeJump32(OpCode opCode1, OpCode2 opCode2, X64Label label) {
+		var position = size;
 		emit(opCode1.getCode());
 		if (opCode2 != null) {
 			emit(opCode2.getCode());
 		}
-		var jump = new X64Jump(4, code.size());
-		label.getJumps().add(jump);
 		emitLittleEndian(0);
+		jumps.add(new X64Jump(position, size - position, label));
+	}
+
+	// Group 1 operation with the immediate as a sign-extended byte if it fits.
+	private void encodeAluImm(boolean wide, X64Register extension, X64Register target, int immediate) {
+		if (isByte(immediate)) {
+			encodeRegReg(OpCode.ALU_RM_IMM8, null, wide, extension, target);
+			emit((byte) immediate);
+		} else {
+			encodeRegReg(OpCode.ALU_RM_IMM32, null, wide, extension, target);
+			emitLittleEndian(immediate);
+		}
+	}
+
+	private void encodeAluMemImm(X64Register extension, X64Register base, int displacement, int immediate) {
+		if (isByte(immediate)) {
+			encodeRegMem(OpCode.ALU_RM_IMM8, null, true, extension, base, null, 0, displacement);
+			emit((byte) immediate);
+		} else {
+			encodeRegMem(OpCode.ALU_RM_IMM32, null, true, extension, base, null, 0, displacement);
+			emitLittleEndian(immediate);
+		}
+	}
+
+	private static boolean isByte(int value) {
+		return value == (byte) value;
 	}
 
 	private void encodeRegNoModImm(OpCode opCode, X64Register reg, int lowImm, Integer highImm) {
@@ -212,8 +574,11 @@ public class X64Assembler {
 	}
 
 	private void encodeRegReg(OpCode opCode1, OpCode2 opCode2, X64Register reg, X64Register rm) {
-		var prefix = Prefix.NONE.getCode();
-		prefix |= Prefix.REX_W.getCode();
+		encodeRegReg(opCode1, opCode2, true, reg, rm);
+	}
+
+	private void encodeRegReg(OpCode opCode1, OpCode2 opCode2, boolean wide, X64Register reg, X64Register rm) {
+		var prefix = wide ? Prefix.REX_W.getCode() : Prefix.NONE.getCode();
 		if (reg.getCode() >= X64Register.R8.getCode()) {
 			prefix |= Prefix.REX_R.getCode();
 		}
@@ -230,27 +595,105 @@ public class X64Assembler {
 		emit(modRM(rm, reg));
 	}
 
+	private void encodeRegMem(OpCode opCode1, OpCode2 opCode2, boolean wide, X64Register reg, X64Register base,
+			X64Register index, int scale, int displacement) {
+		var prefix = wide ? Prefix.REX_W.getCode() : Prefix.NONE.getCode();
+		if (reg.getCode() >= X64Register.R8.getCode()) {
+			prefix |= Prefix.REX_R.getCode();
+		}
+		if (index != null && index.getCode() >= X64Register.R8.getCode()) {
+			prefix |= REX_X;
+		}
+		if (base.getCode() >= X64Register.R8.getCode()) {
+			prefix |= Prefix.REX_B.getCode();
+		}
+		if (opCode1 == OpCode.MOV_RM8_R8 && reg.getCode() >= X64Register.RSP.getCode()) {
+			prefix |= REX; // addresses SPL, BPL, SIL and DIL instead of AH, CH, DH and BH
+		}
+		if (prefix != Prefix.NONE.getCode()) {
+			emit(prefix);
+		}
+		emit(opCode1.getCode());
+		if (opCode2 != null) {
+			emit(opCode2.getCode());
+		}
+		// mod 00 without displacement, except for RBP and R13 as base, where it means none; mod 01
+		// with a byte; mod 10 with 32 bits
+		int mod;
+		if (displacement == 0 && (base.getCode() & 7) != X64Register.RBP.getCode()) {
+			mod = 0x00;
+		} else if (isByte(displacement)) {
+			mod = 0x40;
+		} else {
+			mod = 0x80;
+		}
+		if (index == null && (base.getCode() & 7) != X64Register.RSP.getCode()) {
+			emit((byte) (mod | (reg.getCode() & 7) << 3 | base.getCode() & 7));
+		} else {
+			// SIB byte, also needed for RSP and R12 as base; index 100 stands for none
+			var indexCode = index != null ? index.getCode() & 7 : X64Register.RSP.getCode();
+			emit((byte) (mod | (reg.getCode() & 7) << 3 | 0b100));
+			emit((byte) (scale << 6 | indexCode << 3 | base.getCode() & 7));
+		}
+		if (mod == 0x40) {
+			emit((byte) displacement);
+		} else if (mod == 0x80) {
+			emitLittleEndian(displacement);
+		}
+	}
+
+	// Two-byte opcode with an 8-bit register as r/m operand.
+	private void encodeRegReg8(OpCode2 opCode2, X64Register reg, X64Register rm) {
+		var prefix = Prefix.NONE.getCode();
+		if (reg.getCode() >= X64Register.R8.getCode()) {
+			prefix |= Prefix.REX_R.getCode();
+		}
+		if (rm.getCode() >= X64Register.R8.getCode()) {
+			prefix |= Prefix.REX_B.getCode();
+		}
+		if (rm.getCode() >= X64Register.RSP.getCode()) {
+			prefix |= REX; // addresses SPL, BPL, SIL and DIL instead of AH, CH, DH and BH
+		}
+		if (prefix != Prefix.NONE.getCode()) {
+			emit(prefix);
+		}
+		emit(OpCode.EXTENDED.getCode());
+		emit(opCode2.getCode());
+		emit(modRM(rm, reg));
+	}
+
+	private void encodeRegReg32(OpCode opCode, X64Register reg, X64Register rm) {
+		encodeRegReg(opCode, null, false, reg, rm);
+	}
+
 	private byte modRM(X64Register rm, X64Register reg) {
 		return (byte) (0xC0 | (reg.getCode() & 7) << 3 | rm.getCode() & 7);
 	}
 
 	private void emitLittleEndian(int number) {
-		int value = number;
-		for (int offset = 0; offset < 4; offset++) {
-			emit((byte) (value & 0xFF));
-			value >>>= 8;
-		}
+		ensureCapacity(4);
+		writeLittleEndian(code, size, number);
+		size += 4;
 	}
 
 	private void emit(byte value) {
-		code.add(value);
+		ensureCapacity(1);
+		code[size++] = value;
 	}
 
-	private void writeLittleEndian(int position, int number) {
-		int value = number;
-		for (int offset = 0; offset < 4; offset++) {
-			code.set(position + offset, (byte) (value & 0xFF));
-			value >>>= 8;
+	private void ensureCapacity(int bytes) {
+		if (result != null) {
+			throw new AssertionError("Code already completed");
+		}
+		if (size + bytes > code.length) {
+			code = Arrays.copyOf(code, Math.max(2 * code.length, size + bytes));
 		}
 	}
+
+	private static void writeLittleEndian(byte[] array, int position, int number) {
+		array[position] = (byte) number;
+		array[position + 1] = (byte) (number >>> 8);
+		array[position + 2] = (byte) (number >>> 16);
+		array[position + 3] = (byte) (number >>> 24);
+	}
 }
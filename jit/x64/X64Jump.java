@@ -1,19 +1,36 @@
 package jit.x64;
 
+// A JMP or Jcc with a 32-bit displacement, which may be relaxed to the 2-byte short form.
 class X64Jump {
-	private final int byteSize;
 	private final int position;
+	private final int size;
+	private final X64Label label;
+	private boolean isShort;
 
-	public X64Jump(int byteSize, int position) {
-		this.byteSize = byteSize;
+	public X64Jump(int position, int size, X64Label label) {
 		this.position = position;
-	}
-
-	public int getByteSize() {
-		return byteSize;
+		this.size = size;
+		this.label = label;
 	}
 
 	public int getPosition() {
 		return position;
 	}
+
+	// Size of the 32-bit form.
+	public int getSize() {
+		return size;
+	}
+
+	public X64Label getLabel() {
+		return label;
+	}
+
+	public boolean isShort() {
+		return isShort;
+	}
+
+	public void setShort(boolean isShort) {
+		this.isShort = isShort;
+	}
 }
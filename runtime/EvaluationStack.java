@@ -1,33 +1,128 @@
 package runtime;
 
-import java.util.Deque;
-import java.util.LinkedList;
+import java.util.Objects;
+
 import error.InvalidBytecodeException;
+import runtime.heap.Heap;
+import runtime.heap.Pointer;
 
+// Ints and references pushed through the typed methods stay unboxed in a primitive slot; a Pointer
+// or Integer is only created when such a slot is popped as an Object.
 public class EvaluationStack {
 	private static final int LIMIT = 100;
+	// Markers in the value slot of an unboxed int or reference.
+	private static final Object INT = new Object();
+	private static final Object REFERENCE = new Object();
 
-	private final Deque<Object> stack = new LinkedList<>();
+	private final Object[] values = new Object[LIMIT];
+	private final long[] primitives = new long[LIMIT];
+	private int size;
 
 	public void push(Object value) {
-		if (stack.size() == LIMIT) {
+		if (size == LIMIT) {
 			throw new InvalidBytecodeException("Evaluation stack overflow");
 		}
-		stack.push(value);
+		values[size++] = value;
+	}
+
+	public void pushInt(int value) {
+		push(INT);
+		primitives[size - 1] = value;
+	}
+
+	// The null pointer is pushed as null.
+	public void pushReference(long address) {
+		if (address == Heap.NULL_POINTER) {
+			push(null);
+		} else {
+			push(REFERENCE);
+			primitives[size - 1] = address;
+		}
 	}
 
 	public Object pop() {
-		if (stack.size() == 0) {
-			throw new InvalidBytecodeException("Evaluation stack underflow");
+		checkDepth(0);
+		var value = get(--size);
+		values[size] = null;
+		return value;
+	}
+
+	public int popInt() {
+		checkDepth(0);
+		var value = values[--size];
+		values[size] = null;
+		if (value == INT) {
+			return (int) primitives[size];
+		} else if (value instanceof Integer) {
+			return (int) value;
+		}
+		throw new InvalidBytecodeException("Expected int instead of " + (value == REFERENCE ? get(size) : value));
+	}
+
+	public long popReference() {
+		var address = peekReference(0);
+		values[--size] = null;
+		return address;
+	}
+
+	// Returns the reference at the given depth below the top, without popping it.
+	public long peekReference(int depth) {
+		checkDepth(depth);
+		var index = size - 1 - depth;
+		var value = values[index];
+		if (value == null) {
+			return Heap.NULL_POINTER;
+		} else if (value == REFERENCE) {
+			return primitives[index];
+		} else if (value instanceof Pointer) {
+			return ((Pointer) value).getAddress();
+		}
+		throw new InvalidBytecodeException("Expected pointer instead of " + get(index));
+	}
+
+	// Pops two values and compares them; unboxed values of the same kind are compared directly.
+	public boolean popEquals() {
+		checkDepth(1);
+		var right = size - 1;
+		var left = size - 2;
+		boolean equal;
+		if (values[left] == values[right] && (values[left] == INT || values[left] == REFERENCE)) {
+			equal = primitives[left] == primitives[right];
+		} else {
+			equal = Objects.equals(get(left), get(right));
 		}
-		return stack.pop();
+		values[right] = null;
+		values[left] = null;
+		size -= 2;
+		return equal;
 	}
-	
+
 	public boolean isEmpty() {
-		return stack.isEmpty();
+		return size == 0;
 	}
 
+	// From the top down.
 	public Object[] toArray() {
-		return stack.toArray();
+		var array = new Object[size];
+		for (int index = 0; index < size; index++) {
+			array[index] = get(size - 1 - index);
+		}
+		return array;
+	}
+
+	private void checkDepth(int depth) {
+		if (size <= depth) {
+			throw new InvalidBytecodeException("Evaluation stack underflow");
+		}
+	}
+
+	private Object get(int index) {
+		var value = values[index];
+		if (value == INT) {
+			return (int) primitives[index];
+		} else if (value == REFERENCE) {
+			return new Pointer(primitives[index]);
+		}
+		return value;
 	}
 }
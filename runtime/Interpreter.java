@@ -1,53 +1,134 @@
 package runtime;
 
+import java.util.HashMap;
 import java.util.Objects;
 import java.util.Scanner;
-import java.util.function.BiFunction;
 import java.util.function.IntBinaryOperator;
 
 import bytecode.Instruction;
 import error.InvalidBytecodeException;
 import error.VMException;
-import jit.JITCompiler;
-import jit.JITNative;
+import jit.CodeCache;
+import jit.CompilationQueue;
+import jit.CompiledMethod;
+import jit.DispatchTable;
+import jit.HeapAccess;
+import jit.JITOptions;
 import jit.JITPrecondition;
 import runtime.descriptors.ArrayDescriptor;
 import runtime.descriptors.ClassDescriptor;
 import runtime.descriptors.FieldDescriptor;
 import runtime.descriptors.MethodDescriptor;
 import runtime.descriptors.TypeDescriptor;
+import runtime.heap.GCMode;
+import runtime.heap.GCStatistics;
 import runtime.heap.Heap;
+import runtime.heap.HeapOptions;
 import runtime.heap.Pointer;
 
 public class Interpreter {
+	// Holds the result of a method that compiled code calls in the interpreter.
+	private static final MethodDescriptor NATIVE_TRANSITION = new MethodDescriptor("native call");
+
 	private final Loader loader;
 	private final CallStack callStack = new CallStack();
 	private final Heap heap;
 	private final Scanner input = new Scanner(System.in);
 	private final boolean useJIT;
+	private final int compileThreshold;
+	private final int backEdgeThreshold;
+	private final CodeCache codeCache;
+	private final HeapAccess heapAccess;
+	private final DispatchTable dispatchTable;
+	private final CompilationQueue compilationQueue;
 
 	public Interpreter(Loader loader, boolean useJIT) {
+		this(loader, useJIT, new HeapOptions());
+	}
+
+	public Interpreter(Loader loader, boolean useJIT, HeapOptions heapOptions) {
+		this(loader, heapOptions, jitOptions(useJIT));
+	}
+
+	public Interpreter(Loader loader, HeapOptions heapOptions, JITOptions jitOptions) {
 		Objects.requireNonNull(loader);
+		Objects.requireNonNull(heapOptions);
+		Objects.requireNonNull(jitOptions);
 		this.loader = loader;
-		heap = new Heap(callStack);
-		this.useJIT = useJIT;
+		if (loader.getReferenceSize() != heapOptions.getReferenceSize()) {
+			throw new IllegalArgumentException("Loader and heap use different reference sizes");
+		}
+		heap = new Heap(callStack, heapOptions, loader::findType);
+		useJIT = jitOptions.isEnabled();
+		compileThreshold = jitOptions.getCompileThreshold();
+		backEdgeThreshold = jitOptions.getBackEdgeThreshold();
+		codeCache = new CodeCache(jitOptions.getCodeCacheSize());
+		var gcMode = heapOptions.getGCMode();
+		heapAccess = new HeapAccess(heap.getNativeAddress(), heap.isCompressedReferences(),
+				gcMode == GCMode.SERIAL || gcMode == GCMode.PARALLEL);
+		dispatchTable = useJIT && heapAccess.isAvailable() ? createDispatchTable() : null;
+		compilationQueue = new CompilationQueue(useJIT ? jitOptions.getCompilerThreads() : 0, heapAccess,
+				dispatchTable);
+		if (jitOptions.isPrintIr()) {
+			compilationQueue.setIrListener(System.err::print);
+		}
+	}
+
+	// Registers every class with the heap first, so that the table covers all receiver types.
+	private DispatchTable createDispatchTable() {
+		var typeIds = new HashMap<ClassDescriptor, Integer>();
+		for (var type : loader.getClassDescriptors()) {
+			typeIds.put(type, heap.getTypeId(type));
+		}
+		var table = new DispatchTable(typeIds, this::invokeFromNative);
+		codeCache.setListener(table::update);
+		heap.setNativeRoots(table::visitRoots);
+		return table;
+	}
+
+	private static JITOptions jitOptions(boolean useJIT) {
+		var options = new JITOptions();
+		options.setEnabled(useJIT);
+		return options;
 	}
 
 	public void run() {
-		setProgramEntry();
-		while (!callStack.isEmpty()) {
-			step();
+		try {
+			setProgramEntry();
+			while (!callStack.isEmpty()) {
+				step();
+			}
+		} finally {
+			compilationQueue.close();
+			codeCache.close();
+			if (dispatchTable != null) {
+				dispatchTable.close();
+			}
+			heap.close();
 		}
 	}
 
+	public GCStatistics getGCStatistics() {
+		return heap.getStatistics();
+	}
+
+	public CodeCache getCodeCache() {
+		return codeCache;
+	}
+
 	private void setProgramEntry() {
 		var mainMethod = loader.getMainMethod();
 		var mainClass = loader.getMainClass();
 		if (mainMethod.getReturnType() != null || mainMethod.getParameterTypes().length != 0) {
 			throw new InvalidBytecodeException("Invalid main method");
 		}
-		var mainObject = newObject(mainClass);
-		invokeVirtual(mainMethod, mainObject, new Object[0]);
+		// With a heap file, the main object is kept as the persistent root and reused by later runs.
+		var mainObject = heap.getPersistentRoot();
+		if (mainObject == Heap.NULL_POINTER || heap.getDescriptor(mainObject) != mainClass) {
+			mainObject = heap.allocateObject(mainClass);
+			heap.setPersistentRoot(mainObject);
+		}
+		invokeVirtual(mainMethod, toPointer(mainObject), new Object[0]);
 	}
 
 	private void step() {
@@ -89,16 +170,16 @@ public class Interpreter {
 			arithmetic((x, y) -> x % y);
 			break;
 		case INEG:
-			push(-checkInt(pop()));
+			pushInt(-popInt());
 			break;
 		case BNEG:
 			push(!checkBoolean(pop()));
 			break;
 		case CMPEQ:
-			compareAny((x, y) -> Objects.equals(x, y));
+			push(activeFrame().getEvaluationStack().popEquals());
 			break;
 		case CMPNE:
-			compareAny((x, y) -> !Objects.equals(x, y));
+			push(!activeFrame().getEvaluationStack().popEquals());
 			break;
 		case ICMPLT:
 			compareInt((x, y) -> x < y);
@@ -193,30 +274,55 @@ public class Interpreter {
 	}
 
 	private void arithmetic(IntBinaryOperator op) {
-		var right = checkInt(pop());
-		var left = checkInt(pop());
+		var right = popInt();
+		var left = popInt();
 		var result = op.applyAsInt(left, right);
-		push(result);
+		pushInt(result);
 	}
 
-	private void compareAny(BiFunction<Object, Object, Boolean> op) {
-		var right = pop();
-		var left = pop();
-		var result = op.apply(left, right);
+	private void compareInt(IntBiPredicate op) {
+		var right = popInt();
+		var left = popInt();
+		var result = op.test(left, right);
 		push(result);
 	}
 
-	private void compareInt(BiFunction<Integer, Integer, Boolean> op) {
-		var right = checkInt(pop());
-		var left = checkInt(pop());
-		var result = op.apply(left, right);
-		push(result);
+	private interface IntBiPredicate {
+		boolean test(int left, int right);
 	}
 
 	private void branch(Object operand) {
 		int offset = checkInt(operand);
 		var frame = activeFrame();
+		var backEdge = useJIT && offset < 0;
+		if (backEdge) {
+			var method = frame.getMethod();
+			if (method.isCompilationQueued()) {
+				installCompiledCode();
+			}
+			if (method.countBackEdge(frame.getInstructionPointer() - 1) >= backEdgeThreshold) {
+				requestCompilation(method);
+			}
+		}
 		frame.setInstructionPointer(frame.getInstructionPointer() + offset);
+		if (backEdge && frame.getMethod().getCompiledMethod() != null) {
+			performOsr(frame, frame.getMethod().getCompiledMethod());
+		}
+	}
+
+	// Replaces the interpreted frame, which just branched back to a loop header, by compiled code.
+	private void performOsr(ActivationFrame frame, CompiledMethod compiled) {
+		var loopHeader = frame.getInstructionPointer();
+		if (!compiled.hasOsrEntry(loopHeader) || dispatchTable != null && dispatchTable.isCallDepthExceeded()) {
+			return;
+		}
+		codeCache.recordHit(compiled);
+		var result = compiled.callOsr(loopHeader, frame.getThisReference(), frame.getParameters(),
+				frame.getLocals(), frame.getEvaluationStack().toArray());
+		callStack.pop();
+		if (frame.getMethod().getReturnType() != null) {
+			push(result);
+		}
 	}
 
 	private void loadLocal(Object operand) {
@@ -260,50 +366,65 @@ public class Interpreter {
 			throw new InvalidBytecodeException("newarray has no array type operand");
 		}
 		var arrayType = (ArrayDescriptor) operand;
-		var length = checkInt(pop());
+		var length = popInt();
 		if (length < 0) {
 			throw new VMException("Negative array length");
 		}
-		var array = heap.allocateArray(arrayType, length);
-		var defaultValue = defaultValue(arrayType.getElementType());
-		for (int index = 0; index < length; index++) {
-			heap.writeElement(array, index, defaultValue);
-		}
-		push(array);
+		// Heap blocks are zeroed, which is the default value of every element type.
+		pushReference(heap.allocateArray(arrayType, length));
 	}
 
 	private void arrayLength() {
-		var array = checkPointer(pop());
-		if (array == null) {
+		var array = popReference();
+		if (array == Heap.NULL_POINTER) {
 			throw new VMException("Null dereferenced");
 		}
-		push(heap.getArrayLength(array));
+		pushInt(heap.getArrayLength(array));
 	}
 
 	private void arrayLoad() {
-		var index = checkInt(pop());
-		var array = checkPointer(pop());
+		var index = popInt();
+		var array = popReference();
 		checkArrayIndex(array, index);
-		var value = heap.readElement(array, index);
-		push(value);
+		pushElement(array, getArrayDescriptor(array).getElementType(), index);
 	}
 
+	// The array below the value and the index selects how the value is popped.
 	private void arrayStore() {
-		var value = pop();
-		var index = checkInt(pop());
-		var array = checkPointer(pop());
-		checkArrayIndex(array, index);
-		var descriptor = heap.getDescriptor(array);
-		if (!(descriptor instanceof ArrayDescriptor)) {
-			throw new InvalidBytecodeException("astore does not refer to an array");
+		var array = activeFrame().getEvaluationStack().peekReference(2);
+		if (array == Heap.NULL_POINTER) {
+			throw new VMException("Null dereferenced");
+		}
+		var elementType = getArrayDescriptor(array).getElementType();
+		if (elementType == TypeDescriptor.INT_TYPE) {
+			var value = popInt();
+			var index = popInt();
+			popReference();
+			checkArrayIndex(array, index);
+			heap.writeIntElement(array, index, value);
+		} else if (elementType == TypeDescriptor.BOOLEAN_TYPE || elementType == TypeDescriptor.STRING_TYPE) {
+			var value = pop();
+			var index = popInt();
+			popReference();
+			checkArrayIndex(array, index);
+			checkType(value, elementType);
+			if (elementType == TypeDescriptor.BOOLEAN_TYPE) {
+				heap.writeBooleanElement(array, index, (boolean) value);
+			} else {
+				heap.writeStringElement(array, index, (String) value);
+			}
+		} else {
+			var value = popReference();
+			var index = popInt();
+			popReference();
+			checkArrayIndex(array, index);
+			checkReference(value, elementType);
+			heap.writeReferenceElement(array, index, value);
 		}
-		var elementType = ((ArrayDescriptor) descriptor).getElementType();
-		checkType(value, elementType);
-		heap.writeElement(array, index, value);
 	}
 
-	private void checkArrayIndex(Pointer array, int index) {
-		if (array == null) {
+	private void checkArrayIndex(long array, int index) {
+		if (array == Heap.NULL_POINTER) {
 			throw new VMException("Null dereferenced");
 		}
 		if (index < 0 || index >= heap.getArrayLength(array)) {
@@ -312,8 +433,8 @@ public class Interpreter {
 	}
 
 	private void instanceofTest(Object operand) {
-		var instance = checkPointer(pop());
-		if (instance == null) {
+		var instance = popReference();
+		if (instance == Heap.NULL_POINTER) {
 			push(false);
 		} else {
 			if (!(operand instanceof ClassDescriptor)) {
@@ -325,8 +446,8 @@ public class Interpreter {
 	}
 
 	private void checkCast(Object operand) {
-		var instance = checkPointer(pop());
-		push(instance);
+		var instance = popReference();
+		pushReference(instance);
 		if (!(operand instanceof ClassDescriptor)) {
 			throw new InvalidBytecodeException("checkcast has no class operand");
 		}
@@ -341,18 +462,18 @@ public class Interpreter {
 			throw new InvalidBytecodeException("getfield has no field operand");
 		}
 		var field = (FieldDescriptor) operand;
-		var instance = checkPointer(pop());
-		if (instance == null) {
-			throw new VMException("Null dereferenced");
-		}
-		var classType = getClassDescriptor(instance);
-		var fieldTypes = classType.getAllFields();
-		var index = field.getIndex();
-		if (index < 0 || index >= fieldTypes.length || fieldTypes[index] != field) {
-			throw new InvalidBytecodeException("Invalid field operand");
+		var instance = popReference();
+		checkField(instance, field);
+		var type = field.getType();
+		if (type == TypeDescriptor.BOOLEAN_TYPE) {
+			push(heap.readBooleanField(instance, field));
+		} else if (type == TypeDescriptor.INT_TYPE) {
+			pushInt(heap.readIntField(instance, field));
+		} else if (type == TypeDescriptor.STRING_TYPE) {
+			push(heap.readStringField(instance, field));
+		} else {
+			pushReference(heap.readReferenceField(instance, field));
 		}
-		var value = heap.readField(instance, index);
-		push(value);
 	}
 
 	private void putField(Object operand) {
@@ -360,19 +481,40 @@ public class Interpreter {
 			throw new InvalidBytecodeException("putfield has no field operand");
 		}
 		var field = (FieldDescriptor) operand;
-		var value = pop();
-		var instance = checkPointer(pop());
-		if (instance == null) {
+		var type = field.getType();
+		if (type == TypeDescriptor.INT_TYPE) {
+			var value = popInt();
+			var instance = popReference();
+			checkField(instance, field);
+			heap.writeIntField(instance, field, value);
+		} else if (type == TypeDescriptor.BOOLEAN_TYPE || type == TypeDescriptor.STRING_TYPE) {
+			var value = pop();
+			var instance = popReference();
+			checkField(instance, field);
+			checkType(value, type);
+			if (type == TypeDescriptor.BOOLEAN_TYPE) {
+				heap.writeBooleanField(instance, field, (boolean) value);
+			} else {
+				heap.writeStringField(instance, field, (String) value);
+			}
+		} else {
+			var value = popReference();
+			var instance = popReference();
+			checkField(instance, field);
+			checkReference(value, type);
+			heap.writeReferenceField(instance, field, value);
+		}
+	}
+
+	private void checkField(long instance, FieldDescriptor field) {
+		if (instance == Heap.NULL_POINTER) {
 			throw new VMException("Null dereferenced");
 		}
-		var classType = getClassDescriptor(instance);
-		var allFields = classType.getAllFields();
+		var allFields = getClassDescriptor(instance).getAllFields();
 		var index = field.getIndex();
 		if (index < 0 || index >= allFields.length || allFields[index] != field) {
 			throw new InvalidBytecodeException("Invalid field operand");
 		}
-		checkType(value, field.getType());
-		heap.writeField(instance, index, value);
 	}
 
 	private void newObject(Object operand) {
@@ -380,16 +522,29 @@ public class Interpreter {
 			throw new InvalidBytecodeException("new has no class operand");
 		}
 		var classType = (ClassDescriptor) operand;
-		push(newObject(classType));
+		// Heap blocks are zeroed, which is the default value of every field type.
+		pushReference(heap.allocateObject(classType));
+	}
+
+	// The element type selects the typed heap accessor; ints and references are pushed unboxed.
+	private void pushElement(long array, TypeDescriptor elementType, int index) {
+		if (elementType == TypeDescriptor.BOOLEAN_TYPE) {
+			push(heap.readBooleanElement(array, index));
+		} else if (elementType == TypeDescriptor.INT_TYPE) {
+			pushInt(heap.readIntElement(array, index));
+		} else if (elementType == TypeDescriptor.STRING_TYPE) {
+			push(heap.readStringElement(array, index));
+		} else {
+			pushReference(heap.readReferenceElement(array, index));
+		}
 	}
 
-	private Pointer newObject(ClassDescriptor type) {
-		var newObject = heap.allocateObject(type);
-		var fields = type.getAllFields();
-		for (int index = 0; index < fields.length; index++) {
-			heap.writeField(newObject, index, defaultValue(fields[index].getType()));
-		}
-		return newObject;
+	private static Pointer toPointer(long address) {
+		return address == Heap.NULL_POINTER ? null : new Pointer(address);
+	}
+
+	private static long toAddress(Pointer pointer) {
+		return pointer == null ? Heap.NULL_POINTER : pointer.getAddress();
 	}
 
 	private void invokeVirtual(Object operand) {
@@ -412,25 +567,72 @@ public class Interpreter {
 			throw new VMException("Null dereferenced");
 		}
 		@SuppressWarnings("unused")
-		var type = getClassDescriptor(target);
+		var type = getClassDescriptor(target.getAddress());
 		// TODO: Homework Week 7: Implement
 		//var dynamicMethod = staticMethod; // TODO: Correct this line with homework week 7
 		int postition=staticMethod.getPosition();
 		var dynamicMethod=type.getVirtualTable()[postition];
 		var locals = initLocals(staticMethod.getLocalTypes());
-		if (useJIT && JITPrecondition.fulfilled(dynamicMethod)) {
-			performJITCall(dynamicMethod, arguments);
-		} else {
+		if (!useJIT || !performJITCall(dynamicMethod, target, arguments)) {
 			callStack.push(new ActivationFrame(dynamicMethod, target, arguments, locals));
 		}
 	}
 
-	private void performJITCall(MethodDescriptor dynamicMethod, Object[] arguments) {
-		var code = new JITCompiler(dynamicMethod).getCode();
-		var result = JITNative.call(code, arguments, dynamicMethod.getReturnType());
+	// Returns false if the method has to be interpreted.
+	private boolean performJITCall(MethodDescriptor dynamicMethod, Pointer target, Object[] arguments) {
+		if (dispatchTable != null && dispatchTable.isCallDepthExceeded()) {
+			return false;
+		}
+		installCompiledCode();
+		var compiled = dynamicMethod.getCompiledMethod();
+		if (compiled == null) {
+			if (dynamicMethod.countInvocation() >= compileThreshold) {
+				requestCompilation(dynamicMethod);
+				compiled = dynamicMethod.getCompiledMethod();
+			}
+			if (compiled == null) {
+				return false;
+			}
+		}
+		codeCache.recordHit(compiled);
+		var result = compiled.call(target, arguments);
 		if (dynamicMethod.getReturnType() != null) {
 			push(result);
 		}
+		return true;
+	}
+
+	private void requestCompilation(MethodDescriptor method) {
+		if (method.getCompiledMethod() != null || method.isCompilationQueued() || method.isNotCompilable()) {
+			return;
+		}
+		if (!JITPrecondition.fulfilled(method, heapAccess, dispatchTable)) {
+			method.setNotCompilable(true);
+			return;
+		}
+		codeCache.recordMiss();
+		compilationQueue.submit(method, method.getHotness());
+		installCompiledCode();
+	}
+
+	// Evicted code must not be running, so nothing is evicted while compiled frames are active.
+	private void installCompiledCode() {
+		compilationQueue.installCompleted(codeCache, dispatchTable == null || dispatchTable.getCallDepth() == 0);
+	}
+
+	// Called by compiled code for a method without compiled entry, or once the native call depth
+	// is used up. The callee returns into a transition frame, which ends the nested loop.
+	private Object invokeFromNative(MethodDescriptor method, Pointer target, Object[] arguments) {
+		var transition = new ActivationFrame(NATIVE_TRANSITION, null, new Object[0], new Object[0]);
+		callStack.push(transition);
+		if (!performJITCall(method, target, arguments)) {
+			callStack.push(new ActivationFrame(method, target, arguments, initLocals(method.getLocalTypes())));
+			while (activeFrame() != transition) {
+				step();
+			}
+		}
+		callStack.pop();
+		return method.getReturnType() != null ? transition.getEvaluationStack().pop() : null;
 	}
 
 	private Object[] initLocals(TypeDescriptor[] localTypes) {
@@ -446,7 +648,7 @@ public class Interpreter {
 			var message = checkString(pop());
 			throw new VMException("HALT: " + message);
 		} else if (operand == MethodDescriptor.WRITE_INT_METHOD) {
-			var value = checkInt(pop());
+			var value = popInt();
 			System.out.print(value);
 		} else if (operand == MethodDescriptor.WRITE_STRING_METHOD) {
 			var value = checkString(pop());
@@ -456,12 +658,69 @@ public class Interpreter {
 			input.nextLine();
 		} else if (operand == MethodDescriptor.READ_STRING_METHOD) {
 			push(input.nextLine());
+		} else if (operand == MethodDescriptor.ARRAY_COPY_METHOD) {
+			arrayCopy();
+		} else if (operand == MethodDescriptor.FILL_METHOD) {
+			arrayFill();
 		} else {
 			throw new InvalidBytecodeException("invokestatic for undefined inbuilt method");
 		}
 	}
 
-	private ClassDescriptor getClassDescriptor(Pointer instance) {
+	// arraycopy(source, sourcePosition, target, targetPosition, length) between arrays of the same type.
+	private void arrayCopy() {
+		var length = popInt();
+		var targetPosition = popInt();
+		var target = popReference();
+		var sourcePosition = popInt();
+		var source = popReference();
+		if (source == Heap.NULL_POINTER || target == Heap.NULL_POINTER) {
+			throw new VMException("Null dereferenced");
+		}
+		var arrayType = getArrayDescriptor(source);
+		if (getArrayDescriptor(target) != arrayType) {
+			throw new VMException("Array type mismatch");
+		}
+		checkArrayRange(source, sourcePosition, length);
+		checkArrayRange(target, targetPosition, length);
+		heap.copyElements(arrayType, source, sourcePosition, target, targetPosition, length);
+	}
+
+	// fill(array, value) sets every element to the value.
+	private void arrayFill() {
+		var value = pop();
+		var array = popReference();
+		if (array == Heap.NULL_POINTER) {
+			throw new VMException("Null dereferenced");
+		}
+		var elementType = getArrayDescriptor(array).getElementType();
+		checkType(value, elementType);
+		if (elementType == TypeDescriptor.BOOLEAN_TYPE) {
+			heap.fillBooleanElements(array, (boolean) value);
+		} else if (elementType == TypeDescriptor.INT_TYPE) {
+			heap.fillIntElements(array, (int) value);
+		} else if (elementType == TypeDescriptor.STRING_TYPE) {
+			heap.fillStringElements(array, (String) value);
+		} else {
+			heap.fillReferenceElements(array, toAddress((Pointer) value));
+		}
+	}
+
+	private void checkArrayRange(long array, int position, int length) {
+		if (position < 0 || length < 0 || position > heap.getArrayLength(array) - length) {
+			throw new VMException("Array index out of range");
+		}
+	}
+
+	private ArrayDescriptor getArrayDescriptor(long array) {
+		var descriptor = heap.getDescriptor(array);
+		if (!(descriptor instanceof ArrayDescriptor)) {
+			throw new InvalidBytecodeException("Type mismatch");
+		}
+		return (ArrayDescriptor) descriptor;
+	}
+
+	private ClassDescriptor getClassDescriptor(long instance) {
 		var descriptor = heap.getDescriptor(instance);
 		if (!(descriptor instanceof ClassDescriptor)) {
 			throw new InvalidBytecodeException("Type mismatch");
@@ -486,14 +745,20 @@ public class Interpreter {
 			checkInt(value);
 		} else if (type == TypeDescriptor.STRING_TYPE) {
 			checkString(value);
-		} else if (!typeTest(checkPointer(value), type)) {
+		} else {
+			checkReference(toAddress(checkPointer(value)), type);
+		}
+	}
+
+	private void checkReference(long value, TypeDescriptor type) {
+		if (!typeTest(value, type)) {
 			throw new InvalidBytecodeException("Type mismatch");
 		}
 	}
 
 	@SuppressWarnings("unused")
-	private boolean typeTest(Pointer instance, TypeDescriptor targetType) {
-		if (instance == null) {
+	private boolean typeTest(long instance, TypeDescriptor targetType) {
+		if (instance == Heap.NULL_POINTER) {
 			return true;
 		}
 		var sourceType = heap.getDescriptor(instance);
@@ -546,7 +811,23 @@ public class Interpreter {
 		activeFrame().getEvaluationStack().push(value);
 	}
 
+	private void pushInt(int value) {
+		activeFrame().getEvaluationStack().pushInt(value);
+	}
+
+	private void pushReference(long address) {
+		activeFrame().getEvaluationStack().pushReference(address);
+	}
+
 	private Object pop() {
 		return activeFrame().getEvaluationStack().pop();
 	}
+
+	private int popInt() {
+		return activeFrame().getEvaluationStack().popInt();
+	}
+
+	private long popReference() {
+		return activeFrame().getEvaluationStack().popReference();
+	}
 }
@@ -2,6 +2,7 @@ package runtime;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -24,18 +25,32 @@ import runtime.descriptors.TypeDescriptor;
 
 public class Loader {
 	private final BytecodeAssembly assembly;
+	private final int referenceSize;
 	private final Map<BytecodeType, TypeDescriptor> typeMap = new HashMap<>();
 	private final Map<BytecodeMethod, MethodDescriptor> methodMap = new HashMap<>();
 	private final Map<BytecodeField, FieldDescriptor> fieldMap = new HashMap<>();
 
 	public Loader(BytecodeAssembly assembly) {
+		this(assembly, Long.BYTES);
+	}
+
+	// The reference size must match the heap: 4 bytes with compressed references, 8 otherwise.
+	public Loader(BytecodeAssembly assembly, int referenceSize) {
 		Objects.requireNonNull(assembly);
+		if (referenceSize != Integer.BYTES && referenceSize != Long.BYTES) {
+			throw new IllegalArgumentException("Unsupported reference size " + referenceSize);
+		}
 		this.assembly = assembly;
+		this.referenceSize = referenceSize;
 		registerInbuilts();
 		createDescriptors();
 		patchCode();
 	}
 	
+	public int getReferenceSize() {
+		return referenceSize;
+	}
+
 	public MethodDescriptor getMainMethod() {
 		return getMethodDescriptor(assembly.getMainMethod());
 	}
@@ -80,6 +95,31 @@ public class Loader {
 		methodMap.put(assembly.getWriteStringMethod(), MethodDescriptor.WRITE_STRING_METHOD);
 		methodMap.put(assembly.getReadIntMethod(), MethodDescriptor.READ_INT_METHOD);
 		methodMap.put(assembly.getReadStringMethod(), MethodDescriptor.READ_STRING_METHOD);
+		if (assembly.getArrayCopyMethod() != null) {
+			methodMap.put(assembly.getArrayCopyMethod(), MethodDescriptor.ARRAY_COPY_METHOD);
+		}
+		if (assembly.getFillMethod() != null) {
+			methodMap.put(assembly.getFillMethod(), MethodDescriptor.FILL_METHOD);
+		}
+	}
+
+	public TypeDescriptor findType(String identifier) {
+		for (var type : typeMap.values()) {
+			if (type.getIdentifier().equals(identifier)) {
+				return type;
+			}
+		}
+		return null;
+	}
+
+	public List<ClassDescriptor> getClassDescriptors() {
+		var classes = new ArrayList<ClassDescriptor>();
+		for (var type : typeMap.values()) {
+			if (type instanceof ClassDescriptor) {
+				classes.add((ClassDescriptor) type);
+			}
+		}
+		return classes;
 	}
 
 	private TypeDescriptor getTypeDescriptor(BytecodeType type) {
@@ -98,6 +138,8 @@ public class Loader {
 			typeMap.put(type, descriptor);
 			checkAcyclicInheritance(type);
 			descriptor.setAllFields(collectFieldTypes(type));
+			descriptor.setInstanceSize(layoutFields(type, descriptor.getAllFields()));
+			descriptor.setReferenceMap(buildReferenceMap(descriptor));
 			descriptor.setAncestorTable(buildAncestorTable(type));
 			descriptor.setVirtualTable(buildVirtualTable(type));
 		}
@@ -109,6 +151,8 @@ public class Loader {
 			var descriptor = new ArrayDescriptor(type.getIdentifier());
 			typeMap.put(type, descriptor);
 			descriptor.setElementType(getTypeDescriptor(type.getElementType()));
+			descriptor.setElementSize(sizeOf(descriptor.getElementType()));
+			descriptor.setReferenceElements(isReference(descriptor.getElementType()));
 		}
 		return (ArrayDescriptor) typeMap.get(type);
 	}
@@ -165,6 +209,46 @@ public class Loader {
 		return list.toArray(new FieldDescriptor[0]);
 	}
 
+	// Base class fields keep their offsets; the new fields follow, largest first, each aligned to its size.
+	private int layoutFields(BytecodeClass classType, FieldDescriptor[] fields) {
+		var baseClass = classType.getBaseType();
+		var offset = baseClass != null ? getClassDescriptor(baseClass).getInstanceSize() : 0;
+		var baseFieldCount = baseClass != null ? getClassDescriptor(baseClass).getAllFields().length : 0;
+		var newFields = Arrays.copyOfRange(fields, baseFieldCount, fields.length);
+		Arrays.sort(newFields, Comparator.comparingInt((FieldDescriptor field) -> sizeOf(field.getType())).reversed());
+		for (var field : newFields) {
+			var size = sizeOf(field.getType());
+			offset = (offset + size - 1) / size * size;
+			field.setOffset(offset);
+			offset += size;
+		}
+		return offset;
+	}
+
+	private long[] buildReferenceMap(ClassDescriptor type) {
+		var map = new long[(type.getInstanceSize() / referenceSize + 63) / 64];
+		for (var field : type.getAllFields()) {
+			if (isReference(field.getType())) {
+				var word = field.getOffset() / referenceSize;
+				map[word / 64] |= 1L << word;
+			}
+		}
+		return map;
+	}
+
+	private int sizeOf(TypeDescriptor type) {
+		if (type == TypeDescriptor.BOOLEAN_TYPE) {
+			return 1;
+		} else if (type == TypeDescriptor.INT_TYPE) {
+			return Integer.BYTES;
+		}
+		return referenceSize;
+	}
+
+	private static boolean isReference(TypeDescriptor type) {
+		return type instanceof ClassDescriptor || type instanceof ArrayDescriptor || type == TypeDescriptor.STRING_TYPE;
+	}
+
 	private ClassDescriptor[] buildAncestorTable(BytecodeClass classType) {
 		var list = new ArrayList<ClassDescriptor>();
 		// TODO: Homework Week 7: Extend
@@ -2,6 +2,8 @@ package runtime.descriptors;
 
 public class ArrayDescriptor extends TypeDescriptor {
 	private TypeDescriptor elementType;
+	private boolean referenceElements;
+	private int elementSize;
 
 	public ArrayDescriptor(String identifier) {
 		super(identifier);
@@ -14,4 +16,20 @@ public class ArrayDescriptor extends TypeDescriptor {
 	public void setElementType(TypeDescriptor elementType) {
 		this.elementType = elementType;
 	}
+
+	public int getElementSize() {
+		return elementSize;
+	}
+
+	public void setElementSize(int elementSize) {
+		this.elementSize = elementSize;
+	}
+
+	public boolean hasReferenceElements() {
+		return referenceElements;
+	}
+
+	public void setReferenceElements(boolean referenceElements) {
+		this.referenceElements = referenceElements;
+	}
 }
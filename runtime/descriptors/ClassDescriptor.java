@@ -4,6 +4,8 @@ public class ClassDescriptor extends TypeDescriptor {
 	private FieldDescriptor[] allFields;
 	private ClassDescriptor[] ancestorTable;
 	private MethodDescriptor[] virtualTable;
+	private long[] referenceMap;
+	private int instanceSize;
 
 	public ClassDescriptor(String identifier) {
 		super(identifier);
@@ -36,4 +38,21 @@ public class ClassDescriptor extends TypeDescriptor {
 	public void setVirtualTable(MethodDescriptor[] virtualTable) {
 		this.virtualTable = virtualTable;
 	}
+
+	public int getInstanceSize() {
+		return instanceSize;
+	}
+
+	public void setInstanceSize(int instanceSize) {
+		this.instanceSize = instanceSize;
+	}
+
+	// One bit per reference-sized word of the payload that holds a reference.
+	public long[] getReferenceMap() {
+		return referenceMap;
+	}
+
+	public void setReferenceMap(long[] referenceMap) {
+		this.referenceMap = referenceMap;
+	}
 }
@@ -3,6 +3,7 @@ package runtime.descriptors;
 public class FieldDescriptor {
 	private final String identifier;
 	private int index;
+	private int offset;
 	private TypeDescriptor type;
 
 	public FieldDescriptor(String identifier) {
@@ -21,6 +22,15 @@ public class FieldDescriptor {
 		this.index = index;
 	}
 
+	// Byte offset of the field within the object payload.
+	public int getOffset() {
+		return offset;
+	}
+
+	public void setOffset(int offset) {
+		this.offset = offset;
+	}
+
 	public TypeDescriptor getType() {
 		return type;
 	}
@@ -1,6 +1,7 @@
 package runtime.descriptors;
 
 import bytecode.Instruction;
+import jit.CompiledMethod;
 
 public class MethodDescriptor {
 	public static final MethodDescriptor HALT_METHOD = new MethodDescriptor("halt");
@@ -8,6 +9,8 @@ public class MethodDescriptor {
 	public static final MethodDescriptor WRITE_STRING_METHOD = new MethodDescriptor("writeString");
 	public static final MethodDescriptor READ_INT_METHOD = new MethodDescriptor("readInt");
 	public static final MethodDescriptor READ_STRING_METHOD = new MethodDescriptor("readString");
+	public static final MethodDescriptor ARRAY_COPY_METHOD = new MethodDescriptor("arraycopy");
+	public static final MethodDescriptor FILL_METHOD = new MethodDescriptor("fill");
 
 	private final String identifier;
 
@@ -17,6 +20,14 @@ public class MethodDescriptor {
 	private TypeDescriptor[] localTypes;
 	private Instruction[] code;
 
+	// Profile and compiled code of the tiered JIT, only used by the interpreter thread.
+	private int invocationCount;
+	private int[] backEdgeCounts;
+	private long backEdgeTotal;
+	private CompiledMethod compiledMethod;
+	private boolean compilationQueued;
+	private boolean notCompilable;
+
 	public MethodDescriptor(String identifier) {
 		this.identifier = identifier;
 	}
@@ -65,6 +76,62 @@ public class MethodDescriptor {
 		this.code = code;
 	}
 
+	public int countInvocation() {
+		return ++invocationCount;
+	}
+
+	// Counts a taken backward branch at the given position, i.e. one iteration of that loop.
+	public int countBackEdge(int position) {
+		if (backEdgeCounts == null) {
+			backEdgeCounts = new int[code.length];
+		}
+		backEdgeTotal++;
+		return ++backEdgeCounts[position];
+	}
+
+	public int getInvocationCount() {
+		return invocationCount;
+	}
+
+	public int getBackEdgeCount(int position) {
+		return backEdgeCounts == null ? 0 : backEdgeCounts[position];
+	}
+
+	// Calls plus loop iterations, used to compile the hottest methods first.
+	public long getHotness() {
+		return invocationCount + backEdgeTotal;
+	}
+
+	public void resetProfile() {
+		invocationCount = 0;
+		backEdgeCounts = null;
+		backEdgeTotal = 0;
+	}
+
+	public CompiledMethod getCompiledMethod() {
+		return compiledMethod;
+	}
+
+	public void setCompiledMethod(CompiledMethod compiledMethod) {
+		this.compiledMethod = compiledMethod;
+	}
+
+	public boolean isCompilationQueued() {
+		return compilationQueued;
+	}
+
+	public void setCompilationQueued(boolean compilationQueued) {
+		this.compilationQueued = compilationQueued;
+	}
+
+	public boolean isNotCompilable() {
+		return notCompilable;
+	}
+
+	public void setNotCompilable(boolean notCompilable) {
+		this.notCompilable = notCompilable;
+	}
+
 	@Override
 	public String toString() {
 		return identifier;
@@ -0,0 +1,77 @@
+package runtime.heap;
+
+import java.util.Arrays;
+
+class ArrayHeapMemory implements HeapMemory {
+	private final long[] words;
+
+	public ArrayHeapMemory(long size) {
+		if (size % Long.BYTES != 0 || size / Long.BYTES > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Unsupported heap size " + size);
+		}
+		words = new long[(int) (size / Long.BYTES)];
+	}
+
+	@Override
+	public long getSize() {
+		return (long) words.length * Long.BYTES;
+	}
+
+	@Override
+	public long readLong(long address) {
+		return words[(int) (address >>> 3)];
+	}
+
+	@Override
+	public void writeLong(long address, long value) {
+		words[(int) (address >>> 3)] = value;
+	}
+
+	// Smaller values are naturally aligned and laid out little-endian within their word, like in native memory.
+	@Override
+	public byte readByte(long address) {
+		return (byte) (words[(int) (address >>> 3)] >>> ((address & 7) * 8));
+	}
+
+	@Override
+	public void writeByte(long address, byte value) {
+		var index = (int) (address >>> 3);
+		var shift = (address & 7) * 8;
+		words[index] = words[index] & ~(0xFFL << shift) | (value & 0xFFL) << shift;
+	}
+
+	@Override
+	public int readInt(long address) {
+		return (int) (words[(int) (address >>> 3)] >>> ((address & 4) * 8));
+	}
+
+	@Override
+	public void writeInt(long address, int value) {
+		var index = (int) (address >>> 3);
+		var shift = (address & 4) * 8;
+		words[index] = words[index] & ~(0xFFFF_FFFFL << shift) | (value & 0xFFFF_FFFFL) << shift;
+	}
+
+	@Override
+	public void copy(long source, long target, int length) {
+		if ((source | target | length) % Long.BYTES == 0) {
+			System.arraycopy(words, (int) (source >>> 3), words, (int) (target >>> 3), length / Long.BYTES);
+		} else {
+			HeapMemory.super.copy(source, target, length);
+		}
+	}
+
+	@Override
+	public void clear(long address, int length) {
+		if ((address | length) % Long.BYTES == 0) {
+			Arrays.fill(words, (int) (address >>> 3), (int) ((address + length) >>> 3), 0);
+		} else {
+			HeapMemory.super.clear(address, length);
+		}
+	}
+
+	@Override
+	public long getNativeAddress() {
+		return 0;
+	}
+}
@@ -0,0 +1,72 @@
+package runtime.heap;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.sun.jna.Native;
+
+class BufferHeapMemory implements HeapMemory {
+	private final ByteBuffer buffer;
+
+	public BufferHeapMemory(long size) {
+		this(ByteBuffer.allocateDirect(checkSize(size)));
+	}
+
+	public BufferHeapMemory(ByteBuffer buffer) {
+		this.buffer = buffer.order(ByteOrder.nativeOrder());
+	}
+
+	private static int checkSize(long size) {
+		if (size > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Unsupported heap size " + size);
+		}
+		return (int) size;
+	}
+
+	@Override
+	public long getSize() {
+		return buffer.capacity();
+	}
+
+	@Override
+	public long readLong(long address) {
+		return buffer.getLong((int) address);
+	}
+
+	@Override
+	public void writeLong(long address, long value) {
+		buffer.putLong((int) address, value);
+	}
+
+	@Override
+	public byte readByte(long address) {
+		return buffer.get((int) address);
+	}
+
+	@Override
+	public void writeByte(long address, byte value) {
+		buffer.put((int) address, value);
+	}
+
+	@Override
+	public int readInt(long address) {
+		return buffer.getInt((int) address);
+	}
+
+	@Override
+	public void writeInt(long address, int value) {
+		buffer.putInt((int) address, value);
+	}
+
+	@Override
+	public void copy(long source, long target, int length) {
+		var bytes = new byte[length];
+		buffer.get((int) source, bytes);
+		buffer.put((int) target, bytes);
+	}
+
+	@Override
+	public long getNativeAddress() {
+		return com.sun.jna.Pointer.nativeValue(Native.getDirectBufferPointer(buffer));
+	}
+}
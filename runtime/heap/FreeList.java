@@ -1,6 +1,7 @@
 package runtime.heap;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.function.LongToIntFunction;
 
@@ -22,7 +23,7 @@ public class FreeList {
 		freeBlocks.add(blockAddress);
 	}
 
-	public boolean isFree(long blockAddress) {
-		return freeBlocks.contains(blockAddress);
+	public List<Long> getBlocks() {
+		return Collections.unmodifiableList(freeBlocks);
 	}
 }
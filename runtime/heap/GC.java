@@ -1,122 +1,400 @@
 package runtime.heap;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.function.LongConsumer;
 
+import error.VMException;
+import runtime.ActivationFrame;
 import runtime.CallStack;
 import runtime.descriptors.ArrayDescriptor;
 import runtime.descriptors.ClassDescriptor;
 
 public class GC {
+	private static final int MARK_STACK_LIMIT = 64 * 1024;
+	private static final int SWEEP_REGION_SIZE = 1024;
+	// A concurrent or incremental cycle starts once this fraction of the heap has been allocated since the last one.
+	private static final int CYCLE_TRIGGER_DIVISOR = 2;
+	// Number of blocks an incremental slice scans between two clock reads.
+	private static final int SLICE_CHECK_INTERVAL = 16;
+
 	private final Heap heap;
-	@SuppressWarnings("unused")
 	private final FreeList freeList;
-	@SuppressWarnings("unused")
 	private final CallStack stack;
-	
-	public GC(Heap heap, FreeList freeList, CallStack stack) {
+	private final GCMode mode;
+	private final long pauseTargetNanos;
+	private final long heapEnd;
+	private final long smallObjectSpaceEnd;
+	private final LargeObjectSpace largeObjects;
+	private final HeapBitmap marks;
+	private final MarkStack markStack = new MarkStack(MARK_STACK_LIMIT);
+	private final MarkStack satbBuffer = new MarkStack(Integer.MAX_VALUE);
+	private final LongConsumer markVisitor = this::markBlock;
+	private final ParallelCollector parallelCollector;
+	private final GCStatistics statistics = new GCStatistics();
+	private boolean markStackOverflow;
+	private long rescanCursor = Heap.NULL_POINTER;
+	private long sweepCursor;
+	private long allocatedSinceCycle;
+	private volatile boolean marking;
+	private volatile boolean markingDone;
+	private Thread concurrentMarker;
+
+	public GC(Heap heap, FreeList freeList, CallStack stack, HeapOptions options) {
 		this.heap = heap;
 		this.freeList = freeList;
 		this.stack = stack;
+		heapEnd = heap.getHeapEnd();
+		smallObjectSpaceEnd = heap.getSmallObjectSpaceEnd();
+		largeObjects = heap.getLargeObjectSpace();
+		marks = new HeapBitmap(heapEnd);
+		sweepCursor = smallObjectSpaceEnd;
+		mode = options.getGCMode();
+		pauseTargetNanos = options.getPauseTargetNanos();
+		if (options.getGCMode() == GCMode.PARALLEL) {
+			parallelCollector = new ParallelCollector(this, marks, options.getGCThreads());
+		} else {
+			parallelCollector = null;
+		}
 	}
-	Iterable<Pointer> getPointers(Pointer current){
-		var list = new ArrayList<Pointer>();
-		var object_type = heap.getDescriptor(current);
-		if (object_type instanceof ClassDescriptor) {
-
-			var fields = ((ClassDescriptor) object_type).getAllFields();
-			int field_size=fields.length;
-
-			for (int i = 0; i < field_size; i++) {
-				if (fields[i].getType() instanceof ClassDescriptor ||
-						fields[i].getType() instanceof ArrayDescriptor) {
-					var value = heap.readField(current, i);
-					if (value instanceof Pointer) {
-						if (value != null) list.add((Pointer) value);
-					}
-				}
-			}
+
+	public GCStatistics getStatistics() {
+		return statistics;
+	}
+
+	public void collect() {
+		var start = System.nanoTime();
+		finishSweep();
+		if (parallelCollector != null) {
+			parallelCollector.mark(stack);
 		} else {
-			int array_size = heap.getArrayLength(current);
-			for (int i = 0; i < array_size; i++) {
-				var value= heap.readElement(current, i);
-				if ( value instanceof Pointer){
-					if (value!=null) {
-						list.add((Pointer) value);
-					}
-				}
+			mark();
+		}
+		sweepCursor = Heap.HEAP_START;
+		releaseUnmarked();
+		allocatedSinceCycle = 0;
+		statistics.recordPause(System.nanoTime() - start);
+	}
+
+	// Called by the mutator on every allocation, before a block is taken from the free list.
+	void poll() {
+		if (mode == GCMode.CONCURRENT) {
+			if (marking && markingDone) {
+				var start = System.nanoTime();
+				finishMarkingCycle();
+				statistics.recordPause(System.nanoTime() - start);
+			} else if (!marking && isCycleDue()) {
+				startMarkingCycle();
+			}
+		} else if (mode == GCMode.INCREMENTAL) {
+			if (marking) {
+				markIncrementally();
+			} else if (isCycleDue()) {
+				startMarkingCycle();
 			}
+		}
+	}
 
+	// Finishes a running marking cycle early because the heap is exhausted; returns false if none is running.
+	boolean completeMarkingCycle() {
+		if (!marking) {
+			return false;
 		}
-		return list;
+		var start = System.nanoTime();
+		finishMarkingCycle();
+		statistics.recordPause(System.nanoTime() - start);
+		return true;
 	}
-	private void traverse(Pointer current) {
-		if (current != null && !isMarked(heap.getAddress(current)-16)) {
-			setMark(current.getAddress()-16);
-			var list=getPointers(current);
-			for (var next : list ) {
-				traverse(next);
+
+	boolean isMarking() {
+		return marking;
+	}
+
+	// Snapshot-at-the-beginning write barrier: the overwritten reference stays reachable for this cycle.
+	// It also keeps the incremental collector's weak tri-colour invariant across mutator slices.
+	synchronized void recordOverwrittenReference(long block) {
+		satbBuffer.push(block);
+	}
+
+	// Sweeps the blocks starting in the next heap region; returns false once the whole heap is swept.
+	boolean sweepNextRegion() {
+		if (sweepCursor >= smallObjectSpaceEnd) {
+			return false;
+		}
+		var regionEnd = Math.min(sweepCursor - sweepCursor % SWEEP_REGION_SIZE + SWEEP_REGION_SIZE, smallObjectSpaceEnd);
+		while (sweepCursor < regionEnd) {
+			if (!marks.isSet(sweepCursor) && !heap.isFree(sweepCursor)) {
+				heap.clearTypeId(sweepCursor);
+				freeList.add(sweepCursor);
 			}
+			sweepCursor += heap.getBlockSize(sweepCursor);
 		}
+		return true;
 	}
-	private void mark(){
-		for (var root:getRootSet(stack)){
-			traverse(root);
+
+	// Blocks handed out during marking or ahead of the sweeper are allocated black.
+	void registerAllocation(long block, int size) {
+		if (marking || block >= sweepCursor) {
+			marks.set(block);
 		}
+		allocatedSinceCycle += size;
+	}
+
+	// Brings the heap to a quiescent state: no marking in progress and every block swept.
+	void finishCycle() {
+		completeMarkingCycle();
+		finishSweep();
 	}
-	private void sweep(){
-		var current= Heap.HEAP_START;
-		while (current< Heap.HEAP_END){
-			if (!isMarked(current)){
-				if (!freeList.isFree(current))
-				{
-					freeList.add(current);
+
+	private void finishSweep() {
+		while (sweepNextRegion()) {
+		}
+	}
+
+	private void mark() {
+		marks.clear();
+		visitHeapRoots(markVisitor);
+		for (var frame : stack) {
+			visitRoots(frame, markVisitor);
+		}
+		drainMarkStack();
+		while (markStackOverflow) {
+			markStackOverflow = false;
+			rescanMarkedBlocks();
+			drainMarkStack();
+		}
+	}
+
+	private void startMarkingCycle() {
+		var start = System.nanoTime();
+		finishSweep();
+		marks.clear();
+		visitHeapRoots(markVisitor);
+		for (var frame : stack) {
+			visitRoots(frame, markVisitor);
+		}
+		markingDone = false;
+		marking = true;
+		if (mode == GCMode.CONCURRENT) {
+			concurrentMarker = new Thread(this::markConcurrently, "gc-marker");
+			concurrentMarker.setDaemon(true);
+			concurrentMarker.start();
+		}
+		statistics.recordPause(System.nanoTime() - start);
+	}
+
+	private boolean isCycleDue() {
+		return allocatedSinceCycle >= heapEnd / CYCLE_TRIGGER_DIVISOR;
+	}
+
+	// Scans blocks until the pause target is used up, and ends the cycle once nothing grey is left.
+	private void markIncrementally() {
+		var start = System.nanoTime();
+		var deadline = start + pauseTargetNanos;
+		var scanned = 0;
+		while (true) {
+			// The buffered blocks may all be marked already or have no references, so nothing may be pushed.
+			if (markStack.isEmpty()) {
+				drainSatbBuffer();
+			}
+			var block = markStack.isEmpty() ? nextRescanBlock() : markStack.pop();
+			if (block == Heap.NULL_POINTER) {
+				break;
+			}
+			scanBlock(block, markVisitor);
+			scanned++;
+			if (scanned % SLICE_CHECK_INTERVAL == 0 && System.nanoTime() >= deadline) {
+				statistics.recordPause(System.nanoTime() - start);
+				return;
+			}
+		}
+		finishMarkingCycle();
+		statistics.recordPause(System.nanoTime() - start);
+	}
+
+	// After a mark stack overflow, returns the marked blocks one by one in address order, so that
+	// incremental slices rescan them within the pause target; null pointer once none is left.
+	private long nextRescanBlock() {
+		if (rescanCursor == Heap.NULL_POINTER) {
+			if (!markStackOverflow) {
+				return Heap.NULL_POINTER;
+			}
+			markStackOverflow = false;
+			rescanCursor = Heap.HEAP_START;
+		}
+		var block = marks.findNext(rescanCursor, heapEnd);
+		if (block < 0) {
+			// The rescan may have overflowed the mark stack again.
+			rescanCursor = Heap.NULL_POINTER;
+			return nextRescanBlock();
+		}
+		rescanCursor = block + heap.getBlockSize(block);
+		return block;
+	}
+
+	private void markConcurrently() {
+		try {
+			do {
+				drainMarkStack();
+			} while (drainSatbBuffer());
+		} finally {
+			markingDone = true;
+		}
+	}
+
+	private void finishMarkingCycle() {
+		if (concurrentMarker != null) {
+			try {
+				concurrentMarker.join();
+			} catch (InterruptedException exception) {
+				Thread.currentThread().interrupt();
+				throw new VMException("GC interrupted");
+			}
+			concurrentMarker = null;
+		}
+		remark();
+		releaseUnmarked();
+		marking = false;
+		sweepCursor = Heap.HEAP_START;
+		allocatedSinceCycle = 0;
+	}
+
+	private void remark() {
+		// An incremental rescan that is cut short is redone in full.
+		if (rescanCursor != Heap.NULL_POINTER) {
+			rescanCursor = Heap.NULL_POINTER;
+			markStackOverflow = true;
+		}
+		drainSatbBuffer();
+		drainMarkStack();
+		while (markStackOverflow) {
+			markStackOverflow = false;
+			rescanMarkedBlocks();
+			drainMarkStack();
+		}
+	}
+
+	private synchronized boolean drainSatbBuffer() {
+		if (satbBuffer.isEmpty()) {
+			return false;
+		}
+		while (!satbBuffer.isEmpty()) {
+			markBlock(satbBuffer.pop());
+		}
+		return true;
+	}
+
+	private void markBlock(long block) {
+		if (marks.set(block) && hasReferences(block) && !markStack.push(block)) {
+			markStackOverflow = true;
+		}
+	}
+
+	// Blocks without reference slots, such as large int arrays, are marked but never scanned.
+	boolean hasReferences(long block) {
+		var type = heap.getBlockDescriptor(block);
+		if (type instanceof ClassDescriptor) {
+			for (var word : ((ClassDescriptor) type).getReferenceMap()) {
+				if (word != 0) {
+					return true;
 				}
 			}
-			clearMark(current);
-			current+=(heap.getBlockSize(current));
+			return false;
 		}
+		return type instanceof ArrayDescriptor && ((ArrayDescriptor) type).hasReferenceElements();
 	}
-	public void collect() {
-		// TODO: Homework Week 8: Implement
-		//throw new RuntimeException("GC not yet implemented");
-		mark();
-		sweep();
-	}
-
-	
-	@SuppressWarnings("unused")
-	private Iterable<Pointer> getRootSet(CallStack callStack) {
-		var list = new ArrayList<Pointer>();
-		for (var frame : callStack) {
-			collectPointers(frame.getParameters(), list);
-			collectPointers(frame.getLocals(), list);
-			collectPointers(frame.getEvaluationStack().toArray(), list);
-			list.add(frame.getThisReference());
-		}
-		return list;
-	}
-	
-	private void collectPointers(Object[] values, List<Pointer> list) {
-		for (var value : values) {
-			if (value instanceof Pointer) {
-				list.add((Pointer) value);
+
+	// Evicts dead strings and frees unmarked large blocks as soon as the mark bits are complete.
+	private void releaseUnmarked() {
+		heap.evictUnmarkedStrings(marks);
+		if (largeObjects != null) {
+			largeObjects.sweep(marks, heap);
+		}
+	}
+
+	private void drainMarkStack() {
+		while (!markStack.isEmpty()) {
+			scanBlock(markStack.pop(), markVisitor);
+		}
+	}
+
+	// Passes the block of every non-null reference held by the given block to the visitor.
+	void scanBlock(long block, LongConsumer visitor) {
+		var object = block + Heap.BLOCK_HEADER_SIZE;
+		var type = heap.getBlockDescriptor(block);
+		if (type instanceof ClassDescriptor) {
+			var referenceMap = ((ClassDescriptor) type).getReferenceMap();
+			for (int word = 0; word < referenceMap.length; word++) {
+				for (var bits = referenceMap[word]; bits != 0; bits &= bits - 1) {
+					var index = word * 64 + Long.numberOfTrailingZeros(bits);
+					scanSlot(object + index * heap.getReferenceSize(), visitor);
+				}
+			}
+		} else if (type instanceof ArrayDescriptor && ((ArrayDescriptor) type).hasReferenceElements()) {
+			var length = heap.getArrayLength(object);
+			var elementSize = ((ArrayDescriptor) type).getElementSize();
+			for (int index = 0; index < length; index++) {
+				scanSlot(heap.getElementAddress(object, elementSize, index), visitor);
 			}
 		}
 	}
 
-	@SuppressWarnings("unused")
-	private void setMark(long block) {
-		heap.writeLong64(block, heap.readLong64(block) | 0x8000000000000000L);
+	private void scanSlot(long slot, LongConsumer visitor) {
+		var address = heap.readReference(slot);
+		if (address != Heap.NULL_POINTER) {
+			visitor.accept(address - Heap.BLOCK_HEADER_SIZE);
+		}
 	}
 
-	@SuppressWarnings("unused")
-	private void clearMark(long block) {
-		heap.writeLong64(block, heap.readLong64(block) & 0x7fffffffffffffffL);
+	// Blocks that were marked while the mark stack was full still have unvisited children.
+	private void rescanMarkedBlocks() {
+		var current = Heap.HEAP_START;
+		while (current < smallObjectSpaceEnd) {
+			if (marks.isSet(current)) {
+				scanBlock(current, markVisitor);
+			}
+			current += heap.getBlockSize(current);
+		}
+		if (largeObjects != null) {
+			for (var block : largeObjects.getBlocks()) {
+				if (marks.isSet(block)) {
+					scanBlock(block, markVisitor);
+				}
+			}
+		}
 	}
 
-	@SuppressWarnings("unused")
-	private boolean isMarked(long block) {
-		return (heap.readLong64(block) & 0x8000000000000000L) != 0;
+	void visitHeapRoots(LongConsumer visitor) {
+		var root = heap.getPersistentRoot();
+		if (root != Heap.NULL_POINTER) {
+			visitor.accept(root - Heap.BLOCK_HEADER_SIZE);
+		}
+		for (var object : heap.getTemporaryRoots()) {
+			visitor.accept(object - Heap.BLOCK_HEADER_SIZE);
+		}
+		heap.getNativeRoots().accept(object -> {
+			if (object != Heap.NULL_POINTER) {
+				visitor.accept(object - Heap.BLOCK_HEADER_SIZE);
+			}
+		});
+	}
+
+	void visitRoots(ActivationFrame frame, LongConsumer visitor) {
+		visitPointers(frame.getParameters(), visitor);
+		visitPointers(frame.getLocals(), visitor);
+		visitPointers(frame.getEvaluationStack().toArray(), visitor);
+		visitPointer(frame.getThisReference(), visitor);
+	}
+
+	private void visitPointers(Object[] values, LongConsumer visitor) {
+		for (var value : values) {
+			if (value instanceof Pointer) {
+				visitPointer((Pointer) value, visitor);
+			}
+		}
+	}
+
+	private void visitPointer(Pointer pointer, LongConsumer visitor) {
+		if (pointer != null) {
+			visitor.accept(pointer.getAddress() - Heap.BLOCK_HEADER_SIZE);
+		}
 	}
 }
@@ -0,0 +1,8 @@
+package runtime.heap;
+
+public enum GCMode {
+	SERIAL, // single-threaded mark, lazy sweep on allocation
+	PARALLEL, // stop-the-world mark and sweep on all GC worker threads
+	CONCURRENT, // snapshot-at-the-beginning marking on a background thread, lazy sweep on allocation
+	INCREMENTAL // snapshot-at-the-beginning marking in time-boxed slices on allocation, lazy sweep
+}
@@ -0,0 +1,55 @@
+package runtime.heap;
+
+public class GCStatistics {
+	// Bucket i counts pauses shorter than 2^i microseconds; the last bucket takes all longer ones.
+	private static final int HISTOGRAM_BUCKETS = 21;
+
+	private final long[] pauseHistogram = new long[HISTOGRAM_BUCKETS];
+	private long pauseCount;
+	private long totalPauseNanos;
+	private long maxPauseNanos;
+
+	void recordPause(long nanos) {
+		pauseCount++;
+		totalPauseNanos += nanos;
+		maxPauseNanos = Math.max(maxPauseNanos, nanos);
+		pauseHistogram[bucketOf(nanos)]++;
+	}
+
+	public long getPauseCount() {
+		return pauseCount;
+	}
+
+	public long getTotalPauseNanos() {
+		return totalPauseNanos;
+	}
+
+	public long getMaxPauseNanos() {
+		return maxPauseNanos;
+	}
+
+	public long[] getPauseHistogram() {
+		return pauseHistogram.clone();
+	}
+
+	private static int bucketOf(long nanos) {
+		var micros = nanos / 1000;
+		var bucket = 64 - Long.numberOfLeadingZeros(micros);
+		return Math.min(bucket, HISTOGRAM_BUCKETS - 1);
+	}
+
+	@Override
+	public String toString() {
+		var mean = pauseCount == 0 ? 0 : totalPauseNanos / pauseCount;
+		var text = String.format("GC pauses: %d, total %.3f ms, mean %.3f ms, max %.3f ms", pauseCount,
+				totalPauseNanos / 1e6, mean / 1e6, maxPauseNanos / 1e6);
+		for (int bucket = 0; bucket < HISTOGRAM_BUCKETS; bucket++) {
+			if (pauseHistogram[bucket] > 0) {
+				var bound = bucket < HISTOGRAM_BUCKETS - 1 ? "< " + (1L << bucket) + " us" : ">= "
+						+ (1L << bucket - 1) + " us";
+				text += String.format("%n  %-12s %d", bound, pauseHistogram[bucket]);
+			}
+		}
+		return text;
+	}
+}
@@ -1,185 +1,531 @@
 package runtime.heap;
 
-import com.sun.jna.Memory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
 
 import error.InvalidBytecodeException;
 import error.VMException;
 import runtime.CallStack;
 import runtime.descriptors.ArrayDescriptor;
 import runtime.descriptors.ClassDescriptor;
+import runtime.descriptors.FieldDescriptor;
 import runtime.descriptors.TypeDescriptor;
 
 public class Heap {
 	public static final long NULL_POINTER = 0;
-	private static final int HEAP_SIZE = 8 * 1024;
-	static final int BLOCK_HEADER_SIZE = 16;
-	private static final int TAG_OFFSET = 8;
-	private static final int POINTER_SIZE = 8;
+	// One header word per block: size in bits 0-31, type id in bits 32-55, bits 56-63 reserved for the GC.
+	public static final int BLOCK_HEADER_SIZE = 8;
+	public static final int TYPE_ID_SHIFT = 32;
+	public static final int TYPE_ID_BITS = 24;
+	private static final long SIZE_MASK = 0xFFFF_FFFFL;
+	// Blocks start at multiples of the alignment, so that compressed references can drop the low bits.
+	private static final int BLOCK_ALIGNMENT = 8;
+	public static final int COMPRESSION_SHIFT = 3;
+	private static final long MAX_COMPRESSED_HEAP_SIZE = 1L << (32 + COMPRESSION_SHIFT);
 	static final int HEAP_START = 8;
-	static final int HEAP_END = HEAP_SIZE;
-	private final Memory heap = new Memory(HEAP_SIZE);
-	private final DualMap<TypeDescriptor, Integer> typeDescriptors = new DualMap<>();
-	private final DualMap<String, Integer> stringPool = new DualMap<>();
+	// Block sizes are ints, so the initial free space of a large heap is split into blocks of at most this size.
+	private static final int MAX_FREE_BLOCK_SIZE = 1 << 30;
+	// The last quarter of the heap, rounded down to whole pages, is the large-object space.
+	private static final int LARGE_OBJECT_SPACE_DIVISOR = 4;
+	private final long heapEnd;
+	private final long smallObjectSpaceEnd;
+	private final LargeObjectSpace largeObjects;
+	private final long largeObjectThreshold;
+	private final Path heapFile;
+	private final boolean compressedReferences;
+	private final int referenceSize;
+	private final HeapMemory memory;
+	private final TypeTable typeTable = new TypeTable();
+	private final StringPool stringPool = new StringPool();
+	// Objects that the mutator only holds in Java locals while an allocation may collect.
+	private final List<Long> temporaryRoots = new ArrayList<>();
 	private final FreeList freeList = new FreeList();
 	private final GC gc;
+	private long persistentRoot = NULL_POINTER;
+	private Consumer<LongConsumer> nativeRoots = visitor -> { };
 
 	public Heap(CallStack stack) {
-		setBlockSize(HEAP_START, HEAP_SIZE - HEAP_START);
-		freeList.add(HEAP_START);
-		gc = new GC(this, freeList, stack);
+		this(stack, new HeapOptions(), identifier -> null);
 	}
 
-	public TypeDescriptor getDescriptor(Pointer instance) {
-		var link = (int) readLong64(getAddress(instance) - TAG_OFFSET);
-		return typeDescriptors.getLeft(link);
+	public Heap(CallStack stack, HeapOptions options, Function<String, TypeDescriptor> typeResolver) {
+		heapFile = options.getHeapFile();
+		var image = heapFile != null ? HeapImage.load(heapFile) : null;
+		heapEnd = image != null ? image.getHeapSize() : options.getHeapSize();
+		compressedReferences = options.isCompressedReferences();
+		if (image != null && image.isCompressedReferences() != compressedReferences) {
+			throw new VMException("Heap file uses a different reference mode");
+		}
+		if (compressedReferences && heapEnd > MAX_COMPRESSED_HEAP_SIZE) {
+			throw new VMException("Compressed references support heaps of at most 32 GB");
+		}
+		referenceSize = options.getReferenceSize();
+		if (heapFile != null) {
+			memory = new MappedHeapMemory(heapFile, heapEnd);
+		} else {
+			memory = HeapMemory.allocate(options.getHeapBackend(), heapEnd);
+		}
+		var largeObjectSpaceSize = heapEnd / LARGE_OBJECT_SPACE_DIVISOR / LargeObjectSpace.PAGE_SIZE * LargeObjectSpace.PAGE_SIZE;
+		smallObjectSpaceEnd = heapEnd - largeObjectSpaceSize;
+		largeObjects = largeObjectSpaceSize > 0 ? new LargeObjectSpace(smallObjectSpaceEnd, heapEnd) : null;
+		largeObjectThreshold = options.getLargeObjectThreshold();
+		if (image != null) {
+			restore(image, typeResolver);
+			HeapImage.discard(heapFile);
+		} else {
+			for (long block = HEAP_START; block < smallObjectSpaceEnd; block += MAX_FREE_BLOCK_SIZE) {
+				setBlockSize(block, (int) Math.min(smallObjectSpaceEnd - block, MAX_FREE_BLOCK_SIZE));
+				freeList.add(block);
+			}
+		}
+		gc = new GC(this, freeList, stack, options);
+	}
+
+	// The persistent root survives in a heap file across runs and is always reachable.
+	public long getPersistentRoot() {
+		return persistentRoot;
+	}
+
+	public void setPersistentRoot(long root) {
+		persistentRoot = root;
+	}
+
+	// References that compiled code holds in its native frames; the source passes object addresses.
+	public void setNativeRoots(Consumer<LongConsumer> nativeRoots) {
+		this.nativeRoots = nativeRoots;
+	}
+
+	Consumer<LongConsumer> getNativeRoots() {
+		return nativeRoots;
+	}
+
+	// Id stored in the header of blocks of the type; registers the type if it has none yet.
+	public int getTypeId(TypeDescriptor type) {
+		return typeTable.getId(type);
+	}
+
+	long getHeapEnd() {
+		return heapEnd;
 	}
 
-	public Pointer allocateObject(ClassDescriptor type) {
-		return allocate(type.getAllFields().length * POINTER_SIZE, type);
+	// End of the space that is managed by the free list and swept region by region.
+	long getSmallObjectSpaceEnd() {
+		return smallObjectSpaceEnd;
 	}
 
-	public Object readField(Pointer instance, int index) {
-		var nativeValue = readLong64(getAddress(instance) + index * POINTER_SIZE);
-		var descriptor = getDescriptor(instance);
-		if (!(descriptor instanceof ClassDescriptor)) {
-			throw new InvalidBytecodeException("Invalid field read");
+	// Null if the heap is too small to hold a single large-object page.
+	LargeObjectSpace getLargeObjectSpace() {
+		return largeObjects;
+	}
+
+	// Writes a file-backed heap and its image so that the next run can reopen it.
+	public void close() {
+		if (heapFile != null) {
+			gc.finishCycle();
+			var image = new HeapImage(heapEnd, compressedReferences, persistentRoot);
+			for (int id = 1; id <= typeTable.size(); id++) {
+				var type = typeTable.get(id);
+				image.getTypeIdentifiers().add(type.getIdentifier());
+				image.getTypeLayouts().add(describeLayout(type));
+			}
+			image.getFreeBlocks().addAll(freeList.getBlocks());
+			if (largeObjects != null) {
+				image.getLargeBlocks().addAll(largeObjects.getBlocks());
+			}
+			memory.close();
+			image.save(heapFile);
+		} else {
+			memory.close();
+		}
+	}
+
+	private void restore(HeapImage image, Function<String, TypeDescriptor> typeResolver) {
+		var identifiers = image.getTypeIdentifiers();
+		for (int index = 0; index < identifiers.size(); index++) {
+			var type = typeResolver.apply(identifiers.get(index));
+			if (type == null || !describeLayout(type).equals(image.getTypeLayouts().get(index))) {
+				throw new VMException("Heap file does not match program: type " + identifiers.get(index));
+			}
+			typeTable.getId(type);
 		}
-		var classType = (ClassDescriptor) descriptor;
-		var fieldType = classType.getAllFields()[index].getType();
-		return fromNativeValue(fieldType, nativeValue);
+		for (var block : image.getLargeBlocks()) {
+			largeObjects.restore(block, getBlockSize(block));
+		}
+		for (var block : image.getFreeBlocks()) {
+			clearTypeId(block);
+			freeList.add(block);
+		}
+		persistentRoot = image.getRoot();
 	}
 
-	public void writeField(Pointer instance, int index, Object value) {
-		var descriptor = getDescriptor(instance);
-		if (!(descriptor instanceof ClassDescriptor)) {
-			throw new InvalidBytecodeException("Invalid field read");
+	private static String describeLayout(TypeDescriptor type) {
+		if (type instanceof ClassDescriptor) {
+			var layout = new StringBuilder();
+			for (var field : ((ClassDescriptor) type).getAllFields()) {
+				layout.append(field.getIdentifier()).append(':').append(field.getType().getIdentifier()).append('@')
+						.append(field.getOffset()).append(';');
+			}
+			return layout.toString();
+		} else if (type instanceof ArrayDescriptor) {
+			return ((ArrayDescriptor) type).getElementType().getIdentifier();
 		}
-		var classType = (ClassDescriptor) descriptor;
-		var fieldType = classType.getAllFields()[index].getType();
-		var nativeValue = toNativeValue(fieldType, value);
-		writeLong64(getAddress(instance) + index * POINTER_SIZE, nativeValue);
+		return "";
+	}
+
+	public GCStatistics getStatistics() {
+		return gc.getStatistics();
+	}
+
+	public TypeDescriptor getDescriptor(long object) {
+		return getBlockDescriptor(object - BLOCK_HEADER_SIZE);
+	}
+
+	TypeDescriptor getBlockDescriptor(long blockAddress) {
+		return typeTable.get((int) (readLong64(blockAddress) >>> TYPE_ID_SHIFT & TypeTable.MAX_TYPE_ID));
+	}
+
+	public boolean isCompressedReferences() {
+		return compressedReferences;
+	}
+
+	// Address of the heap in native memory for compiled code, or 0 if the backend is not natively addressable.
+	public long getNativeAddress() {
+		return memory.getNativeAddress();
+	}
+
+	public int getReferenceSize() {
+		return referenceSize;
+	}
+
+	public long allocateObject(ClassDescriptor type) {
+		return allocate(type.getInstanceSize(), type);
+	}
+
+	// The typed accessors trust the caller to have resolved the field against the object's class.
+	public int readIntField(long object, FieldDescriptor field) {
+		return memory.readInt(object + field.getOffset());
+	}
+
+	public boolean readBooleanField(long object, FieldDescriptor field) {
+		return memory.readByte(object + field.getOffset()) != 0;
+	}
+
+	public long readReferenceField(long object, FieldDescriptor field) {
+		return readReference(object + field.getOffset());
+	}
+
+	public String readStringField(long object, FieldDescriptor field) {
+		return readString(readReference(object + field.getOffset()));
 	}
 
-	public Pointer allocateArray(ArrayDescriptor type, int length) {
-		return allocate(length * POINTER_SIZE, type);
+	public void writeIntField(long object, FieldDescriptor field, int value) {
+		memory.writeInt(object + field.getOffset(), value);
 	}
 
-	public int getArrayLength(Pointer array) {
-		var blockSize = getBlockSize(getAddress(array) - BLOCK_HEADER_SIZE);
-		return (blockSize - BLOCK_HEADER_SIZE) / POINTER_SIZE;
+	public void writeBooleanField(long object, FieldDescriptor field, boolean value) {
+		memory.writeByte(object + field.getOffset(), (byte) (value ? 1 : 0));
 	}
 
-	public Object readElement(Pointer array, int index) {
-		var nativeValue = readLong64(getAddress(array) + index * POINTER_SIZE);
-		var descriptor = getDescriptor(array);
-		if (!(descriptor instanceof ArrayDescriptor)) {
-			throw new InvalidBytecodeException("Invalid array read");
+	public void writeReferenceField(long object, FieldDescriptor field, long value) {
+		writeReference(object + field.getOffset(), value);
+	}
+
+	public void writeStringField(long object, FieldDescriptor field, String value) {
+		var string = allocateString(value, object);
+		writeReference(object + field.getOffset(), string);
+	}
+
+	// Arrays store their length explicitly, followed by the elements in their natural size.
+	public long allocateArray(ArrayDescriptor type, int length) {
+		if (length < 0) {
+			throw new IllegalArgumentException("Negative array length");
 		}
-		var arrayType = (ArrayDescriptor) descriptor;
-		return fromNativeValue(arrayType.getElementType(), nativeValue);
+		var elementSize = type.getElementSize();
+		var size = getElementsOffset(elementSize) + (long) length * elementSize;
+		if (size > MAX_FREE_BLOCK_SIZE - BLOCK_HEADER_SIZE) {
+			throw new VMException("Out of memory");
+		}
+		var array = allocate((int) size, type);
+		memory.writeInt(array, length);
+		return array;
+	}
+
+	public int getArrayLength(long array) {
+		return memory.readInt(array);
+	}
+
+	public int readIntElement(long array, int index) {
+		return memory.readInt(getElementAddress(array, Integer.BYTES, index));
+	}
+
+	public boolean readBooleanElement(long array, int index) {
+		return memory.readByte(getElementAddress(array, 1, index)) != 0;
+	}
+
+	public long readReferenceElement(long array, int index) {
+		return readReference(getElementAddress(array, referenceSize, index));
+	}
+
+	public String readStringElement(long array, int index) {
+		return readString(readReference(getElementAddress(array, referenceSize, index)));
 	}
 
-	public void writeElement(Pointer array, int index, Object value) {
-		var descriptor = getDescriptor(array);
-		if (!(descriptor instanceof ArrayDescriptor)) {
-			throw new InvalidBytecodeException("Invalid array read");
+	public void writeIntElement(long array, int index, int value) {
+		memory.writeInt(getElementAddress(array, Integer.BYTES, index), value);
+	}
+
+	public void writeBooleanElement(long array, int index, boolean value) {
+		memory.writeByte(getElementAddress(array, 1, index), (byte) (value ? 1 : 0));
+	}
+
+	public void writeReferenceElement(long array, int index, long value) {
+		writeReference(getElementAddress(array, referenceSize, index), value);
+	}
+
+	public void writeStringElement(long array, int index, String value) {
+		var string = allocateString(value, array);
+		writeReference(getElementAddress(array, referenceSize, index), string);
+	}
+
+	// Bulk operations move whole element ranges; the caller checks the array types and index ranges.
+	public void copyElements(ArrayDescriptor type, long source, int sourceIndex, long target, int targetIndex, int length) {
+		if (length == 0) {
+			return;
+		}
+		var elementSize = type.getElementSize();
+		var targetAddress = getElementAddress(target, elementSize, targetIndex);
+		if (type.hasReferenceElements()) {
+			shadeReferences(targetAddress, length);
+		}
+		memory.copy(getElementAddress(source, elementSize, sourceIndex), targetAddress, length * elementSize);
+	}
+
+	public void fillIntElements(long array, int value) {
+		if (value == 0) {
+			memory.clear(getElementAddress(array, Integer.BYTES, 0), getArrayLength(array) * Integer.BYTES);
+		} else if (getArrayLength(array) > 0) {
+			writeIntElement(array, 0, value);
+			replicateFirstElement(array, Integer.BYTES);
+		}
+	}
+
+	public void fillBooleanElements(long array, boolean value) {
+		if (getArrayLength(array) > 0) {
+			writeBooleanElement(array, 0, value);
+			replicateFirstElement(array, 1);
+		}
+	}
+
+	public void fillReferenceElements(long array, long value) {
+		var length = getArrayLength(array);
+		if (length > 0) {
+			shadeReferences(getElementAddress(array, referenceSize, 0), length);
+			writeReferenceElement(array, 0, value);
+			replicateFirstElement(array, referenceSize);
 		}
-		var arrayType = (ArrayDescriptor) descriptor;
-		var nativeValue = toNativeValue(arrayType.getElementType(), value);
-		writeLong64(getAddress(array) + index * POINTER_SIZE, nativeValue);
 	}
 
-	private Pointer allocate(int size, TypeDescriptor type) {
+	public void fillStringElements(long array, String value) {
+		fillReferenceElements(array, allocateString(value, array));
+	}
+
+	// Doubles the filled prefix with each copy.
+	private void replicateFirstElement(long array, int elementSize) {
+		var start = getElementAddress(array, elementSize, 0);
+		var size = getArrayLength(array) * elementSize;
+		for (int filled = elementSize; filled < size; filled *= 2) {
+			memory.copy(start, start + filled, Math.min(filled, size - filled));
+		}
+	}
+
+	// Bulk writes bypass the write barrier, so the references they overwrite are recorded up front.
+	private void shadeReferences(long address, int count) {
+		if (!gc.isMarking()) {
+			return;
+		}
+		for (int index = 0; index < count; index++) {
+			var previous = readReference(address + (long) index * referenceSize);
+			if (previous != NULL_POINTER) {
+				gc.recordOverwrittenReference(previous - BLOCK_HEADER_SIZE);
+			}
+		}
+	}
+
+	long getElementAddress(long array, int elementSize, int index) {
+		return array + getElementsOffset(elementSize) + (long) index * elementSize;
+	}
+
+	// Offset of the first element from the array payload, which starts with the int length.
+	public static int getElementsOffset(int elementSize) {
+		return Math.max(Integer.BYTES, elementSize);
+	}
+
+	private long allocate(int size, TypeDescriptor type) {
 		if (size < 0) {
 			throw new IllegalArgumentException("Negative block length");
 		}
-		var grossSize = size + BLOCK_HEADER_SIZE;
-		var newBlock = freeList.removeNewBlock(grossSize, this::getBlockSize);
+		var grossSize = (size + BLOCK_HEADER_SIZE + BLOCK_ALIGNMENT - 1) & -BLOCK_ALIGNMENT;
+		var large = largeObjects != null && grossSize >= largeObjectThreshold;
+		if (large) {
+			grossSize = (grossSize + LargeObjectSpace.PAGE_SIZE - 1) & -LargeObjectSpace.PAGE_SIZE;
+		}
+		gc.poll();
+		var newBlock = findFreeBlock(grossSize, large);
+		if (newBlock == NULL_POINTER && gc.completeMarkingCycle()) {
+			newBlock = findFreeBlock(grossSize, large);
+		}
 		if (newBlock == NULL_POINTER) {
 			gc.collect();
-			newBlock = freeList.removeNewBlock(grossSize, this::getBlockSize);
+			newBlock = findFreeBlock(grossSize, large);
 			if (newBlock == NULL_POINTER) {
 				throw new VMException("Out of memory");
 			}
 		}
-		if (getBlockSize(newBlock) > grossSize) {
+		if (!large && getBlockSize(newBlock) > grossSize) {
 			var unusedBlock = newBlock + grossSize;
 			setBlockSize(unusedBlock, getBlockSize(newBlock) - grossSize);
 			freeList.add(unusedBlock);
 		}
-		setBlockSize(newBlock, grossSize);
-		setTypeDescriptor(type, newBlock);
-		return getPointer(newBlock + BLOCK_HEADER_SIZE);
+		setBlockHeader(newBlock, grossSize, typeTable.getId(type));
+		// Zeroed payload, so the write barrier never sees stale references in a new block.
+		memory.clear(newBlock + BLOCK_HEADER_SIZE, grossSize - BLOCK_HEADER_SIZE);
+		gc.registerAllocation(newBlock, grossSize);
+		return newBlock + BLOCK_HEADER_SIZE;
 	}
 
-	private void setTypeDescriptor(TypeDescriptor type, long blockAddress) {
-		if (!typeDescriptors.containsLeft(type)) {
-			typeDescriptors.put(type, typeDescriptors.size());
+	// References, including strings, take one reference word.
+	private void writeReference(long address, long value) {
+		if (gc.isMarking()) {
+			var previous = readReference(address);
+			if (previous != NULL_POINTER) {
+				gc.recordOverwrittenReference(previous - BLOCK_HEADER_SIZE);
+			}
+		}
+		var encoded = encodeReference(value);
+		if (compressedReferences) {
+			memory.writeInt(address, (int) encoded);
+		} else {
+			memory.writeLong(address, encoded);
+		}
+	}
+
+	// Compressed references are zero-extended.
+	private long readRawReference(long address) {
+		return compressedReferences ? memory.readInt(address) & 0xFFFF_FFFFL : memory.readLong(address);
+	}
+
+	// Absolute address held by a reference word.
+	long readReference(long address) {
+		return decodeReference(readRawReference(address));
+	}
+
+	private long encodeReference(long address) {
+		return compressedReferences ? address >>> COMPRESSION_SHIFT : address;
+	}
+
+	private long decodeReference(long value) {
+		return compressedReferences ? value << COMPRESSION_SHIFT : value;
+	}
+
+	private long findFreeBlock(int size, boolean large) {
+		if (large) {
+			return largeObjects.allocate(size);
+		}
+		var block = freeList.removeNewBlock(size, this::getBlockSize);
+		while (block == NULL_POINTER && gc.sweepNextRegion()) {
+			block = freeList.removeNewBlock(size, this::getBlockSize);
 		}
-		var link = typeDescriptors.getRight(type);
-		writeLong64(blockAddress + TAG_OFFSET, link);
+		return block;
 	}
 
 	int getBlockSize(long blockAddress) {
-		return (int) (readLong64(blockAddress) & 0x7fffffff_ffffffffL);
+		return (int) (readLong64(blockAddress) & SIZE_MASK);
 	}
 
 	void setBlockSize(long address, int size) {
-		writeLong64(address, size);
+		setBlockHeader(address, size, 0);
+	}
+
+	// Free blocks have type id 0, so that the sweeper tells them from dead blocks without searching the free list.
+	boolean isFree(long blockAddress) {
+		return (readLong64(blockAddress) >>> TYPE_ID_SHIFT & TypeTable.MAX_TYPE_ID) == 0;
+	}
+
+	// Called on a dead block before it goes onto the free list.
+	void clearTypeId(long blockAddress) {
+		writeLong64(blockAddress, getBlockSize(blockAddress) & SIZE_MASK);
+	}
+
+	// The header is a single word, so a concurrent reader never sees a size without its type.
+	private void setBlockHeader(long address, int size, int typeId) {
+		writeLong64(address, (long) typeId << TYPE_ID_SHIFT | size & SIZE_MASK);
 	}
 
 	void writeLong64(long address, long value) {
-		heap.setLong(address, value);
+		memory.writeLong(address, value);
 	}
 
 	long readLong64(long address) {
-		return heap.getLong(address);
+		return memory.readLong(address);
 	}
 
-	private Object fromNativeValue(TypeDescriptor type, long value) {
-		if (type == TypeDescriptor.BOOLEAN_TYPE) {
-			return value == 1;
+	// Strings are immutable heap blocks holding a byte length and the UTF-8 bytes.
+	// The holder is the object that receives the string; it stays reachable while the string is allocated.
+	private long allocateString(String value, long holder) {
+		if (value == null) {
+			return NULL_POINTER;
 		}
-		if (type == TypeDescriptor.INT_TYPE) {
-			return (int) value;
+		var block = stringPool.find(value);
+		if (block != NULL_POINTER) {
+			// A cached block may not be marked yet, and storing it is not seen by the snapshot barrier.
+			if (gc.isMarking()) {
+				gc.recordOverwrittenReference(block);
+			}
+			return block + BLOCK_HEADER_SIZE;
 		}
-		if (type == TypeDescriptor.STRING_TYPE) {
-			return stringPool.getLeft((int) value);
+		var bytes = value.getBytes(StandardCharsets.UTF_8);
+		temporaryRoots.add(holder);
+		long string;
+		try {
+			string = allocate(Integer.BYTES + bytes.length, TypeDescriptor.STRING_TYPE);
+		} finally {
+			temporaryRoots.remove(temporaryRoots.size() - 1);
 		}
-		if (value == NULL_POINTER) {
-			return null;
+		memory.writeInt(string, bytes.length);
+		for (int index = 0; index < bytes.length; index++) {
+			memory.writeByte(string + Integer.BYTES + index, bytes[index]);
 		}
-		return getPointer(value);
+		stringPool.add(value, string - BLOCK_HEADER_SIZE);
+		return string;
 	}
 
-	private long toNativeValue(TypeDescriptor type, Object value) {
-		if (type == TypeDescriptor.BOOLEAN_TYPE) {
-			return (boolean) value ? 1 : 0;
-		}
-		if (type == TypeDescriptor.INT_TYPE) {
-			return (int) value;
-		}
-		if (type == TypeDescriptor.STRING_TYPE) {
-			return allocateString((String) value);
+	private String readString(long string) {
+		if (string == NULL_POINTER) {
+			return null;
 		}
+		var value = stringPool.get(string - BLOCK_HEADER_SIZE);
 		if (value == null) {
-			return NULL_POINTER;
+			var bytes = new byte[memory.readInt(string)];
+			for (int index = 0; index < bytes.length; index++) {
+				bytes[index] = memory.readByte(string + Integer.BYTES + index);
+			}
+			value = new String(bytes, StandardCharsets.UTF_8);
+			stringPool.add(value, string - BLOCK_HEADER_SIZE);
 		}
-		return getAddress((Pointer)value);
-	}
-
-	long getAddress(Pointer pointer) {
-		return pointer.getAddress();
+		return value;
 	}
 
-	Pointer getPointer(long address) {
-		return new Pointer(address);
+	List<Long> getTemporaryRoots() {
+		return temporaryRoots;
 	}
 
-	private long allocateString(String value) {
-		if (!stringPool.containsLeft(value)) {
-			stringPool.put(value, stringPool.size());
-		}
-		return stringPool.getRight(value);
+	// Called once marking has finished: strings whose blocks are unmarked are about to be swept.
+	void evictUnmarkedStrings(HeapBitmap marks) {
+		stringPool.retain(marks::isSet);
 	}
 }
@@ -0,0 +1,7 @@
+package runtime.heap;
+
+public enum HeapBackend {
+	JNA, // com.sun.jna.Memory, natively addressable for JIT-compiled code
+	ARRAY, // plain long[] on the Java heap
+	BUFFER // direct ByteBuffer outside the Java heap
+}
@@ -0,0 +1,58 @@
+package runtime.heap;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+class HeapBitmap {
+	static final int GRANULE_SHIFT = 3;
+	private static final int WORD_SHIFT = 6;
+
+	private final AtomicLongArray words;
+
+	public HeapBitmap(long heapSize) {
+		var granules = heapSize >>> GRANULE_SHIFT;
+		words = new AtomicLongArray((int) ((granules >>> WORD_SHIFT) + 1));
+	}
+
+	// Atomically sets the bit; returns false if it was already set.
+	public boolean set(long address) {
+		var granule = address >>> GRANULE_SHIFT;
+		var index = (int) (granule >>> WORD_SHIFT);
+		var bit = 1L << granule;
+		var word = words.get(index);
+		while ((word & bit) == 0) {
+			var witness = words.compareAndExchange(index, word, word | bit);
+			if (witness == word) {
+				return true;
+			}
+			word = witness;
+		}
+		return false;
+	}
+
+	public boolean isSet(long address) {
+		var granule = address >>> GRANULE_SHIFT;
+		return (words.get((int) (granule >>> WORD_SHIFT)) & 1L << granule) != 0;
+	}
+
+	// Returns the lowest address in [from, to) whose bit is set, or -1 if there is none.
+	public long findNext(long from, long to) {
+		var granule = from >>> GRANULE_SHIFT;
+		var end = to >>> GRANULE_SHIFT;
+		while (granule < end) {
+			var index = (int) (granule >>> WORD_SHIFT);
+			var word = words.get(index) & -1L << granule;
+			if (word != 0) {
+				var found = ((long) index << WORD_SHIFT) + Long.numberOfTrailingZeros(word);
+				return found < end ? found << GRANULE_SHIFT : -1;
+			}
+			granule = (long) (index + 1) << WORD_SHIFT;
+		}
+		return -1;
+	}
+
+	public void clear() {
+		for (int index = 0; index < words.length(); index++) {
+			words.set(index, 0);
+		}
+	}
+}
@@ -0,0 +1,134 @@
+package runtime.heap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import error.VMException;
+
+// Metadata stored next to a heap file. It only exists while the heap is closed, so a heap file
+// left behind by a crashed run has no image and is reinitialized.
+class HeapImage {
+	private static final int MAGIC = 0x48454150;
+	private static final int VERSION = 6;
+	private static final String SUFFIX = ".meta";
+
+	private final long heapSize;
+	private final boolean compressedReferences;
+	private final long root;
+	private final List<String> typeIdentifiers = new ArrayList<>();
+	private final List<String> typeLayouts = new ArrayList<>();
+	private final List<Long> freeBlocks = new ArrayList<>();
+	private final List<Long> largeBlocks = new ArrayList<>();
+
+	public HeapImage(long heapSize, boolean compressedReferences, long root) {
+		this.heapSize = heapSize;
+		this.compressedReferences = compressedReferences;
+		this.root = root;
+	}
+
+	public long getHeapSize() {
+		return heapSize;
+	}
+
+	public boolean isCompressedReferences() {
+		return compressedReferences;
+	}
+
+	public long getRoot() {
+		return root;
+	}
+
+	public List<String> getTypeIdentifiers() {
+		return typeIdentifiers;
+	}
+
+	public List<String> getTypeLayouts() {
+		return typeLayouts;
+	}
+
+	public List<Long> getFreeBlocks() {
+		return freeBlocks;
+	}
+
+	public List<Long> getLargeBlocks() {
+		return largeBlocks;
+	}
+
+	// Reads the image of the given heap file; returns null if there is none.
+	public static HeapImage load(Path heapFile) {
+		var path = metadataPath(heapFile);
+		if (!Files.exists(path) || !Files.exists(heapFile)) {
+			return null;
+		}
+		HeapImage image;
+		try (var input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+			if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+				throw new VMException("Invalid heap image " + path);
+			}
+			image = new HeapImage(input.readLong(), input.readBoolean(), input.readLong());
+			var typeCount = input.readInt();
+			for (int index = 0; index < typeCount; index++) {
+				image.typeIdentifiers.add(input.readUTF());
+				image.typeLayouts.add(input.readUTF());
+			}
+			var freeCount = input.readInt();
+			for (int index = 0; index < freeCount; index++) {
+				image.freeBlocks.add(input.readLong());
+			}
+			var largeCount = input.readInt();
+			for (int index = 0; index < largeCount; index++) {
+				image.largeBlocks.add(input.readLong());
+			}
+		} catch (IOException exception) {
+			throw new VMException("Cannot read heap image: " + exception.getMessage());
+		}
+		return image;
+	}
+
+	// Called once the heap has been validated against the image and is in use, which may leave
+	// the heap file inconsistent until it is closed.
+	public static void discard(Path heapFile) {
+		try {
+			Files.delete(metadataPath(heapFile));
+		} catch (IOException exception) {
+			throw new VMException("Cannot remove heap image: " + exception.getMessage());
+		}
+	}
+
+	public void save(Path heapFile) {
+		var path = metadataPath(heapFile);
+		try (var output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			output.writeLong(heapSize);
+			output.writeBoolean(compressedReferences);
+			output.writeLong(root);
+			output.writeInt(typeIdentifiers.size());
+			for (int index = 0; index < typeIdentifiers.size(); index++) {
+				output.writeUTF(typeIdentifiers.get(index));
+				output.writeUTF(typeLayouts.get(index));
+			}
+			output.writeInt(freeBlocks.size());
+			for (var block : freeBlocks) {
+				output.writeLong(block);
+			}
+			output.writeInt(largeBlocks.size());
+			for (var block : largeBlocks) {
+				output.writeLong(block);
+			}
+		} catch (IOException exception) {
+			throw new VMException("Cannot write heap image: " + exception.getMessage());
+		}
+	}
+
+	private static Path metadataPath(Path heapFile) {
+		return heapFile.resolveSibling(heapFile.getFileName() + SUFFIX);
+	}
+}
@@ -0,0 +1,61 @@
+package runtime.heap;
+
+public interface HeapMemory {
+	long getSize();
+
+	long readLong(long address);
+
+	void writeLong(long address, long value);
+
+	byte readByte(long address);
+
+	void writeByte(long address, byte value);
+
+	int readInt(long address);
+
+	void writeInt(long address, int value);
+
+	// Copies a byte range; the source and target ranges may overlap.
+	default void copy(long source, long target, int length) {
+		var bytes = new byte[length];
+		for (int index = 0; index < length; index++) {
+			bytes[index] = readByte(source + index);
+		}
+		for (int index = 0; index < length; index++) {
+			writeByte(target + index, bytes[index]);
+		}
+	}
+
+	default void clear(long address, int length) {
+		var end = address + length;
+		while (address < end && address % Long.BYTES != 0) {
+			writeByte(address++, (byte) 0);
+		}
+		for (; address + Long.BYTES <= end; address += Long.BYTES) {
+			writeLong(address, 0);
+		}
+		while (address < end) {
+			writeByte(address++, (byte) 0);
+		}
+	}
+
+	// Address of the first heap byte in native memory, or 0 if the backend is not natively addressable.
+	long getNativeAddress();
+
+	// Writes outstanding changes through to the backing store, if there is one.
+	default void close() {
+	}
+
+	static HeapMemory allocate(HeapBackend backend, long size) {
+		switch (backend) {
+		case ARRAY:
+			return new ArrayHeapMemory(size);
+		case BUFFER:
+			return new BufferHeapMemory(size);
+		case JNA:
+			return new JNAHeapMemory(size);
+		default:
+			throw new IllegalArgumentException("Unknown heap backend " + backend);
+		}
+	}
+}
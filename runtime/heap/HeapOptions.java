@@ -0,0 +1,106 @@
+package runtime.heap;
+
+import java.nio.file.Path;
+
+public class HeapOptions {
+	private long heapSize = 8 * 1024;
+	private Path heapFile;
+	private boolean compressedReferences;
+	private long largeObjectThreshold = 4 * 1024;
+	private HeapBackend heapBackend = HeapBackend.JNA;
+	private GCMode gcMode = GCMode.SERIAL;
+	private int gcThreads = Runtime.getRuntime().availableProcessors();
+	private long pauseTargetNanos = 1_000_000;
+	private boolean printGCStatistics;
+
+	public long getHeapSize() {
+		return heapSize;
+	}
+
+	public void setHeapSize(long heapSize) {
+		if (heapSize < 64 || heapSize % 8 != 0) {
+			throw new IllegalArgumentException("Heap size must be a multiple of 8 and at least 64 bytes");
+		}
+		this.heapSize = heapSize;
+	}
+
+	// A heap file replaces the memory backend; the heap is then kept across runs.
+	public Path getHeapFile() {
+		return heapFile;
+	}
+
+	public void setHeapFile(Path heapFile) {
+		this.heapFile = heapFile;
+	}
+
+	// Stores references as 32-bit scaled offsets, which limits the heap to 32 GB.
+	public boolean isCompressedReferences() {
+		return compressedReferences;
+	}
+
+	public void setCompressedReferences(boolean compressedReferences) {
+		this.compressedReferences = compressedReferences;
+	}
+
+	public int getReferenceSize() {
+		return compressedReferences ? Integer.BYTES : Long.BYTES;
+	}
+
+	// Blocks of at least this size go to the large-object space, if the heap has one.
+	public long getLargeObjectThreshold() {
+		return largeObjectThreshold;
+	}
+
+	public void setLargeObjectThreshold(long largeObjectThreshold) {
+		if (largeObjectThreshold <= 0) {
+			throw new IllegalArgumentException("Large object threshold must be positive");
+		}
+		this.largeObjectThreshold = largeObjectThreshold;
+	}
+
+	public HeapBackend getHeapBackend() {
+		return heapBackend;
+	}
+
+	public void setHeapBackend(HeapBackend heapBackend) {
+		this.heapBackend = heapBackend;
+	}
+
+	public GCMode getGCMode() {
+		return gcMode;
+	}
+
+	public void setGCMode(GCMode gcMode) {
+		this.gcMode = gcMode;
+	}
+
+	public int getGCThreads() {
+		return gcThreads;
+	}
+
+	public void setGCThreads(int gcThreads) {
+		if (gcThreads < 1) {
+			throw new IllegalArgumentException("At least one GC thread required");
+		}
+		this.gcThreads = gcThreads;
+	}
+
+	public long getPauseTargetNanos() {
+		return pauseTargetNanos;
+	}
+
+	public void setPauseTargetNanos(long pauseTargetNanos) {
+		if (pauseTargetNanos <= 0) {
+			throw new IllegalArgumentException("Pause target must be positive");
+		}
+		this.pauseTargetNanos = pauseTargetNanos;
+	}
+
+	public boolean isPrintGCStatistics() {
+		return printGCStatistics;
+	}
+
+	public void setPrintGCStatistics(boolean printGCStatistics) {
+		this.printGCStatistics = printGCStatistics;
+	}
+}
@@ -0,0 +1,61 @@
+package runtime.heap;
+
+import com.sun.jna.Memory;
+
+class JNAHeapMemory implements HeapMemory {
+	private final Memory memory;
+
+	public JNAHeapMemory(long size) {
+		memory = new Memory(size);
+	}
+
+	@Override
+	public long getSize() {
+		return memory.size();
+	}
+
+	@Override
+	public long readLong(long address) {
+		return memory.getLong(address);
+	}
+
+	@Override
+	public void writeLong(long address, long value) {
+		memory.setLong(address, value);
+	}
+
+	@Override
+	public byte readByte(long address) {
+		return memory.getByte(address);
+	}
+
+	@Override
+	public void writeByte(long address, byte value) {
+		memory.setByte(address, value);
+	}
+
+	@Override
+	public int readInt(long address) {
+		return memory.getInt(address);
+	}
+
+	@Override
+	public void writeInt(long address, int value) {
+		memory.setInt(address, value);
+	}
+
+	@Override
+	public void copy(long source, long target, int length) {
+		memory.write(target, memory.getByteArray(source, length), 0, length);
+	}
+
+	@Override
+	public void clear(long address, int length) {
+		memory.setMemory(address, length, (byte) 0);
+	}
+
+	@Override
+	public long getNativeAddress() {
+		return com.sun.jna.Pointer.nativeValue(memory);
+	}
+}
@@ -0,0 +1,67 @@
+package runtime.heap;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+// Page-granular space at the end of the heap for big blocks. Blocks never move and are swept
+// by walking the list of allocated blocks, so they neither fragment nor slow down the free list.
+class LargeObjectSpace {
+	static final int PAGE_SIZE = 4096;
+
+	private final long start;
+	private final BitSet usedPages = new BitSet();
+	private final int pageCount;
+	private final List<Long> blocks = new ArrayList<>();
+
+	public LargeObjectSpace(long start, long end) {
+		this.start = start;
+		pageCount = (int) ((end - start) / PAGE_SIZE);
+	}
+
+	public long getStart() {
+		return start;
+	}
+
+	// Returns the page-aligned block address, or null pointer if no run of free pages is big enough.
+	public long allocate(long size) {
+		var pages = (int) ((size + PAGE_SIZE - 1) / PAGE_SIZE);
+		var first = usedPages.nextClearBit(0);
+		while (first + pages <= pageCount) {
+			var next = usedPages.nextSetBit(first);
+			if (next < 0 || next - first >= pages) {
+				usedPages.set(first, first + pages);
+				var block = start + (long) first * PAGE_SIZE;
+				blocks.add(block);
+				return block;
+			}
+			first = usedPages.nextClearBit(next);
+		}
+		return Heap.NULL_POINTER;
+	}
+
+	// Releases the pages of every block that is not marked.
+	public void sweep(HeapBitmap marks, Heap heap) {
+		var iterator = blocks.iterator();
+		while (iterator.hasNext()) {
+			var block = iterator.next();
+			if (!marks.isSet(block)) {
+				var first = (int) ((block - start) / PAGE_SIZE);
+				usedPages.clear(first, first + heap.getBlockSize(block) / PAGE_SIZE);
+				iterator.remove();
+			}
+		}
+	}
+
+	public List<Long> getBlocks() {
+		return Collections.unmodifiableList(blocks);
+	}
+
+	// Re-registers a block of a reopened heap file.
+	public void restore(long block, int size) {
+		var first = (int) ((block - start) / PAGE_SIZE);
+		usedPages.set(first, first + size / PAGE_SIZE);
+		blocks.add(block);
+	}
+}
@@ -0,0 +1,102 @@
+package runtime.heap;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.sun.jna.Native;
+
+class MappedHeapMemory implements HeapMemory {
+	// A single mapping is limited to 2 GB, so larger heaps are mapped in chunks.
+	private static final int CHUNK_SHIFT = 30;
+	private static final long CHUNK_MASK = (1L << CHUNK_SHIFT) - 1;
+
+	private final long size;
+	private final MappedByteBuffer[] chunks;
+
+	public MappedHeapMemory(Path file, long size) {
+		this.size = size;
+		chunks = new MappedByteBuffer[(int) ((size + CHUNK_MASK) >>> CHUNK_SHIFT)];
+		try (var channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+			for (int index = 0; index < chunks.length; index++) {
+				var offset = (long) index << CHUNK_SHIFT;
+				var length = Math.min(size - offset, 1L << CHUNK_SHIFT);
+				chunks[index] = channel.map(FileChannel.MapMode.READ_WRITE, offset, length);
+				chunks[index].order(ByteOrder.nativeOrder());
+			}
+		} catch (IOException exception) {
+			throw new UncheckedIOException(exception);
+		}
+	}
+
+	@Override
+	public long getSize() {
+		return size;
+	}
+
+	@Override
+	public long readLong(long address) {
+		return chunks[(int) (address >>> CHUNK_SHIFT)].getLong((int) (address & CHUNK_MASK));
+	}
+
+	@Override
+	public void writeLong(long address, long value) {
+		chunks[(int) (address >>> CHUNK_SHIFT)].putLong((int) (address & CHUNK_MASK), value);
+	}
+
+	@Override
+	public byte readByte(long address) {
+		return chunks[(int) (address >>> CHUNK_SHIFT)].get((int) (address & CHUNK_MASK));
+	}
+
+	@Override
+	public void writeByte(long address, byte value) {
+		chunks[(int) (address >>> CHUNK_SHIFT)].put((int) (address & CHUNK_MASK), value);
+	}
+
+	@Override
+	public int readInt(long address) {
+		return chunks[(int) (address >>> CHUNK_SHIFT)].getInt((int) (address & CHUNK_MASK));
+	}
+
+	@Override
+	public void writeInt(long address, int value) {
+		chunks[(int) (address >>> CHUNK_SHIFT)].putInt((int) (address & CHUNK_MASK), value);
+	}
+
+	// Ranges that cross a chunk boundary fall back to byte-wise copying.
+	@Override
+	public void copy(long source, long target, int length) {
+		if (isInOneChunk(source, length) && isInOneChunk(target, length)) {
+			var bytes = new byte[length];
+			chunks[(int) (source >>> CHUNK_SHIFT)].get((int) (source & CHUNK_MASK), bytes);
+			chunks[(int) (target >>> CHUNK_SHIFT)].put((int) (target & CHUNK_MASK), bytes);
+		} else {
+			HeapMemory.super.copy(source, target, length);
+		}
+	}
+
+	private static boolean isInOneChunk(long address, int length) {
+		return address >>> CHUNK_SHIFT == (address + length - 1) >>> CHUNK_SHIFT;
+	}
+
+	@Override
+	public long getNativeAddress() {
+		if (chunks.length != 1) {
+			return 0;
+		}
+		return com.sun.jna.Pointer.nativeValue(Native.getDirectBufferPointer(chunks[0]));
+	}
+
+	@Override
+	public void close() {
+		for (var chunk : chunks) {
+			chunk.force();
+		}
+	}
+}
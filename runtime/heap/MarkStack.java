@@ -0,0 +1,34 @@
+package runtime.heap;
+
+import java.util.Arrays;
+
+class MarkStack {
+	private static final int INITIAL_CAPACITY = 64;
+
+	private final int limit;
+	private long[] entries = new long[INITIAL_CAPACITY];
+	private int size;
+
+	public MarkStack(int limit) {
+		this.limit = limit;
+	}
+
+	public boolean push(long block) {
+		if (size == entries.length) {
+			if (size == limit) {
+				return false;
+			}
+			entries = Arrays.copyOf(entries, Math.min(size * 2, limit));
+		}
+		entries[size++] = block;
+		return true;
+	}
+
+	public long pop() {
+		return entries[--size];
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+}
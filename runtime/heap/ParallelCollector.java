@@ -0,0 +1,124 @@
+package runtime.heap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import java.util.function.LongConsumer;
+
+import error.VMException;
+import runtime.ActivationFrame;
+import runtime.CallStack;
+
+class ParallelCollector {
+	private final GC gc;
+	private final HeapBitmap marks;
+	private final int workers;
+	private final ExecutorService executor;
+	private final WorkStealingDeque[] deques;
+	private final AtomicInteger activeWorkers = new AtomicInteger();
+
+	public ParallelCollector(GC gc, HeapBitmap marks, int workers) {
+		this.gc = gc;
+		this.marks = marks;
+		this.workers = workers;
+		executor = Executors.newFixedThreadPool(workers, runnable -> {
+			var thread = new Thread(runnable, "gc-worker");
+			thread.setDaemon(true);
+			return thread;
+		});
+		deques = new WorkStealingDeque[workers];
+		for (int index = 0; index < workers; index++) {
+			deques[index] = new WorkStealingDeque();
+		}
+	}
+
+	// Only marks; the mutator sweeps lazily afterwards, as in the serial mode.
+	public void mark(CallStack stack) {
+		var frames = new ArrayList<ActivationFrame>();
+		for (var frame : stack) {
+			frames.add(frame);
+		}
+		marks.clear();
+		activeWorkers.set(workers);
+		runWorkers(worker -> mark(worker, frames));
+	}
+
+	private Void mark(int worker, List<ActivationFrame> frames) {
+		var deque = deques[worker];
+		LongConsumer visitor = block -> {
+			if (marks.set(block) && gc.hasReferences(block)) {
+				deque.push(block);
+			}
+		};
+		if (worker == 0) {
+			gc.visitHeapRoots(visitor);
+		}
+		for (int index = worker; index < frames.size(); index += workers) {
+			gc.visitRoots(frames.get(index), visitor);
+		}
+		while (true) {
+			var block = deque.pop();
+			if (block == Heap.NULL_POINTER) {
+				block = steal(worker);
+			}
+			if (block != Heap.NULL_POINTER) {
+				gc.scanBlock(block, visitor);
+			} else if (awaitTermination()) {
+				return null;
+			}
+		}
+	}
+
+	private long steal(int worker) {
+		for (int offset = 1; offset < workers; offset++) {
+			var block = deques[(worker + offset) % workers].steal();
+			if (block != Heap.NULL_POINTER) {
+				return block;
+			}
+		}
+		return Heap.NULL_POINTER;
+	}
+
+	// Only active workers push, so marking is complete once every worker is idle.
+	private boolean awaitTermination() {
+		activeWorkers.decrementAndGet();
+		while (activeWorkers.get() != 0) {
+			for (var deque : deques) {
+				if (!deque.isEmpty()) {
+					activeWorkers.incrementAndGet();
+					return false;
+				}
+			}
+			Thread.onSpinWait();
+		}
+		return true;
+	}
+
+	private <T> List<T> runWorkers(IntFunction<T> task) {
+		var tasks = new ArrayList<Callable<T>>();
+		for (int index = 0; index < workers; index++) {
+			var worker = index;
+			tasks.add(() -> task.apply(worker));
+		}
+		var results = new ArrayList<T>();
+		try {
+			for (var future : executor.invokeAll(tasks)) {
+				results.add(future.get());
+			}
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			throw new VMException("GC interrupted");
+		} catch (ExecutionException exception) {
+			if (exception.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) exception.getCause();
+			}
+			throw new AssertionError(exception.getCause());
+		}
+		return results;
+	}
+}
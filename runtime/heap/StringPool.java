@@ -0,0 +1,37 @@
+package runtime.heap;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.LongPredicate;
+
+// Weak cache of the string blocks in the heap. Equal strings share a block while it is reachable;
+// the collector evicts entries whose blocks did not survive marking, so their space can be reused.
+public class StringPool {
+	private final Map<String, Long> blocks = new HashMap<>();
+	private final Map<Long, String> values = new HashMap<>();
+
+	public long find(String value) {
+		var block = blocks.get(value);
+		return block != null ? block : Heap.NULL_POINTER;
+	}
+
+	public String get(long block) {
+		return values.get(block);
+	}
+
+	public void add(String value, long block) {
+		blocks.put(value, block);
+		values.put(block, value);
+	}
+
+	public void retain(LongPredicate isLive) {
+		var iterator = values.entrySet().iterator();
+		while (iterator.hasNext()) {
+			var entry = iterator.next();
+			if (!isLive.test(entry.getKey())) {
+				blocks.remove(entry.getValue(), entry.getKey());
+				iterator.remove();
+			}
+		}
+	}
+}
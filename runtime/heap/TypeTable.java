@@ -0,0 +1,46 @@
+package runtime.heap;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import error.VMException;
+import runtime.descriptors.TypeDescriptor;
+
+// Dense type ids as stored in block headers. Id 0 is reserved for untyped (free) blocks.
+public class TypeTable {
+	static final int MAX_TYPE_ID = (1 << Heap.TYPE_ID_BITS) - 1;
+	private final Map<TypeDescriptor, Integer> ids = new ConcurrentHashMap<>();
+	// Copied on write, so that the concurrent marker always reads a complete table.
+	private volatile TypeDescriptor[] types = new TypeDescriptor[1];
+
+	public int getId(TypeDescriptor type) {
+		var id = ids.get(type);
+		return id != null ? id : register(type);
+	}
+
+	public TypeDescriptor get(int id) {
+		return types[id];
+	}
+
+	// Number of registered types; their ids are 1 to size().
+	public int size() {
+		return types.length - 1;
+	}
+
+	private synchronized int register(TypeDescriptor type) {
+		var id = ids.get(type);
+		if (id != null) {
+			return id;
+		}
+		var newId = types.length;
+		if (newId > MAX_TYPE_ID) {
+			throw new VMException("Too many types");
+		}
+		var newTypes = Arrays.copyOf(types, newId + 1);
+		newTypes[newId] = type;
+		types = newTypes;
+		ids.put(type, newId);
+		return newId;
+	}
+}
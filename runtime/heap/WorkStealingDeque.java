@@ -0,0 +1,71 @@
+package runtime.heap;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Chase-Lev deque: only the owner pushes and pops at the bottom, without locking. Thieves take from
+// the top with a compare-and-set, which the owner also needs when it pops the last entry.
+class WorkStealingDeque {
+	private static final int INITIAL_CAPACITY = 64;
+
+	// A circular buffer whose capacity is a power of two; indices grow without wrapping.
+	private volatile AtomicLongArray entries = new AtomicLongArray(INITIAL_CAPACITY);
+	private final AtomicLong top = new AtomicLong();
+	private volatile long bottom;
+
+	public void push(long block) {
+		var bottom = this.bottom;
+		var entries = this.entries;
+		if (bottom - top.get() >= entries.length()) {
+			entries = grow(entries, top.get(), bottom);
+		}
+		entries.set((int) (bottom & entries.length() - 1), block);
+		this.bottom = bottom + 1;
+	}
+
+	// Owner end: last in, first out.
+	public long pop() {
+		var bottom = this.bottom - 1;
+		var entries = this.entries;
+		this.bottom = bottom;
+		var top = this.top.get();
+		if (top > bottom) {
+			this.bottom = bottom + 1;
+			return Heap.NULL_POINTER;
+		}
+		var block = entries.get((int) (bottom & entries.length() - 1));
+		if (top == bottom) {
+			if (!this.top.compareAndSet(top, top + 1)) {
+				block = Heap.NULL_POINTER;
+			}
+			this.bottom = bottom + 1;
+		}
+		return block;
+	}
+
+	// Thief end: takes the oldest entry, or returns the null pointer if it is empty or another thread won.
+	public long steal() {
+		var top = this.top.get();
+		var bottom = this.bottom;
+		if (top >= bottom) {
+			return Heap.NULL_POINTER;
+		}
+		var entries = this.entries;
+		var block = entries.get((int) (top & entries.length() - 1));
+		return this.top.compareAndSet(top, top + 1) ? block : Heap.NULL_POINTER;
+	}
+
+	public boolean isEmpty() {
+		return top.get() >= bottom;
+	}
+
+	// The old buffer stays intact, so a thief that still reads it gets the same entries.
+	private AtomicLongArray grow(AtomicLongArray entries, long top, long bottom) {
+		var grown = new AtomicLongArray(entries.length() * 2);
+		for (var index = top; index < bottom; index++) {
+			grown.set((int) (index & grown.length() - 1), entries.get((int) (index & entries.length() - 1)));
+		}
+		this.entries = grown;
+		return grown;
+	}
+}